@@ -0,0 +1,81 @@
+package org.limitless.fsmp4j;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.foreign.Arena;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The embedded free list policies compared with the bitmap policy, for eight byte blocks which
+ * take sixteen bytes with a free list and eight with a bitmap. Every invocation frees a batch of
+ * live blocks, in random order or as one range of a segment, and allocates the batch again.
+ */
+@Fork(value = 3)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class AllocatorBenchmark {
+
+    private static final int BLOCKS = 1 << 20;
+    private static final int BATCH = 4096;
+
+    @Param({"LIFO", "DENSE", "BITMAP"})
+    public BlockPool.AllocationPolicy policy;
+
+    private BlockPool<Block> pool;
+    private Block block;
+    private long[] addresses;
+    private long[] batch;
+    private SplittableRandom random;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pool = new BlockPool.Builder<>(Arena.ofShared(), Block.class)
+            .blocksPerSegment(64 * 1024).allocationPolicy(policy).build();
+        block = new Block();
+        addresses = new long[BLOCKS];
+        for (int i = 0; i < BLOCKS; ++i) {
+            addresses[i] = pool.allocate(block).address();
+        }
+        batch = new long[BATCH];
+        random = new SplittableRandom(5);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Benchmark
+    public void randomFree() {
+        for (int i = 0; i < BATCH; ++i) {
+            final int index = random.nextInt(BLOCKS - i);
+            batch[i] = addresses[index];
+            addresses[index] = addresses[BLOCKS - 1 - i];
+            pool.free(batch[i]);
+        }
+        for (int i = 0; i < BATCH; ++i) {
+            addresses[BLOCKS - 1 - i] = pool.allocate(block).address();
+        }
+    }
+
+    @Benchmark
+    public void rangeFree() {
+        // the free list policies allocate the freed range again in another order
+        long first = Long.MAX_VALUE;
+        for (int i = 0; i < BATCH; ++i) {
+            first = Math.min(first, pool.allocate(block).address());
+        }
+        pool.free(first, BATCH);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(AllocatorBenchmark.class.getSimpleName()).build()).run();
+    }
+}
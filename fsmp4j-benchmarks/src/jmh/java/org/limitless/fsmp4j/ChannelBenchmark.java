@@ -0,0 +1,126 @@
+package org.limitless.fsmp4j;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and reading blocks through a file channel, zero-copy gather and scatter of block
+ * views compared with copying the blocks through a heap byte array.
+ */
+@Fork(value = 3)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class ChannelBenchmark {
+
+    private static final int COPY_BUFFER_LENGTH = 64 * 1024;
+
+    @Param({"1000", "100000"})
+    public int blocks;
+
+    private Path path;
+    private FileChannel channel;
+    private BlockPool<Record> pool;
+    private BlockIO<Record> io;
+    private Record record;
+    private long[] addresses;
+    private long[] readAddresses;
+    private byte[] copyBuffer;
+    private ByteBuffer copyByteBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        path = Files.createTempFile("fsmp4j", ".blocks");
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        pool = new BlockPool.Builder<>(Arena.ofShared(), Record.class).blocksPerSegment(64 * 1024).build();
+        record = new Record();
+        io = new BlockIO<>(pool, new Record());
+        addresses = new long[blocks];
+        readAddresses = new long[blocks];
+        for (int i = 0; i < blocks; ++i) {
+            addresses[i] = pool.allocate(record).id(i).address();
+        }
+        copyBuffer = new byte[COPY_BUFFER_LENGTH];
+        copyByteBuffer = ByteBuffer.wrap(copyBuffer);
+        io.write(channel, addresses, 0, blocks);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        channel.close();
+        pool.close();
+        Files.delete(path);
+    }
+
+    @Benchmark
+    public long gatherWrite() throws IOException {
+        channel.position(0);
+        return io.write(channel, addresses, 0, blocks);
+    }
+
+    @Benchmark
+    public long copyWrite() throws IOException {
+        channel.position(0);
+        long written = 0;
+        int position = 0;
+        for (int i = 0; i < blocks; ++i) {
+            pool.get(addresses[i], record).copyTo(position, copyBuffer);
+            position += Record.BYTES;
+            if (position + Record.BYTES > copyBuffer.length || i == blocks - 1) {
+                copyByteBuffer.clear().limit(position);
+                while (copyByteBuffer.hasRemaining()) {
+                    written += channel.write(copyByteBuffer);
+                }
+                position = 0;
+            }
+        }
+        return written;
+    }
+
+    @Benchmark
+    public int scatterRead() throws IOException {
+        channel.position(0);
+        final int read = io.read(channel, readAddresses, 0, blocks);
+        for (int i = 0; i < read; ++i) {
+            pool.free(readAddresses[i]);
+        }
+        return read;
+    }
+
+    @Benchmark
+    public int copyRead() throws IOException {
+        channel.position(0);
+        int read = 0;
+        while (read < blocks) {
+            final int length = Math.min(blocks - read, copyBuffer.length / Record.BYTES) * Record.BYTES;
+            copyByteBuffer.clear().limit(length);
+            while (copyByteBuffer.hasRemaining() && channel.read(copyByteBuffer) >= 0) {
+                // read the whole chunk
+            }
+            for (int position = 0; position < copyByteBuffer.position(); position += Record.BYTES) {
+                readAddresses[read++] = pool.allocate(record).copyFrom(position, copyBuffer).address();
+            }
+        }
+        for (int i = 0; i < read; ++i) {
+            pool.free(readAddresses[i]);
+        }
+        return read;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ChannelBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,96 @@
+package org.limitless.fsmp4j;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.foreign.Arena;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scan and update of blocks allocated after a churn workload, with the LIFO, DENSE and BITMAP
+ * allocation policies. Every churn round frees a random half of the live blocks and allocates as
+ * many new blocks, the benchmarks visit the blocks of the last round in allocation order. The
+ * kernel scan sums the live blocks of the BITMAP pool, the only policy the pool kernels accept.
+ */
+@Fork(value = 3)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class ChurnBenchmark {
+
+    private static final int CHURN_ROUNDS = 8;
+
+    @Param({"LIFO", "DENSE", "BITMAP"})
+    public BlockPool.AllocationPolicy policy;
+
+    @Param({"100000", "1000000"})
+    public int blocks;
+
+    private BlockPool<Quote> pool;
+    private Quote quote;
+    private long[] addresses;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pool = new BlockPool.Builder<>(Arena.ofShared(), Quote.class)
+            .blocksPerSegment(16 * 1024).allocationPolicy(policy).build();
+        quote = new Quote();
+        final var random = new SplittableRandom(17);
+        final long[] live = new long[blocks];
+        for (int i = 0; i < blocks; ++i) {
+            live[i] = pool.allocate(quote).quote(i, i, i).address();
+        }
+
+        final int churn = blocks / 2;
+        addresses = new long[churn];
+        for (int round = 0; round < CHURN_ROUNDS; ++round) {
+            for (int i = 0; i < churn; ++i) {
+                final int victim = i + random.nextInt(blocks - i);
+                final long address = live[victim];
+                live[victim] = live[i];
+                live[i] = address;
+                pool.free(address);
+            }
+            for (int i = 0; i < churn; ++i) {
+                live[i] = pool.allocate(quote).quote(i, i, i).address();
+                addresses[i] = live[i];
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Benchmark
+    public long scan() {
+        long sum = 0;
+        for (final long address : addresses) {
+            sum += pool.get(address, quote).bid();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public void update() {
+        for (final long address : addresses) {
+            pool.get(address, quote);
+            quote.quote(quote.bid() + 1, quote.ask(), quote.size());
+        }
+    }
+
+    @Benchmark
+    public long kernelScan() {
+        return policy == BlockPool.AllocationPolicy.BITMAP ? FieldKernels.sumLong(pool, Quote.BID_OFFSET) : 0;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ChurnBenchmark.class.getSimpleName()).build()).run();
+    }
+}
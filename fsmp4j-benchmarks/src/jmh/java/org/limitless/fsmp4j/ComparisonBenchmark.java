@@ -0,0 +1,364 @@
+package org.limitless.fsmp4j;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Block pool compared with the usual alternatives for a live set of fixed size records: a heap
+ * object per record, heap objects recycled through a free list, slices of direct byte buffers and
+ * an arena per record. Each record is size bytes with a long at offset 0.
+ *
+ * churn frees a random record and allocates its replacement, get reads and update increments the
+ * long of a random record and scan sums the long of all records. The allocation rate and the GC
+ * time are reported by the GC profiler, which main adds, or -prof gc on the JMH command line. Larger
+ * live sets up to 100M records are run with -p liveBlocks=100000000 and a heap to match.
+ *
+ * The arena per record is shared, since JMH may run the iterations of a trial on different threads.
+ */
+@Fork(value = 3, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class ComparisonBenchmark {
+
+    private static final int BLOCKS_PER_CHUNK = 64 * 1024;
+
+    public enum Storage {
+        POOL, HEAP, POOLED_HEAP, BYTE_BUFFER, ARENA
+    }
+
+    @Param({"8", "64", "256", "1024"})
+    public int size;
+
+    @Param({"100000", "1000000"})
+    public int liveBlocks;
+
+    @Param({"POOL", "HEAP", "POOLED_HEAP", "BYTE_BUFFER", "ARENA"})
+    public Storage storage;
+
+    private Store store;
+    private long random;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        store = switch (storage) {
+            case POOL -> new PoolStore(size, liveBlocks);
+            case HEAP -> new HeapStore(size, liveBlocks, false);
+            case POOLED_HEAP -> new HeapStore(size, liveBlocks, true);
+            case BYTE_BUFFER -> new BufferStore(size, liveBlocks);
+            case ARENA -> new ArenaStore(size, liveBlocks);
+        };
+        for (int slot = 0; slot < liveBlocks; ++slot) {
+            store.allocate(slot, slot);
+        }
+        random = 0x9e3779b97f4a7c15L;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+    }
+
+    @Benchmark
+    public void churn() {
+        final int slot = nextSlot();
+        store.free(slot);
+        store.allocate(slot, random);
+    }
+
+    @Benchmark
+    public long get() {
+        return store.get(nextSlot());
+    }
+
+    @Benchmark
+    public void update() {
+        final int slot = nextSlot();
+        store.set(slot, store.get(slot) + 1);
+    }
+
+    @Benchmark
+    public long scan() {
+        long sum = 0;
+        for (int slot = 0; slot < liveBlocks; ++slot) {
+            sum += store.get(slot);
+        }
+        return sum;
+    }
+
+    private int nextSlot() {
+        random ^= random << 13;
+        random ^= random >>> 7;
+        random ^= random << 17;
+        return (int) ((random >>> 32) * liveBlocks >>> 32);
+    }
+
+    /**
+     * Records in slots 0..liveBlocks-1
+     */
+    private interface Store {
+
+        void allocate(int slot, long value);
+
+        long get(int slot);
+
+        void set(int slot, long value);
+
+        void free(int slot);
+
+        void close();
+    }
+
+    private static final class PoolStore implements Store {
+
+        private final BlockPool<Payload> pool;
+        private final Payload payload;
+        private final long[] addresses;
+
+        private PoolStore(final int size, final int liveBlocks) {
+            final Class<? extends Payload> type = switch (size) {
+                case 8 -> Payload8.class;
+                case 64 -> Payload64.class;
+                case 256 -> Payload256.class;
+                case 1024 -> Payload1024.class;
+                default -> throw new IllegalArgumentException("unsupported size " + size);
+            };
+            @SuppressWarnings("unchecked")
+            final var pool = new BlockPool.Builder<>(Arena.ofShared(), (Class<Payload>) type)
+                .blocksPerSegment(BLOCKS_PER_CHUNK).build();
+            this.pool = pool;
+            payload = pool.allocate();
+            pool.free(payload);
+            addresses = new long[liveBlocks];
+        }
+
+        @Override
+        public void allocate(final int slot, final long value) {
+            addresses[slot] = pool.allocate(payload).value(value).address();
+        }
+
+        @Override
+        public long get(final int slot) {
+            return pool.get(addresses[slot], payload).value();
+        }
+
+        @Override
+        public void set(final int slot, final long value) {
+            pool.get(addresses[slot], payload).value(value);
+        }
+
+        @Override
+        public void free(final int slot) {
+            pool.free(addresses[slot]);
+        }
+
+        @Override
+        public void close() {
+            pool.close();
+        }
+    }
+
+    private static final class HeapStore implements Store {
+
+        private final int words;
+        private final long[][] records;
+        private final long[][] freeRecords;
+        private int freeCount;
+
+        private HeapStore(final int size, final int liveBlocks, final boolean pooled) {
+            words = Math.max(1, size / Long.BYTES);
+            records = new long[liveBlocks][];
+            freeRecords = pooled ? new long[liveBlocks][] : null;
+        }
+
+        @Override
+        public void allocate(final int slot, final long value) {
+            final long[] record = freeCount > 0 ? freeRecords[--freeCount] : new long[words];
+            record[0] = value;
+            records[slot] = record;
+        }
+
+        @Override
+        public long get(final int slot) {
+            return records[slot][0];
+        }
+
+        @Override
+        public void set(final int slot, final long value) {
+            records[slot][0] = value;
+        }
+
+        @Override
+        public void free(final int slot) {
+            if (freeRecords != null) {
+                freeRecords[freeCount++] = records[slot];
+            }
+            records[slot] = null;
+        }
+
+        @Override
+        public void close() {
+            // garbage collected
+        }
+    }
+
+    private static final class BufferStore implements Store {
+
+        private final int size;
+        private final ByteBuffer[] records;
+        private final ByteBuffer[] freeRecords;
+        private ByteBuffer chunk;
+        private int freeCount;
+
+        private BufferStore(final int size, final int liveBlocks) {
+            this.size = size;
+            records = new ByteBuffer[liveBlocks];
+            freeRecords = new ByteBuffer[liveBlocks];
+        }
+
+        @Override
+        public void allocate(final int slot, final long value) {
+            final ByteBuffer record;
+            if (freeCount > 0) {
+                record = freeRecords[--freeCount];
+            } else {
+                if (chunk == null || !chunk.hasRemaining()) {
+                    chunk = ByteBuffer.allocateDirect(BLOCKS_PER_CHUNK * size).order(ByteOrder.nativeOrder());
+                }
+                record = chunk.slice(chunk.position(), size).order(ByteOrder.nativeOrder());
+                chunk.position(chunk.position() + size);
+            }
+            records[slot] = record.putLong(0, value);
+        }
+
+        @Override
+        public long get(final int slot) {
+            return records[slot].getLong(0);
+        }
+
+        @Override
+        public void set(final int slot, final long value) {
+            records[slot].putLong(0, value);
+        }
+
+        @Override
+        public void free(final int slot) {
+            freeRecords[freeCount++] = records[slot];
+            records[slot] = null;
+        }
+
+        @Override
+        public void close() {
+            // unmapped when the buffers are collected
+        }
+    }
+
+    private static final class ArenaStore implements Store {
+
+        private final int size;
+        private final Arena[] arenas;
+        private final MemorySegment[] records;
+
+        private ArenaStore(final int size, final int liveBlocks) {
+            this.size = size;
+            arenas = new Arena[liveBlocks];
+            records = new MemorySegment[liveBlocks];
+        }
+
+        @Override
+        public void allocate(final int slot, final long value) {
+            final Arena arena = Arena.ofShared();
+            arenas[slot] = arena;
+            records[slot] = arena.allocate(size, Long.BYTES);
+            records[slot].set(ValueLayout.JAVA_LONG, 0, value);
+        }
+
+        @Override
+        public long get(final int slot) {
+            return records[slot].get(ValueLayout.JAVA_LONG, 0);
+        }
+
+        @Override
+        public void set(final int slot, final long value) {
+            records[slot].set(ValueLayout.JAVA_LONG, 0, value);
+        }
+
+        @Override
+        public void free(final int slot) {
+            arenas[slot].close();
+            arenas[slot] = null;
+            records[slot] = null;
+        }
+
+        @Override
+        public void close() {
+            for (Arena arena : arenas) {
+                if (arena != null) {
+                    arena.close();
+                }
+            }
+        }
+    }
+
+    public abstract static class Payload extends BlockFlyweight {
+
+        public long value() {
+            return nativeLong(0);
+        }
+
+        public Payload value(final long value) {
+            nativeLong(0, value);
+            return this;
+        }
+
+        @Override
+        protected StringBuilder append(StringBuilder builder) {
+            return builder.append("{Payload, value=").append(value()).append("}");
+        }
+    }
+
+    public static class Payload8 extends Payload {
+        @Override
+        public int encodedLength() {
+            return 8;
+        }
+    }
+
+    public static class Payload64 extends Payload {
+        @Override
+        public int encodedLength() {
+            return 64;
+        }
+    }
+
+    public static class Payload256 extends Payload {
+        @Override
+        public int encodedLength() {
+            return 256;
+        }
+    }
+
+    public static class Payload1024 extends Payload {
+        @Override
+        public int encodedLength() {
+            return 1024;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ComparisonBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,113 @@
+package org.limitless.fsmp4j;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.foreign.Arena;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bulk field kernels over the segments of a pool compared with a flyweight loop over the same
+ * blocks of a BITMAP pool. The 32 byte quote blocks put two or more fields in a vector from 512 bit
+ * wide vectors.
+ */
+@Fork(value = 3)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class KernelBenchmark {
+
+    private static final long SIZE_LIMIT = 900;
+
+    @Param({"10000", "1000000"})
+    public int blocks;
+
+    private BlockPool<Quote> pool;
+    private Quote quote;
+    private long[] addresses;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pool = new BlockPool.Builder<>(Arena.ofShared(), Quote.class).blocksPerSegment(64 * 1024)
+            .allocationPolicy(BlockPool.AllocationPolicy.BITMAP).build();
+        quote = new Quote();
+        addresses = new long[blocks];
+        for (int i = 0; i < blocks; ++i) {
+            addresses[i] = pool.allocate(quote).quote(i, i + 1, i % 1000).address();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Benchmark
+    public long sumFlyweight() {
+        long sum = 0;
+        for (final long address : addresses) {
+            sum += pool.get(address, quote).bid();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long sumKernel() {
+        return FieldKernels.sumLong(pool, Quote.BID_OFFSET);
+    }
+
+    @Benchmark
+    public long maxFlyweight() {
+        long max = Long.MIN_VALUE;
+        for (final long address : addresses) {
+            max = Math.max(max, pool.get(address, quote).bid());
+        }
+        return max;
+    }
+
+    @Benchmark
+    public long maxKernel() {
+        return FieldKernels.maxLong(pool, Quote.BID_OFFSET);
+    }
+
+    @Benchmark
+    public int countFlyweight() {
+        int count = 0;
+        for (final long address : addresses) {
+            if (pool.get(address, quote).size() > SIZE_LIMIT) {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int countKernel() {
+        return FieldKernels.countLong(pool, Quote.SIZE_OFFSET, FieldKernels.Comparison.GT, SIZE_LIMIT);
+    }
+
+    @Benchmark
+    public long findFirstFlyweight() {
+        final long last = blocks - 1;
+        for (final long address : addresses) {
+            if (pool.get(address, quote).bid() == last) {
+                return address;
+            }
+        }
+        return 0;
+    }
+
+    @Benchmark
+    public long findFirstKernel() {
+        return FieldKernels.findFirstLong(pool, Quote.BID_OFFSET, FieldKernels.Comparison.EQ, blocks - 1);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(KernelBenchmark.class.getSimpleName())
+            .jvmArgsAppend("--add-modules", "jdk.incubator.vector").build()).run();
+    }
+}
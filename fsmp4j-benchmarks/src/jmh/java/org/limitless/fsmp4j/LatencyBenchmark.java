@@ -0,0 +1,230 @@
+package org.limitless.fsmp4j;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Per-operation latency percentiles of a concurrent pool shared by 1..N threads.
+ *
+ * Each thread issues operations at a fixed rate, operation i is due at start + i * interval, and
+ * the response time of an operation is measured from when it was due rather than from when it
+ * started. A stall therefore counts against every operation queued behind it, which corrects the
+ * coordinated omission of a closed loop that waits for each operation before timing the next. The
+ * service time, measured from the actual start, is reported alongside.
+ *
+ * The steady phase cycles free, allocate, get and update over a fixed live set per thread, the
+ * growth phase only allocates from a pool with small segments, so that the segment allocations
+ * show in the tail. The results are written as JSON, to stdout or to the output file, e.g.
+ *
+ * java LatencyBenchmark threads=4 rate=200000 seconds=10 output=latency.json
+ *
+ * runs 1 to 4 threads, each issuing 200000 operations per second after the warmup.
+ */
+public class LatencyBenchmark {
+
+    private static final int LIVE_BLOCKS = 16 * 1024;
+    private static final int STEADY_BLOCKS_PER_SEGMENT = 64 * 1024;
+    private static final int GROWTH_BLOCKS_PER_SEGMENT = 1024;
+    private static final long BARRIER_TIMEOUT_SECONDS = 60;
+
+    enum Operation {
+        FREE, ALLOCATE, GET, UPDATE
+    }
+
+    private final int rate;
+    private final int seconds;
+    private final int warmupSeconds;
+
+    public LatencyBenchmark(final int rate, final int seconds, final int warmupSeconds) {
+        if (rate <= 0 || seconds <= 0 || warmupSeconds < 0) {
+            throw new IllegalArgumentException("invalid rate or duration");
+        }
+        this.rate = rate;
+        this.seconds = seconds;
+        this.warmupSeconds = warmupSeconds;
+    }
+
+    /**
+     * Run the steady and the growth phase with the given number of threads
+     * @param threads threads sharing the pool
+     * @return JSON objects of the operations
+     */
+    public List<String> run(final int threads) throws InterruptedException {
+        final List<String> results = new ArrayList<>();
+        results.addAll(json("steady", threads, measure(threads, STEADY_BLOCKS_PER_SEGMENT, false)));
+        results.addAll(json("growth", threads, measure(threads, GROWTH_BLOCKS_PER_SEGMENT, true)));
+        return results;
+    }
+
+    private Worker[] measure(final int threads, final int blocksPerSegment, final boolean growth)
+        throws InterruptedException {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), Block.class)
+            .blocksPerSegment(blocksPerSegment).concurrent(true).build();
+        final long interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        final var barrier = new CyclicBarrier(threads);
+        final Worker[] workers = new Worker[threads];
+        final Thread[] running = new Thread[threads];
+        for (int i = 0; i < threads; ++i) {
+            workers[i] = new Worker(pool, barrier, interval, growth, i);
+            running[i] = Thread.ofPlatform().name("latency-" + i).start(workers[i]);
+        }
+        for (Thread thread : running) {
+            thread.join();
+        }
+        pool.close();
+        Throwable error = null;
+        for (Worker worker : workers) {
+            if (worker.error != null && (error == null || error instanceof BrokenBarrierException ||
+                error instanceof TimeoutException)) {
+                error = worker.error;
+            }
+        }
+        if (error != null) {
+            throw new IllegalStateException("latency worker failed", error);
+        }
+        return workers;
+    }
+
+    private static List<String> json(final String phase, final int threads, final Worker[] workers) {
+        final List<String> results = new ArrayList<>();
+        for (Operation operation : Operation.values()) {
+            final var response = new LatencyHistogram();
+            final var service = new LatencyHistogram();
+            for (Worker worker : workers) {
+                response.add(worker.response[operation.ordinal()]);
+                service.add(worker.service[operation.ordinal()]);
+            }
+            if (response.count() > 0) {
+                results.add(String.format(Locale.ROOT,
+                    "{\"phase\":\"%s\",\"threads\":%d,\"operation\":\"%s\",\"response\":{%s},\"service\":{%s}}",
+                    phase, threads, operation.name().toLowerCase(Locale.ROOT), response.jsonFields(),
+                    service.jsonFields()));
+            }
+        }
+        return results;
+    }
+
+    private final class Worker implements Runnable {
+
+        private final BlockPool<Block> pool;
+        private final CyclicBarrier barrier;
+        private final long interval;
+        private final boolean growth;
+        private final SplittableRandom random;
+        private final long[] live = new long[LIVE_BLOCKS];
+        private final Block block = new Block();
+        private final LatencyHistogram[] response = new LatencyHistogram[Operation.values().length];
+        private final LatencyHistogram[] service = new LatencyHistogram[Operation.values().length];
+        private Throwable error;
+
+        private Worker(final BlockPool<Block> pool, final CyclicBarrier barrier, final long interval,
+                       final boolean growth, final int seed) {
+            this.pool = pool;
+            this.barrier = barrier;
+            this.interval = interval;
+            this.growth = growth;
+            random = new SplittableRandom(seed);
+            for (int i = 0; i < response.length; ++i) {
+                response[i] = new LatencyHistogram();
+                service[i] = new LatencyHistogram();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!growth) {
+                    for (int i = 0; i < live.length; ++i) {
+                        live[i] = pool.allocate(block).address();
+                    }
+                }
+                // a failed worker resets the barrier, the timeout covers workers arriving after the reset
+                barrier.await(BARRIER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                final long start = System.nanoTime();
+                final long measured = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+                final long end = measured + TimeUnit.SECONDS.toNanos(seconds);
+                int head = 0;
+                for (long i = 0; ; ++i) {
+                    final long due = start + i * interval;
+                    if (due >= end) {
+                        break;
+                    }
+                    long now;
+                    while ((now = System.nanoTime()) < due) {
+                        Thread.onSpinWait();
+                    }
+                    final Operation operation = growth ? Operation.ALLOCATE : Operation.values()[(int) (i & 3)];
+                    switch (operation) {
+                        case FREE -> pool.free(live[head]);
+                        case ALLOCATE -> {
+                            final long address = pool.allocate(block).int64(i).address();
+                            if (!growth) {
+                                live[head] = address;
+                                head = (head + 1) % live.length;
+                            }
+                        }
+                        case GET -> pool.get(live[random.nextInt(live.length)], block);
+                        case UPDATE -> {
+                            pool.get(live[random.nextInt(live.length)], block);
+                            block.int64(block.int64() + 1);
+                        }
+                    }
+                    final long done = System.nanoTime();
+                    if (due >= measured) {
+                        response[operation.ordinal()].record(done - due);
+                        service[operation.ordinal()].record(done - now);
+                    }
+                }
+            } catch (Throwable throwable) {
+                error = throwable;
+                barrier.reset();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        int threads = Math.min(4, Runtime.getRuntime().availableProcessors());
+        int rate = 100_000;
+        int seconds = 10;
+        int warmup = 5;
+        String output = null;
+        for (String arg : args) {
+            final String[] option = arg.split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            }
+            switch (option[0]) {
+                case "threads" -> threads = Integer.parseInt(option[1]);
+                case "rate" -> rate = Integer.parseInt(option[1]);
+                case "seconds" -> seconds = Integer.parseInt(option[1]);
+                case "warmup" -> warmup = Integer.parseInt(option[1]);
+                case "output" -> output = option[1];
+                default -> throw new IllegalArgumentException("unknown option: " + option[0]);
+            }
+        }
+
+        final var benchmark = new LatencyBenchmark(rate, seconds, warmup);
+        final List<String> results = new ArrayList<>();
+        for (int count = 1; count <= threads; ++count) {
+            results.addAll(benchmark.run(count));
+        }
+        final String json = String.format(Locale.ROOT,
+            "{\"benchmark\":\"LatencyBenchmark\",\"unit\":\"ns\",\"rate\":%d,\"seconds\":%d,\"results\":[%n%s%n]}%n",
+            rate, seconds, String.join(",\n", results));
+        if (output == null) {
+            System.out.print(json);
+        } else {
+            Files.writeString(Path.of(output), json);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.limitless.fsmp4j;
+
+import java.util.Locale;
+
+/**
+ * A log-linear histogram of nanosecond latencies in the style of HdrHistogram. Values below 128
+ * are counted exactly, larger values in 64 sub-buckets per power of two, so that a percentile is
+ * reported within 1.6% of the recorded value. The maximum is tracked exactly.
+ */
+public final class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 128;
+    private static final int SUB_BUCKETS = 64;
+    private static final int SUB_BITS = 6;
+    private static final int BUCKETS = LINEAR_BUCKETS + (Long.SIZE - SUB_BITS - 1) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long max;
+
+    public void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        ++counts[index(value)];
+        ++count;
+        max = Math.max(max, value);
+    }
+
+    public void add(final LatencyHistogram histogram) {
+        for (int index = 0; index < BUCKETS; ++index) {
+            counts[index] += histogram.counts[index];
+        }
+        count += histogram.count;
+        max = Math.max(max, histogram.max);
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    /**
+     * The highest value of the bucket holding the percentile
+     * @param percentile between 0 and 100
+     * @return nanoseconds, 0 for an empty histogram
+     */
+    public long percentile(final double percentile) {
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int index = 0; index < BUCKETS; ++index) {
+            seen += counts[index];
+            if (seen >= rank) {
+                return Math.min(max, highestValue(index));
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * JSON object fields of the count, percentiles and maximum
+     * @return comma separated fields
+     */
+    public String jsonFields() {
+        return String.format(Locale.ROOT, "\"count\":%d,\"p50\":%d,\"p99\":%d,\"p999\":%d,\"max\":%d",
+            count, percentile(50), percentile(99), percentile(99.9), max);
+    }
+
+    static int index(final long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BITS - 1;
+        return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    static long highestValue(final int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+        final int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+        final long subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,60 @@
+package org.limitless.fsmp4j;
+
+public class Quote extends BlockFlyweight {
+
+    private static final int SEQUENCE_OFFSET = 0;
+    private static final int SEQUENCE_LENGTH = Long.BYTES;
+    public static final int BID_OFFSET = SEQUENCE_OFFSET + SEQUENCE_LENGTH;
+    private static final int BID_LENGTH = Long.BYTES;
+    private static final int ASK_OFFSET = BID_OFFSET + BID_LENGTH;
+    private static final int ASK_LENGTH = Long.BYTES;
+    public static final int SIZE_OFFSET = ASK_OFFSET + ASK_LENGTH;
+    private static final int SIZE_LENGTH = Long.BYTES;
+    private static final int BYTES = SIZE_OFFSET + SIZE_LENGTH;
+
+    @Override
+    public int encodedLength() {
+        return BYTES;
+    }
+
+    @Override
+    protected int sequenceOffset() {
+        return SEQUENCE_OFFSET;
+    }
+
+    @Override
+    protected StringBuilder append(StringBuilder builder) {
+        return builder.append("{Quote, bid=").append(bid()).append(", ask=").append(ask())
+            .append(", size=").append(size()).append("}");
+    }
+
+    public long bid() {
+        return nativeLong(BID_OFFSET);
+    }
+
+    public long ask() {
+        return nativeLong(ASK_OFFSET);
+    }
+
+    public long size() {
+        return nativeLong(SIZE_OFFSET);
+    }
+
+    public Quote quote(long bid, long ask, long size) {
+        nativeLong(BID_OFFSET, bid);
+        nativeLong(ASK_OFFSET, ask);
+        nativeLong(SIZE_OFFSET, size);
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (object == null || getClass() != object.getClass()) {
+            return false;
+        }
+        return super.equals(object);
+    }
+}
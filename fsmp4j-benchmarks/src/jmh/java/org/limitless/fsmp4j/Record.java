@@ -0,0 +1,49 @@
+package org.limitless.fsmp4j;
+
+public class Record extends BlockFlyweight {
+
+    private static final int ID_OFFSET = 0;
+    private static final int ID_LENGTH = Long.BYTES;
+    private static final int PAYLOAD_OFFSET = ID_OFFSET + ID_LENGTH;
+    private static final int PAYLOAD_LENGTH = 56;
+    public static final int BYTES = PAYLOAD_OFFSET + PAYLOAD_LENGTH;
+
+    @Override
+    public int encodedLength() {
+        return BYTES;
+    }
+
+    @Override
+    protected StringBuilder append(StringBuilder builder) {
+        return builder.append("{Record, id=").append(id()).append("}");
+    }
+
+    public long id() {
+        return nativeLong(ID_OFFSET);
+    }
+
+    public Record id(long value) {
+        nativeLong(ID_OFFSET, value);
+        return this;
+    }
+
+    public byte[] copyTo(int position, byte[] bytes) {
+        return nativeByteArray(ID_OFFSET, BYTES, position, bytes);
+    }
+
+    public Record copyFrom(int position, byte[] bytes) {
+        nativeByteArray(position, bytes, ID_OFFSET, BYTES);
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+        if (object == null || getClass() != object.getClass()) {
+            return false;
+        }
+        return super.equals(object);
+    }
+}
@@ -0,0 +1,166 @@
+package org.limitless.fsmp4j;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replay of a recorded block trace against pool configurations. The trace file is given by the
+ * trace parameter, for instance -p trace=/tmp/orders.trace, and when empty a trace is recorded
+ * from a bursty synthetic workload.
+ *
+ * The trace is compiled once into operations on slots, a slot holds the address of a live block
+ * of the replayed pool, so that the replay does no address lookup. Operations on blocks allocated
+ * before the recording started are skipped.
+ */
+@Fork(value = 3)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+public class ReplayBenchmark {
+
+    private static final int SYNTHETIC_OPERATIONS = 5_000_000;
+
+    @Param({""})
+    public String trace;
+
+    @Param({"1024", "65536"})
+    public int blocksPerSegment;
+
+    @Param({"LIFO", "DENSE", "BITMAP"})
+    public BlockPool.AllocationPolicy policy;
+
+    private byte[] operations;
+    private int[] slots;
+    private long[] addresses;
+    private BlockPool<Quote> pool;
+    private Quote quote;
+
+    @Setup(Level.Trial)
+    public void compile() throws IOException {
+        final Path path;
+        if (trace.isEmpty()) {
+            path = Files.createTempFile("fsmp4j", ".trace");
+            record(path);
+        } else {
+            path = Path.of(trace);
+        }
+
+        operations = new byte[1024];
+        slots = new int[1024];
+        final Map<Long, Integer> live = new HashMap<>();
+        int[] freeSlots = new int[1024];
+        int freeSlotCount = 0;
+        int slotCount = 0;
+        int count = 0;
+        try (var reader = BlockTrace.open(path)) {
+            while (reader.next()) {
+                final int slot;
+                if (reader.operation() == BlockTrace.ALLOCATE) {
+                    slot = freeSlotCount > 0 ? freeSlots[--freeSlotCount] : slotCount++;
+                    live.put(reader.address(), slot);
+                } else {
+                    final Integer liveSlot = reader.operation() == BlockTrace.FREE ?
+                        live.remove(reader.address()) : live.get(reader.address());
+                    if (liveSlot == null) {
+                        continue;
+                    }
+                    slot = liveSlot;
+                    if (reader.operation() == BlockTrace.FREE) {
+                        if (freeSlotCount == freeSlots.length) {
+                            freeSlots = Arrays.copyOf(freeSlots, freeSlotCount << 1);
+                        }
+                        freeSlots[freeSlotCount++] = slot;
+                    }
+                }
+                if (count == operations.length) {
+                    operations = Arrays.copyOf(operations, count << 1);
+                    slots = Arrays.copyOf(slots, count << 1);
+                }
+                operations[count] = (byte) reader.operation();
+                slots[count++] = slot;
+            }
+        } finally {
+            if (trace.isEmpty()) {
+                Files.delete(path);
+            }
+        }
+        operations = Arrays.copyOf(operations, count);
+        slots = Arrays.copyOf(slots, count);
+        addresses = new long[slotCount];
+        quote = new Quote();
+    }
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        pool = new BlockPool.Builder<>(Arena.ofShared(), Quote.class)
+            .blocksPerSegment(blocksPerSegment).allocationPolicy(policy).build();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Benchmark
+    public void replay(Blackhole bh) {
+        for (int i = 0; i < operations.length; ++i) {
+            final int slot = slots[i];
+            switch (operations[i]) {
+                case BlockTrace.ALLOCATE -> addresses[slot] = pool.allocate(quote).quote(slot, slot, slot).address();
+                case BlockTrace.FREE -> pool.free(addresses[slot]);
+                default -> bh.consume(pool.get(addresses[slot], quote).bid());
+            }
+        }
+    }
+
+    /**
+     * Bursts of allocations, reads of recent blocks and frees of older blocks around a slowly
+     * moving live set
+     */
+    private static void record(final Path path) throws IOException {
+        try (var recording = BlockTrace.create(path)) {
+            final var recorded = new BlockPool.Builder<>(Arena.ofShared(), Quote.class)
+                .blocksPerSegment(4096).trace(recording).build();
+            final var block = new Quote();
+            final var random = new SplittableRandom(23);
+            final long[] live = new long[1 << 20];
+            int liveCount = 0;
+            for (int operation = 0; operation < SYNTHETIC_OPERATIONS; ) {
+                final int burst = 1 + random.nextInt(64);
+                final int choice = random.nextInt(10);
+                for (int i = 0; i < burst; ++i, ++operation) {
+                    if (choice < 4 && liveCount < live.length || liveCount == 0) {
+                        live[liveCount++] = recorded.allocate(block).address();
+                    } else if (choice < 7) {
+                        final int index = liveCount - 1 - random.nextInt(Math.min(liveCount, 256));
+                        recorded.get(live[index], block);
+                    } else {
+                        final int index = random.nextInt(liveCount);
+                        recorded.free(live[index]);
+                        live[index] = live[--liveCount];
+                    }
+                }
+            }
+            recorded.close();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ReplayBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,104 @@
+package org.limitless.fsmp4j;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summing one long field of all blocks, row-wise pool compared with a columnar pool, through
+ * flyweights and directly over the segment memory.
+ */
+@Fork(value = 3)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class ScanBenchmark {
+
+    private static final int BLOCKS_PER_SEGMENT = 64 * 1024;
+
+    @Param({"10000", "1000000"})
+    public int blocks;
+
+    private BlockPool<Record> rowPool;
+    private ColumnarBlockPool<Record> columnPool;
+    private Record record;
+    private long[] rowAddresses;
+    private long[] columnAddresses;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        rowPool = new BlockPool.Builder<>(Arena.ofShared(), Record.class).blocksPerSegment(BLOCKS_PER_SEGMENT).build();
+        columnPool = new ColumnarBlockPool.Builder<>(Arena.ofShared(), Record.class)
+            .blocksPerSegment(BLOCKS_PER_SEGMENT).build();
+        record = new Record();
+        rowAddresses = new long[blocks];
+        columnAddresses = new long[blocks];
+        for (int i = 0; i < blocks; ++i) {
+            rowAddresses[i] = rowPool.allocate(record).id(i).address();
+            columnAddresses[i] = columnPool.allocate(record).id(i).address();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        rowPool.close();
+        columnPool.close();
+    }
+
+    @Benchmark
+    public long rowFlyweight() {
+        long sum = 0;
+        for (final long address : rowAddresses) {
+            sum += rowPool.get(address, record).id();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long columnFlyweight() {
+        long sum = 0;
+        for (final long address : columnAddresses) {
+            sum += columnPool.get(address, record).id();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long rowScan() {
+        final int stride = rowPool.blockLength();
+        long sum = 0;
+        for (int first = 0; first < blocks; first += BLOCKS_PER_SEGMENT) {
+            final int count = Math.min(BLOCKS_PER_SEGMENT, blocks - first);
+            final MemorySegment rows = rowPool.asSlice(rowAddresses[first], count);
+            for (long offset = 0; offset < rows.byteSize(); offset += stride) {
+                sum += rows.get(ValueLayout.JAVA_LONG, offset);
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long columnScan() {
+        long sum = 0;
+        for (int segment = 0; segment < columnPool.segmentCount(); ++segment) {
+            final MemorySegment ids = columnPool.column(segment, 0, Long.BYTES);
+            final int count = columnPool.blocks(segment);
+            for (int index = 0; index < count; ++index) {
+                sum += ids.getAtIndex(ValueLayout.JAVA_LONG, index);
+            }
+        }
+        return sum;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ScanBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,65 @@
+package org.limitless.fsmp4j;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.foreign.Arena;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blocks living for one request, freed one by one compared with a reset of a scoped pool.
+ */
+@Fork(value = 3)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class ScopeBenchmark {
+
+    @Param({"100", "10000"})
+    public int blocks;
+
+    private BlockPool<Quote> pool;
+    private BlockPool<Quote> scopedPool;
+    private Quote quote;
+    private long[] addresses;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pool = new BlockPool.Builder<>(Arena.ofShared(), Quote.class).blocksPerSegment(4096).build();
+        scopedPool = new BlockPool.Builder<>(Arena.ofShared(), Quote.class).blocksPerSegment(4096).scoped(true).build();
+        quote = new Quote();
+        addresses = new long[blocks];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.close();
+        scopedPool.close();
+    }
+
+    @Benchmark
+    public void freeEach() {
+        for (int i = 0; i < blocks; ++i) {
+            addresses[i] = pool.allocate(quote).quote(i, i, i).address();
+        }
+        for (int i = 0; i < blocks; ++i) {
+            pool.free(addresses[i]);
+        }
+    }
+
+    @Benchmark
+    public void reset() {
+        for (int i = 0; i < blocks; ++i) {
+            addresses[i] = scopedPool.allocate(quote).quote(i, i, i).address();
+        }
+        scopedPool.reset();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ScopeBenchmark.class.getSimpleName()).build()).run();
+    }
+}
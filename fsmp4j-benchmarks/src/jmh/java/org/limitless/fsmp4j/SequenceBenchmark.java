@@ -0,0 +1,158 @@
+package org.limitless.fsmp4j;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.lang.foreign.Arena;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * One writer and three readers of a multi-field quote block, comparing seqlock style
+ * optimistic reads on the block with a read write lock and a stamped lock.
+ */
+@Fork(value = 3)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.Throughput)
+public class SequenceBenchmark {
+
+    private static final int READERS = 3;
+
+    @State(Scope.Group)
+    public static class QuoteState {
+        public BlockPool<Quote> pool;
+        public long address;
+        public ReentrantReadWriteLock readWriteLock;
+        public StampedLock stampedLock;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            pool = new BlockPool.Builder<>(Arena.ofShared(), Quote.class).blocksPerSegment(1024).build();
+            final Quote quote = pool.allocate();
+            quote.beginWrite();
+            quote.quote(0, 1, 0);
+            quote.endWrite();
+            address = quote.address();
+            readWriteLock = new ReentrantReadWriteLock();
+            stampedLock = new StampedLock();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            pool.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        public Quote quote;
+        public long value;
+
+        @Setup(Level.Trial)
+        public void setup(QuoteState state) {
+            quote = state.pool.get(state.address, new Quote());
+        }
+    }
+
+    @Benchmark
+    @Group("sequence")
+    @GroupThreads(1)
+    public void sequenceWrite(ThreadState thread) {
+        final Quote quote = thread.quote;
+        final long value = ++thread.value;
+        quote.beginWrite();
+        quote.quote(value, value + 1, value << 1);
+        quote.endWrite();
+    }
+
+    @Benchmark
+    @Group("sequence")
+    @GroupThreads(READERS)
+    public long sequenceRead(ThreadState thread) {
+        final Quote quote = thread.quote;
+        long stamp;
+        long bid;
+        long ask;
+        long size;
+        do {
+            stamp = quote.tryOptimisticRead();
+            bid = quote.bid();
+            ask = quote.ask();
+            size = quote.size();
+        } while (!quote.validate(stamp));
+        return bid + ask + size;
+    }
+
+    @Benchmark
+    @Group("readWriteLock")
+    @GroupThreads(1)
+    public void readWriteLockWrite(QuoteState state, ThreadState thread) {
+        final Quote quote = thread.quote;
+        final long value = ++thread.value;
+        state.readWriteLock.writeLock().lock();
+        try {
+            quote.quote(value, value + 1, value << 1);
+        } finally {
+            state.readWriteLock.writeLock().unlock();
+        }
+    }
+
+    @Benchmark
+    @Group("readWriteLock")
+    @GroupThreads(READERS)
+    public long readWriteLockRead(QuoteState state, ThreadState thread) {
+        final Quote quote = thread.quote;
+        state.readWriteLock.readLock().lock();
+        try {
+            return quote.bid() + quote.ask() + quote.size();
+        } finally {
+            state.readWriteLock.readLock().unlock();
+        }
+    }
+
+    @Benchmark
+    @Group("stampedLock")
+    @GroupThreads(1)
+    public void stampedLockWrite(QuoteState state, ThreadState thread) {
+        final Quote quote = thread.quote;
+        final long value = ++thread.value;
+        final long stamp = state.stampedLock.writeLock();
+        try {
+            quote.quote(value, value + 1, value << 1);
+        } finally {
+            state.stampedLock.unlockWrite(stamp);
+        }
+    }
+
+    @Benchmark
+    @Group("stampedLock")
+    @GroupThreads(READERS)
+    public long stampedLockRead(QuoteState state, ThreadState thread) {
+        final Quote quote = thread.quote;
+        final StampedLock lock = state.stampedLock;
+        long stamp = lock.tryOptimisticRead();
+        long bid = quote.bid();
+        long ask = quote.ask();
+        long size = quote.size();
+        if (!lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                bid = quote.bid();
+                ask = quote.ask();
+                size = quote.size();
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+        return bid + ask + size;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SequenceBenchmark.class.getSimpleName()).build()).run();
+    }
+}
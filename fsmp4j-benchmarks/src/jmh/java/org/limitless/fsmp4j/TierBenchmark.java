@@ -0,0 +1,100 @@
+package org.limitless.fsmp4j;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The hot path cost of tiered storage. UNTIERED gets from a plain pool, SAMPLED from a tiered pool
+ * that counts every 64th get on average and TIERED also spills the segments never read after the
+ * first HOT_SEGMENTS to a memory-mapped file. getHot reads a random block of the hot segments and
+ * getCold a random block of the other segments, which are spilled by the TIERED pool.
+ */
+@Fork(value = 3)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+public class TierBenchmark {
+
+    private static final int BLOCKS_PER_SEGMENT = 4096;
+    private static final int SEGMENTS = 64;
+    private static final int HOT_SEGMENTS = 8;
+
+    public enum Tier {
+        UNTIERED, SAMPLED, TIERED
+    }
+
+    @Param({"UNTIERED", "SAMPLED", "TIERED"})
+    public Tier tier;
+
+    private BlockPool<Block> pool;
+    private TieredBlockPool<Block> tiered;
+    private final Block block = new Block();
+    private long[] addresses;
+    private long random;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if (tier == Tier.UNTIERED) {
+            pool = new BlockPool.Builder<>(Arena.ofShared(), Block.class).blocksPerSegment(BLOCKS_PER_SEGMENT).build();
+        } else {
+            tiered = new TieredBlockPool.Builder<>(Arena.ofShared(), Block.class,
+                Files.createTempFile("fsmp4j", ".spill")).blocksPerSegment(BLOCKS_PER_SEGMENT).build();
+            pool = tiered.pool();
+        }
+        addresses = new long[SEGMENTS * BLOCKS_PER_SEGMENT];
+        for (int i = 0; i < addresses.length; ++i) {
+            addresses[i] = pool.allocate(block).int64(i).address();
+        }
+        for (int i = 0; i < HOT_SEGMENTS * BLOCKS_PER_SEGMENT; ++i) {
+            get(addresses[i]);
+        }
+        if (tier == Tier.TIERED) {
+            tiered.tier(0, Integer.MAX_VALUE);
+        }
+        random = 0x9e3779b97f4a7c15L;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (tiered != null) {
+            tiered.close();
+        } else {
+            pool.close();
+        }
+    }
+
+    @Benchmark
+    public long getHot() {
+        return get(addresses[nextIndex(0, HOT_SEGMENTS * BLOCKS_PER_SEGMENT)]).int64();
+    }
+
+    @Benchmark
+    public long getCold() {
+        final int start = HOT_SEGMENTS * BLOCKS_PER_SEGMENT;
+        return get(addresses[nextIndex(start, (SEGMENTS - 1) * BLOCKS_PER_SEGMENT - start)]).int64();
+    }
+
+    private Block get(final long address) {
+        return tiered != null ? tiered.get(address, block) : pool.get(address, block);
+    }
+
+    private int nextIndex(final int start, final int count) {
+        random ^= random << 13;
+        random ^= random >>> 7;
+        random ^= random << 17;
+        return start + (int) ((random >>> 32) * count >>> 32);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TierBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,104 @@
+package org.limitless.fsmp4j;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Sampled gets per segment, shared by the sampled and the tiered pools.
+ *
+ * One get in a sample period on average is counted for the segment of the block. Samples are
+ * counted by atomic adds and the sampling decision is thread local, so gets may run on any thread.
+ * Samples counted while the table grows for a new segment may be lost.
+ */
+final class AccessSamples {
+
+    private static final VarHandle SAMPLES = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final int period;
+    private volatile int[] samples;
+
+    /**
+     * Constructor
+     * @param period gets per sampled get
+     * @param segments initial number of segments
+     */
+    AccessSamples(final int period, final int segments) {
+        this.period = period;
+        samples = new int[segments];
+    }
+
+    int period() {
+        return period;
+    }
+
+    /**
+     * Count the get of a block of a segment, one in a sample period on average
+     * @param segmentIndex segment index
+     */
+    void sample(final int segmentIndex) {
+        if (period == 1 || ThreadLocalRandom.current().nextInt(period) == 0) {
+            int[] table = samples;
+            if (segmentIndex >= table.length) {
+                table = grow(segmentIndex);
+            }
+            SAMPLES.getAndAdd(table, segmentIndex, 1);
+        }
+    }
+
+    /**
+     * The sampled gets of a segment
+     * @param segmentIndex segment index
+     * @return sampled gets, 0 for a segment without samples
+     */
+    int get(final int segmentIndex) {
+        final int[] table = samples;
+        return segmentIndex < table.length ? (int) SAMPLES.getVolatile(table, segmentIndex) : 0;
+    }
+
+    /**
+     * The current table, indexed by segment index and shorter than the segments without samples
+     * @return samples
+     */
+    int[] table() {
+        return samples;
+    }
+
+    /**
+     * Forget the samples of a released segment, its index is reused when the pool grows
+     * @param segmentIndex segment index
+     */
+    void clear(final int segmentIndex) {
+        final int[] table = samples;
+        if (segmentIndex < table.length) {
+            SAMPLES.setVolatile(table, segmentIndex, 0);
+        }
+    }
+
+    /**
+     * Halve the samples of all segments
+     */
+    void decay() {
+        final int[] table = samples;
+        for (int segmentIndex = 0; segmentIndex < table.length; ++segmentIndex) {
+            int current;
+            do {
+                current = (int) SAMPLES.getVolatile(table, segmentIndex);
+            } while (!SAMPLES.compareAndSet(table, segmentIndex, current, current >>> 1));
+        }
+    }
+
+    /**
+     * Grow the table to hold a segment, samples added to the previous table during the copy are lost
+     */
+    private synchronized int[] grow(final int segmentIndex) {
+        final int[] table = samples;
+        if (segmentIndex < table.length) {
+            return table;
+        }
+        final int[] grown = Arrays.copyOf(table, Math.max(table.length << 1, segmentIndex + 1));
+        samples = grown;
+        return grown;
+    }
+}
@@ -3,13 +3,34 @@ package org.limitless.fsmp4j;
 
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
 import java.util.Objects;
 
+/**
+ * Base class of flyweights over pool blocks.
+ *
+ * Flyweights reserving a long sequence word in their layout, and returning its offset from
+ * sequenceOffset, support seqlock style optimistic reads: a single writer brackets updates
+ * with beginWrite and endWrite, and readers validate a stamp taken by tryOptimisticRead after
+ * reading the fields, retrying when the block was written in between.
+ *
+ * A flyweight wrapped by a columnar pool maps every field to its own column of the segment, a
+ * field at offset o with length l of block b is stored at o * blocks per segment + b * l. Fields
+ * must then always be accessed with the same offset and length, and accessors without a field
+ * length, nativeString(offset) and compare, are not supported.
+ */
 public abstract class BlockFlyweight implements Flyweight {
 
+    private static final VarHandle SEQUENCE = ValueLayout.JAVA_LONG.varHandle();
+    private static final int FNV_OFFSET_BASIS = 0x811c9dc5;
+    private static final int FNV_PRIME = 0x01000193;
+
     private MemorySegment segment;
+    private long blockOffset;
+    private int columns;
     private int blockIndex;
     private int segmentIndex;
+    private FieldChars fieldChars;
 
     public BlockFlyweight() {
         blockIndex = BlockPool.INVALID_INDEX;
@@ -24,7 +45,35 @@ public abstract class BlockFlyweight implements Flyweight {
      */
     @Override
     public void wrap(final MemorySegment segment, final int segmentIndex, final int blockIndex) {
+        wrap(segment, segmentIndex, blockIndex, (long) blockIndex * encodedLength());
+    }
+
+    /**
+     * Initiate the flyweight with the segment offset of the block
+     * @param segment memory segment
+     * @param segmentIndex index of segment
+     * @param blockIndex index of block
+     * @param blockOffset segment offset of the block data
+     */
+    void wrap(final MemorySegment segment, final int segmentIndex, final int blockIndex, final long blockOffset) {
         this.segment = segment;
+        this.blockOffset = blockOffset;
+        this.columns = 0;
+        this.blockIndex = blockIndex;
+        this.segmentIndex = segmentIndex;
+    }
+
+    /**
+     * Initiate the flyweight over a columnar segment
+     * @param segment memory segment
+     * @param segmentIndex index of segment
+     * @param blockIndex index of block
+     * @param columns number of blocks per segment, the length of every column
+     */
+    void wrapColumns(final MemorySegment segment, final int segmentIndex, final int blockIndex, final int columns) {
+        this.segment = segment;
+        this.blockOffset = 0;
+        this.columns = columns;
         this.blockIndex = blockIndex;
         this.segmentIndex = segmentIndex;
     }
@@ -65,6 +114,25 @@ public abstract class BlockFlyweight implements Flyweight {
         return ByteUtils.pack(segmentIndex + 1, blockIndex);
     }
 
+    /**
+     * A memory segment view of the block data, which can be passed to a native function
+     * expecting a pointer to the block
+     * @return a slice of encoded length bytes
+     * @throws IllegalStateException flyweight is not wrapped or is columnar
+     */
+    public MemorySegment asSlice() {
+        return segment.asSlice(fieldOffset(0), encodedLength());
+    }
+
+    /**
+     * The native memory address of the block data
+     * @return native address
+     * @throws IllegalStateException flyweight is not wrapped or is columnar
+     */
+    public long nativeAddress() {
+        return segment.address() + fieldOffset(0);
+    }
+
     /**
      * Block hashCode
      * @return hash code
@@ -97,6 +165,8 @@ public abstract class BlockFlyweight implements Flyweight {
      */
     public void clear() {
         segment = null;
+        blockOffset = 0;
+        columns = 0;
         segmentIndex = BlockPool.INVALID_INDEX;
         blockIndex = BlockPool.INVALID_INDEX;
     }
@@ -107,7 +177,7 @@ public abstract class BlockFlyweight implements Flyweight {
      * @param value byte
      */
     protected void nativeByte(final int offset, final byte value) {
-        segment.set(ValueLayout.JAVA_BYTE, fieldOffset(offset), value);
+        segment.set(ValueLayout.JAVA_BYTE, fieldOffset(offset, Byte.BYTES), value);
     }
 
     /**
@@ -116,7 +186,7 @@ public abstract class BlockFlyweight implements Flyweight {
      * @return value
      */
     protected byte nativeByte(final int offset) {
-        return segment.get(ValueLayout.JAVA_BYTE, fieldOffset(offset));
+        return segment.get(ValueLayout.JAVA_BYTE, fieldOffset(offset, Byte.BYTES));
     }
 
     /**
@@ -125,7 +195,7 @@ public abstract class BlockFlyweight implements Flyweight {
      * @param value short
      */
     public void nativeShort(final int offset, final short value) {
-        segment.set(ValueLayout.JAVA_SHORT, fieldOffset(offset), value);
+        segment.set(ValueLayout.JAVA_SHORT, fieldOffset(offset, Short.BYTES), value);
     }
 
     /**
@@ -134,7 +204,7 @@ public abstract class BlockFlyweight implements Flyweight {
      * @return value
      */
     protected short nativeShort(final int offset) {
-        return segment.get(ValueLayout.JAVA_SHORT, fieldOffset(offset));
+        return segment.get(ValueLayout.JAVA_SHORT, fieldOffset(offset, Short.BYTES));
     }
 
     /**
@@ -143,7 +213,7 @@ public abstract class BlockFlyweight implements Flyweight {
      * @param value integer
      */
     protected void nativeInt(final int offset, final int value) {
-        segment.set(ValueLayout.JAVA_INT, fieldOffset(offset), value);
+        segment.set(ValueLayout.JAVA_INT, fieldOffset(offset, Integer.BYTES), value);
     }
 
     /**
@@ -152,7 +222,7 @@ public abstract class BlockFlyweight implements Flyweight {
      * @return value
      */
     protected int nativeInt(final int offset) {
-        return segment.get(ValueLayout.JAVA_INT, fieldOffset(offset));
+        return segment.get(ValueLayout.JAVA_INT, fieldOffset(offset, Integer.BYTES));
     }
 
     /**
@@ -161,7 +231,7 @@ public abstract class BlockFlyweight implements Flyweight {
      * @param value long
      */
     protected void nativeLong(final int offset, final long value) {
-        segment.set(ValueLayout.JAVA_LONG, fieldOffset(offset), value);
+        segment.set(ValueLayout.JAVA_LONG, fieldOffset(offset, Long.BYTES), value);
     }
 
     /**
@@ -170,19 +240,37 @@ public abstract class BlockFlyweight implements Flyweight {
      * @return value
      */
     protected long nativeLong(final int offset) {
-        return segment.get(ValueLayout.JAVA_LONG, fieldOffset(offset));
+        return segment.get(ValueLayout.JAVA_LONG, fieldOffset(offset, Long.BYTES));
     }
 
     /**
      * Calculate offset of the field
      * @param offset in flyweight
      * @return field segment offset
+     * @throws IllegalStateException flyweight is not wrapped or is columnar
      */
     protected long fieldOffset(final int offset) {
         if (blockIndex == BlockPool.INVALID_INDEX) {
             throw new IllegalStateException("flyweight is not wrapped");
         }
-        return (long) blockIndex * encodedLength() + offset;
+        if (columns != 0) {
+            throw new IllegalStateException("columnar flyweight needs a field length");
+        }
+        return blockOffset + offset;
+    }
+
+    /**
+     * Calculate offset of the field in a row or columnar segment
+     * @param offset in flyweight
+     * @param length field length
+     * @return field segment offset
+     * @throws IllegalStateException flyweight is not wrapped
+     */
+    protected long fieldOffset(final int offset, final int length) {
+        if (columns == 0) {
+            return fieldOffset(offset);
+        }
+        return (long) offset * columns + (long) blockIndex * length;
     }
 
     /**
@@ -197,7 +285,7 @@ public abstract class BlockFlyweight implements Flyweight {
         if (bytes == null) {
             throw new IllegalArgumentException("null argument");
         }
-        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, fieldOffset(offset), bytes, 0, length);
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, fieldOffset(offset, length), bytes, 0, length);
         return bytes;
     }
 
@@ -213,7 +301,7 @@ public abstract class BlockFlyweight implements Flyweight {
         if (bytes == null) {
             throw new IllegalArgumentException("null argument");
         }
-        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, fieldOffset(offset), bytes, dstOffset, length);
+        MemorySegment.copy(segment, ValueLayout.JAVA_BYTE, fieldOffset(offset, length), bytes, dstOffset, length);
         return bytes;
     }
 
@@ -228,7 +316,7 @@ public abstract class BlockFlyweight implements Flyweight {
         if (bytes == null) {
             throw new IllegalArgumentException("null argument");
         }
-        MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, fieldOffset(offset), length);
+        MemorySegment.copy(bytes, 0, segment, ValueLayout.JAVA_BYTE, fieldOffset(offset, length), length);
     }
 
     /**
@@ -243,7 +331,7 @@ public abstract class BlockFlyweight implements Flyweight {
         if (bytes == null) {
             throw new IllegalArgumentException("null argument");
         }
-        MemorySegment.copy(bytes, position, segment, ValueLayout.JAVA_BYTE, fieldOffset(offset), length);
+        MemorySegment.copy(bytes, position, segment, ValueLayout.JAVA_BYTE, fieldOffset(offset, length), length);
     }
 
     /**
@@ -256,33 +344,242 @@ public abstract class BlockFlyweight implements Flyweight {
     }
 
     /**
-     * Set string value
+     * Set string value, encoded as UTF-8 in a single pass without allocation. The string is
+     * terminated and the rest of the field cleared, so that fields holding the same string are
+     * byte-wise equal. Unpaired surrogates are encoded as '?'.
      * @param value string
      * @param offset flyweight offset
-     * @param length maximal length
-     * @throws IllegalArgumentException too long string
+     * @param length field length, the encoded string takes at most length - 1 bytes
+     * @throws IllegalArgumentException null or too long string, the field is then left empty
      */
-    protected void nativeString(final String value, final int offset, final int length) {
-        if (value.getBytes(java.nio.charset.StandardCharsets.UTF_8).length >= length) {
+    protected void nativeString(final CharSequence value, final int offset, final int length) {
+        if (value == null) {
+            throw new IllegalArgumentException("null argument");
+        }
+        final long position = fieldOffset(offset, length);
+        if (value.length() >= length) {
+            segment.asSlice(position, length).fill((byte) 0);
             throw new IllegalArgumentException("string is too long");
         }
-        segment.setString(fieldOffset(offset), value);
+        final long end = position + length - 1;
+        long index = position;
+        for (int next = 0; next < value.length(); ) {
+            final int codePoint = codePoint(value, next);
+            next += Character.charCount(codePoint);
+            final long bytes = utf8(codePoint);
+            final int count = (int) (bytes >>> 32);
+            if (index + count > end) {
+                segment.asSlice(position, length).fill((byte) 0);
+                throw new IllegalArgumentException("string is too long");
+            }
+            for (int shift = 0; shift < count * Byte.SIZE; shift += Byte.SIZE) {
+                segment.set(ValueLayout.JAVA_BYTE, index++, (byte) (bytes >>> shift));
+            }
+        }
+        segment.asSlice(index, position + length - index).fill((byte) 0);
+    }
+
+    /**
+     * Set string value, kept for binary compatibility with flyweights compiled against the String
+     * signature
+     * @param value string
+     * @param offset flyweight offset
+     * @param length field length, the encoded string takes at most length - 1 bytes
+     * @throws IllegalArgumentException null or too long string, the field is then left empty
+     */
+    protected void nativeString(final String value, final int offset, final int length) {
+        nativeString((CharSequence) value, offset, length);
+    }
+
+    /**
+     * Compare a string field with a string without decoding the field
+     * @param offset flyweight offset
+     * @param length field length
+     * @param value string
+     * @return true if the field holds the UTF-8 encoding of the string
+     * @throws IllegalArgumentException null string
+     */
+    protected boolean nativeStringEquals(final int offset, final int length, final CharSequence value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null argument");
+        }
+        final long position = fieldOffset(offset, length);
+        final long end = position + length - 1;
+        long index = position;
+        for (int next = 0; next < value.length(); ) {
+            final int codePoint = codePoint(value, next);
+            next += Character.charCount(codePoint);
+            final long bytes = utf8(codePoint);
+            final int count = (int) (bytes >>> 32);
+            if (index + count > end) {
+                return false;
+            }
+            for (int shift = 0; shift < count * Byte.SIZE; shift += Byte.SIZE) {
+                if (segment.get(ValueLayout.JAVA_BYTE, index++) != (byte) (bytes >>> shift)) {
+                    return false;
+                }
+            }
+        }
+        return segment.get(ValueLayout.JAVA_BYTE, index) == 0;
+    }
+
+    /**
+     * Hash a string field without decoding it, equal to stringHash of the string held by the field
+     * @param offset flyweight offset
+     * @param length field length
+     * @return FNV-1a hash of the encoded string
+     */
+    protected int nativeStringHash(final int offset, final int length) {
+        final long position = fieldOffset(offset, length);
+        int hash = FNV_OFFSET_BASIS;
+        for (long index = position; index < position + length; ++index) {
+            final byte value = segment.get(ValueLayout.JAVA_BYTE, index);
+            if (value == 0) {
+                break;
+            }
+            hash = (hash ^ value & 0xff) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Hash a string as nativeStringHash hashes a field holding the string, without encoding it
+     * into a buffer, for lookups of string fields by a string key
+     * @param value string
+     * @return FNV-1a hash of the UTF-8 encoding
+     * @throws IllegalArgumentException null string
+     */
+    public static int stringHash(final CharSequence value) {
+        if (value == null) {
+            throw new IllegalArgumentException("null argument");
+        }
+        int hash = FNV_OFFSET_BASIS;
+        for (int next = 0; next < value.length(); ) {
+            final int codePoint = codePoint(value, next);
+            next += Character.charCount(codePoint);
+            final long bytes = utf8(codePoint);
+            final int count = (int) (bytes >>> 32);
+            for (int shift = 0; shift < count * Byte.SIZE; shift += Byte.SIZE) {
+                hash = (hash ^ (int) (bytes >>> shift) & 0xff) * FNV_PRIME;
+            }
+        }
+        return hash;
     }
 
     /**
-     * Append a byte array to a string builder
+     * Append a UTF-8 string field to a string builder without creating a string, ASCII strings
+     * are appended in bulk
+     * @param offset  flyweight offset
+     * @param length  field length
+     * @param builder string builder
+     * @return string builder
+     */
+    protected StringBuilder appendString(final int offset, final int length, final StringBuilder builder) {
+        final long position = fieldOffset(offset, length);
+        int count = 0;
+        boolean ascii = true;
+        for (; count < length; ++count) {
+            final byte value = segment.get(ValueLayout.JAVA_BYTE, position + count);
+            if (value == 0) {
+                break;
+            }
+            ascii &= value > 0;
+        }
+        if (ascii) {
+            return builder.append(fieldChars(position, count), 0, count);
+        }
+        for (int index = 0; index < count; ) {
+            final int first = segment.get(ValueLayout.JAVA_BYTE, position + index) & 0xff;
+            final int bytes = first < 0x80 ? 1 : first < 0xe0 ? 2 : first < 0xf0 ? 3 : 4;
+            if (index + bytes > count) {
+                builder.append('\ufffd');
+                break;
+            }
+            int codePoint = bytes == 1 ? first : first & (0x7f >>> bytes);
+            for (int next = 1; next < bytes; ++next) {
+                codePoint = codePoint << 6 | segment.get(ValueLayout.JAVA_BYTE, position + index + next) & 0x3f;
+            }
+            builder.appendCodePoint(codePoint);
+            index += bytes;
+        }
+        return builder;
+    }
+
+    /**
+     * Append a byte array to a string builder, each byte as a Latin-1 character
      * @param offset  flyweight offset
      * @param length  length
      * @param builder string builder
      * @return string builder
      */
     protected StringBuilder append(final int offset, final int length, final StringBuilder builder) {
-        final long position = fieldOffset(offset);
-        for (int index = 0; index < length; ++index) {
-            char value = (char) segment.get(ValueLayout.JAVA_BYTE, index + position);
-            builder.append(value);
+        return builder.append(fieldChars(fieldOffset(offset, length), length), 0, length);
+    }
+
+    /**
+     * Offset of the long sequence word used by optimistic reads. Flyweights supporting
+     * optimistic reads reserve the word in their layout and override this method, the writer
+     * initializes a newly allocated block between beginWrite and endWrite.
+     * @return offset in flyweight or INVALID_INDEX
+     */
+    protected int sequenceOffset() {
+        return BlockPool.INVALID_INDEX;
+    }
+
+    /**
+     * Begin a write of the block, only one thread may write a block
+     * @return the odd sequence of the write
+     * @throws IllegalStateException flyweight has no sequence word
+     */
+    public long beginWrite() {
+        final long offset = sequenceFieldOffset();
+        final long sequence = ((long) SEQUENCE.get(segment, offset) + 1) | 1L;
+        SEQUENCE.setOpaque(segment, offset, sequence);
+        VarHandle.storeStoreFence();
+        return sequence;
+    }
+
+    /**
+     * End a write of the block and publish the written fields
+     * @throws IllegalStateException flyweight has no sequence word or no write has begun
+     */
+    public void endWrite() {
+        final long offset = sequenceFieldOffset();
+        final long sequence = (long) SEQUENCE.get(segment, offset);
+        if ((sequence & 1L) == 0) {
+            throw new IllegalStateException("write has not begun");
         }
-        return builder;
+        SEQUENCE.setRelease(segment, offset, sequence + 1);
+    }
+
+    /**
+     * Get a stamp before optimistically reading the block, the stamp is odd and never
+     * validates while a write is in progress
+     * @return stamp
+     * @throws IllegalStateException flyweight has no sequence word
+     */
+    public long tryOptimisticRead() {
+        return (long) SEQUENCE.getAcquire(segment, sequenceFieldOffset());
+    }
+
+    /**
+     * Validate that the block has not been written since the stamp was taken
+     * @param stamp a stamp from tryOptimisticRead
+     * @return true if the fields read since the stamp are consistent
+     * @throws IllegalStateException flyweight has no sequence word
+     */
+    public boolean validate(final long stamp) {
+        final long offset = sequenceFieldOffset();
+        VarHandle.loadLoadFence();
+        return (stamp & 1L) == 0 && (long) SEQUENCE.getOpaque(segment, offset) == stamp;
+    }
+
+    private long sequenceFieldOffset() {
+        final int offset = sequenceOffset();
+        if (offset == BlockPool.INVALID_INDEX) {
+            throw new IllegalStateException("flyweight has no sequence word");
+        }
+        return fieldOffset(offset, Long.BYTES);
     }
 
     /**
@@ -298,6 +595,96 @@ public abstract class BlockFlyweight implements Flyweight {
             object.segment, dstOffset, dstOffset + blockSize) == -1;
     }
 
+    /**
+     * Compare a field with the same field of another flyweight
+     * @param object other flyweight
+     * @param offset flyweight offset
+     * @param length field length
+     * @return equality of the field bytes
+     */
+    public boolean compare(final BlockFlyweight object, final int offset, final int length) {
+        final long srcOffset = fieldOffset(offset, length);
+        final long dstOffset = object.fieldOffset(offset, length);
+        return MemorySegment.mismatch(segment, srcOffset, srcOffset + length,
+            object.segment, dstOffset, dstOffset + length) == -1;
+    }
+
+    private CharSequence fieldChars(final long position, final int length) {
+        if (fieldChars == null) {
+            fieldChars = new FieldChars();
+        }
+        fieldChars.position = position;
+        fieldChars.length = length;
+        return fieldChars;
+    }
+
+    private static int codePoint(final CharSequence value, final int index) {
+        final char high = value.charAt(index);
+        if (Character.isHighSurrogate(high) && index + 1 < value.length()) {
+            final char low = value.charAt(index + 1);
+            if (Character.isLowSurrogate(low)) {
+                return Character.toCodePoint(high, low);
+            }
+        }
+        return Character.isSurrogate(high) ? '?' : high;
+    }
+
+    /**
+     * UTF-8 encoding of a code point
+     * @return the byte count in the high word and the bytes in the low word, first byte lowest
+     */
+    private static long utf8(final int codePoint) {
+        final int bytes;
+        final int count;
+        if (codePoint < 0x80) {
+            return 1L << 32 | codePoint;
+        } else if (codePoint < 0x800) {
+            bytes = (0xc0 | codePoint >>> 6) | (0x80 | codePoint & 0x3f) << 8;
+            count = 2;
+        } else if (codePoint < 0x10000) {
+            bytes = (0xe0 | codePoint >>> 12) | (0x80 | codePoint >>> 6 & 0x3f) << 8 |
+                (0x80 | codePoint & 0x3f) << 16;
+            count = 3;
+        } else {
+            bytes = (0xf0 | codePoint >>> 18) | (0x80 | codePoint >>> 12 & 0x3f) << 8 |
+                (0x80 | codePoint >>> 6 & 0x3f) << 16 | (0x80 | codePoint & 0x3f) << 24;
+            count = 4;
+        }
+        return (long) count << 32 | bytes & 0xffffffffL;
+    }
+
+    /**
+     * Field bytes as Latin-1 characters, appended by StringBuilder in one call
+     */
+    private final class FieldChars implements CharSequence {
+
+        private long position;
+        private int length;
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(final int index) {
+            return (char) (segment.get(ValueLayout.JAVA_BYTE, position + index) & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(final int start, final int end) {
+            if (start < 0 || start > end || end > length) {
+                throw new IndexOutOfBoundsException("invalid range");
+            }
+            return new StringBuilder(end - start).append(this, start, end).toString();
+        }
+
+        @Override
+        public String toString() {
+            return new StringBuilder(length).append(this, 0, length).toString();
+        }
+    }
+
     /**
      * Flyweight string builder helper
      * @param builder string builder
@@ -0,0 +1,207 @@
+package org.limitless.fsmp4j;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ScatteringByteChannel;
+import java.util.Arrays;
+
+/**
+ * Zero-copy I/O of pool blocks.
+ * @param <T> flyweight type
+ *
+ * Blocks are written from, and read into, byte buffer views of the pool segments so that no
+ * data is copied through the heap. Many blocks are gathered into, or scattered from, one system
+ * call, and consecutive blocks without header or padding between them share one buffer. The
+ * encoded length bytes of each block are transferred in native byte order. The channels are
+ * expected to be blocking.
+ */
+public final class BlockIO<T extends BlockFlyweight> {
+
+    public static final int BATCH_SIZE = 1024;   // IOV_MAX on Linux
+
+    private final BlockPool<T> pool;
+    private final T block;
+    private final ByteBuffer[] buffers;
+    private final long[] batch;
+
+    /**
+     * Constructor
+     * @param pool the pool of the blocks
+     * @param block a flyweight used for allocation
+     * @throws IllegalArgumentException null argument
+     */
+    public BlockIO(final BlockPool<T> pool, final T block) {
+        if (pool == null || block == null) {
+            throw new IllegalArgumentException("null pool or block");
+        }
+        this.pool = pool;
+        this.block = block;
+        buffers = new ByteBuffer[BATCH_SIZE];
+        batch = new long[BATCH_SIZE];
+    }
+
+    /**
+     * Gather write blocks to a channel
+     * @param channel the channel
+     * @param addresses block addresses
+     * @param offset first address
+     * @param length number of addresses
+     * @return number of bytes written
+     * @throws IllegalArgumentException null argument or invalid range
+     * @throws IllegalStateException invalid address
+     * @throws IOException failed write
+     */
+    public long write(final GatheringByteChannel channel, final long[] addresses, final int offset, final int length)
+        throws IOException {
+        checkArguments(channel, addresses, offset, length);
+
+        final int end = offset + length;
+        long written = 0;
+        int position = offset;
+        while (position < end) {
+            int count = 0;
+            while (position < end && count < buffers.length) {
+                final int run = run(addresses, position, end);
+                buffers[count++] = pool.asSlice(addresses[position], run).asByteBuffer();
+                position += run;
+            }
+            written += transfer(channel, null, count);
+        }
+        Arrays.fill(buffers, null);
+        return written;
+    }
+
+    /**
+     * Scatter read blocks from a channel into newly allocated blocks. A failed read frees all blocks
+     * allocated by the call, except for a truncated block after complete blocks, which are kept.
+     * @param channel the channel
+     * @param addresses addresses of the read blocks
+     * @param offset first address
+     * @param length maximal number of blocks
+     * @return the number of read blocks, less than length at end of stream
+     * @throws IllegalArgumentException null argument or invalid range
+     * @throws IllegalStateException exhausted pool
+     * @throws TruncatedBlockException end of stream inside a block, with the number of complete blocks
+     * @throws IOException failed read
+     */
+    public int read(final ScatteringByteChannel channel, final long[] addresses, final int offset, final int length)
+        throws IOException {
+        checkArguments(channel, addresses, offset, length);
+
+        final int encodedLength = pool.encodedLength();
+        int blocks = 0;
+        int allocated = 0;
+        try {
+            while (blocks < length) {
+                final int batchLength = Math.min(batch.length, length - blocks);
+                for (allocated = 0; allocated < batchLength; ++allocated) {
+                    batch[allocated] = pool.allocate(block).address();
+                }
+
+                int count = 0;
+                int position = 0;
+                while (position < batchLength) {
+                    final int run = run(batch, position, batchLength);
+                    buffers[count++] = pool.asSlice(batch[position], run).asByteBuffer();
+                    position += run;
+                }
+                final long read = transfer(null, channel, count);
+                final int filled = (int) (read / encodedLength);
+                System.arraycopy(batch, 0, addresses, offset + blocks, filled);
+                blocks += filled;
+                if (filled < batchLength) {
+                    free(batch, filled, batchLength);
+                    allocated = 0;
+                    if (read % encodedLength != 0) {
+                        throw new TruncatedBlockException(blocks);
+                    }
+                    return blocks;
+                }
+                allocated = 0;
+            }
+            return blocks;
+        } catch (TruncatedBlockException error) {
+            throw error;
+        } catch (IOException | RuntimeException error) {
+            free(batch, 0, allocated);
+            free(addresses, offset, offset + blocks);
+            throw error;
+        } finally {
+            Arrays.fill(buffers, null);
+        }
+    }
+
+    /**
+     * End of stream inside a block, the complete blocks before it are read
+     */
+    public static final class TruncatedBlockException extends EOFException {
+
+        private final int blocks;
+
+        TruncatedBlockException(final int blocks) {
+            super("truncated block");
+            this.blocks = blocks;
+        }
+
+        /**
+         * The number of complete blocks read before the truncated block, which the caller owns
+         * @return blocks
+         */
+        public int blocks() {
+            return blocks;
+        }
+    }
+
+    private void free(final long[] addresses, final int from, final int to) {
+        for (int index = from; index < to; ++index) {
+            pool.free(addresses[index]);
+        }
+    }
+
+    /**
+     * The number of consecutive blocks starting at position that can share one buffer
+     */
+    private int run(final long[] addresses, final int position, final int end) {
+        if (pool.blockLength() != pool.encodedLength()) {
+            return 1;
+        }
+        final long address = addresses[position];
+        int run = 1;
+        while (position + run < end && addresses[position + run] == address + run) {
+            ++run;
+        }
+        return run;
+    }
+
+    /**
+     * Transfer the buffers until all are done or end of stream
+     */
+    private long transfer(final GatheringByteChannel output, final ScatteringByteChannel input, final int count)
+        throws IOException {
+        long transferred = 0;
+        int first = 0;
+        while (first < count) {
+            final long bytes = output != null ? output.write(buffers, first, count - first) :
+                input.read(buffers, first, count - first);
+            if (bytes < 0) {
+                break;
+            }
+            transferred += bytes;
+            while (first < count && !buffers[first].hasRemaining()) {
+                ++first;
+            }
+        }
+        return transferred;
+    }
+
+    private static void checkArguments(final Object channel, final long[] addresses, final int offset, final int length) {
+        if (channel == null || addresses == null) {
+            throw new IllegalArgumentException("null channel or addresses");
+        }
+        if (offset < 0 || length < 0 || offset + length > addresses.length) {
+            throw new IllegalArgumentException("invalid offset or length");
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package org.limitless.fsmp4j;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Deduplication of byte-identical blocks of a pool into reference counted canonical blocks.
+ * @param <T> flyweight type
+ *
+ * A block is interned by hashing its encodedLength bytes and looking the hash up in an off-heap
+ * open addressing table of canonical blocks, hash collisions are resolved by comparing the blocks.
+ * Interning a duplicate frees it and counts one more reference to the canonical block, so that
+ * interned blocks are equal if and only if their addresses are equal. Canonical blocks must not be
+ * modified, and are freed when their last reference is released.
+ *
+ * A table slot holds the block address, the block hash and the reference count. The table is
+ * allocated in its own arena, doubles when half full and removes entries without tombstones.
+ * Blocks are read in place from their segments, not through pool gets, so that interning adds no
+ * traced or sampled gets.
+ *
+ * The interner is not thread safe, the owning thread must be the only thread using the pool.
+ */
+public final class BlockInterner<T extends BlockFlyweight> implements AutoCloseable {
+
+    public static final int INITIAL_CAPACITY = 1024;
+
+    private static final int SLOT_LENGTH = 16;
+    private static final int HASH_OFFSET = 8;
+    private static final int COUNT_OFFSET = 12;
+
+    private final BlockPool<T> pool;
+    private Arena arena;
+    private MemorySegment table;
+    private int mask;
+    private int size;
+    private T probe;
+
+    /**
+     * Constructor
+     * @param pool the pool of the blocks
+     * @throws IllegalArgumentException null pool or flyweight instantiation failed
+     */
+    public BlockInterner(final BlockPool<T> pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("null pool");
+        }
+        this.pool = pool;
+        probe = pool.newInstance();
+        if (probe == null) {
+            throw new IllegalArgumentException("flyweight instantiation failed");
+        }
+        allocateTable(INITIAL_CAPACITY);
+    }
+
+    /**
+     * The pool of the blocks
+     * @return pool
+     */
+    public BlockPool<T> pool() {
+        return pool;
+    }
+
+    /**
+     * The number of canonical blocks
+     * @return blocks
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Intern an allocated block. A block equal to a canonical block is freed and the flyweight
+     * wrapped on the canonical block, otherwise the block becomes canonical.
+     * @param block a flyweight wrapped on an allocated block
+     * @return address of the canonical block
+     * @throws IllegalArgumentException null or unwrapped block
+     * @throws IllegalStateException the interner is closed
+     */
+    public long intern(final T block) {
+        final long address = checkBlock(block);
+        final int hash = hash(block);
+        int slot = hash & mask;
+        for (long entry; (entry = address(slot)) != 0; slot = slot + 1 & mask) {
+            if (hash(slot) == hash && (entry == address || probe(entry).compare(block))) {
+                count(slot, count(slot) + 1);
+                if (entry != address) {
+                    pool.free(address);
+                    wrap(entry, block);
+                }
+                return entry;
+            }
+        }
+        table.set(ValueLayout.JAVA_LONG, (long) slot * SLOT_LENGTH, address);
+        table.set(ValueLayout.JAVA_INT, (long) slot * SLOT_LENGTH + HASH_OFFSET, hash);
+        count(slot, 1);
+        if (++size > (mask + 1) >> 1) {
+            allocateTable((mask + 1) << 1);
+        }
+        return address;
+    }
+
+    /**
+     * Find the canonical block equal to a block without interning it
+     * @param block a flyweight wrapped on a block
+     * @return address of the canonical block, 0 if there is none
+     * @throws IllegalArgumentException null or unwrapped block
+     * @throws IllegalStateException the interner is closed
+     */
+    public long find(final T block) {
+        final long address = checkBlock(block);
+        final int hash = hash(block);
+        for (int slot = hash & mask; ; slot = slot + 1 & mask) {
+            final long entry = address(slot);
+            if (entry == 0 || hash(slot) == hash && (entry == address || probe(entry).compare(block))) {
+                return entry;
+            }
+        }
+    }
+
+    /**
+     * Add a reference to a canonical block
+     * @param address canonical block address
+     * @return the new reference count
+     * @throws IllegalArgumentException the block is not canonical
+     * @throws IllegalStateException the interner is closed
+     */
+    public int retain(final long address) {
+        final int slot = slot(address);
+        if (slot < 0) {
+            throw new IllegalArgumentException("block is not interned");
+        }
+        final int count = count(slot) + 1;
+        count(slot, count);
+        return count;
+    }
+
+    /**
+     * Release a reference to a canonical block and free the block with its last reference
+     * @param address canonical block address
+     * @return true if the block was freed
+     * @throws IllegalArgumentException the block is not canonical
+     * @throws IllegalStateException the interner is closed
+     */
+    public boolean release(final long address) {
+        final int slot = slot(address);
+        if (slot < 0) {
+            throw new IllegalArgumentException("block is not interned");
+        }
+        final int count = count(slot) - 1;
+        if (count > 0) {
+            count(slot, count);
+            return false;
+        }
+        remove(slot);
+        pool.free(address);
+        return true;
+    }
+
+    /**
+     * The reference count of a block
+     * @param address block address
+     * @return reference count, zero if the block is not canonical
+     * @throws IllegalStateException the interner is closed
+     */
+    public int referenceCount(final long address) {
+        final int slot = slot(address);
+        return slot < 0 ? 0 : count(slot);
+    }
+
+    /**
+     * Free the table, the canonical blocks stay allocated in the pool
+     */
+    @Override
+    public void close() {
+        if (arena != null) {
+            arena.close();
+            arena = null;
+            table = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BlockInterner{size=" + size + ", capacity=" + (mask + 1) + ", pool=" + pool + "}";
+    }
+
+    private long checkBlock(final T block) {
+        if (block == null || block.block() == BlockPool.INVALID_INDEX) {
+            throw new IllegalArgumentException("invalid block");
+        }
+        if (table == null) {
+            throw new IllegalStateException("interner is closed");
+        }
+        return block.address();
+    }
+
+    private int slot(final long address) {
+        if (table == null) {
+            throw new IllegalStateException("interner is closed");
+        }
+        final int segmentIndex = ByteUtils.highBits(address) - 1;
+        final int blockIndex = ByteUtils.lowBits(address);
+        if (address <= 0 || segmentIndex < 0 || segmentIndex >= pool.usedSegments() || blockIndex < 0 ||
+            blockIndex >= pool.initiatedBlocks(segmentIndex)) {
+            return -1;
+        }
+        final int hash = hash(wrap(address, probe));
+        for (int slot = hash & mask; ; slot = slot + 1 & mask) {
+            final long entry = address(slot);
+            if (entry == address) {
+                return slot;
+            } else if (entry == 0) {
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * Remove an entry and shift the following entries of its probe sequence back
+     */
+    private void remove(final int removed) {
+        int hole = removed;
+        for (int slot = hole + 1 & mask; address(slot) != 0; slot = slot + 1 & mask) {
+            final int home = hash(slot) & mask;
+            if ((slot - home & mask) >= (slot - hole & mask)) {
+                MemorySegment.copy(table, (long) slot * SLOT_LENGTH, table, (long) hole * SLOT_LENGTH, SLOT_LENGTH);
+                hole = slot;
+            }
+        }
+        table.set(ValueLayout.JAVA_LONG, (long) hole * SLOT_LENGTH, 0L);
+        --size;
+    }
+
+    private void allocateTable(final int capacity) {
+        final Arena newArena = Arena.ofShared();
+        final MemorySegment newTable = newArena.allocate((long) capacity * SLOT_LENGTH, Long.BYTES);
+        final int newMask = capacity - 1;
+        if (table != null) {
+            for (int slot = 0; slot <= mask; ++slot) {
+                if (address(slot) != 0) {
+                    int newSlot = hash(slot) & newMask;
+                    while (newTable.get(ValueLayout.JAVA_LONG, (long) newSlot * SLOT_LENGTH) != 0) {
+                        newSlot = newSlot + 1 & newMask;
+                    }
+                    MemorySegment.copy(table, (long) slot * SLOT_LENGTH, newTable, (long) newSlot * SLOT_LENGTH,
+                        SLOT_LENGTH);
+                }
+            }
+            arena.close();
+        }
+        arena = newArena;
+        table = newTable;
+        mask = newMask;
+    }
+
+    private T probe(final long address) {
+        return wrap(address, probe);
+    }
+
+    /**
+     * Wrap a flyweight on a valid block address without a pool get
+     */
+    private T wrap(final long address, final T block) {
+        final int segmentIndex = ByteUtils.highBits(address) - 1;
+        final int blockIndex = ByteUtils.lowBits(address);
+        block.wrap(pool.segment(segmentIndex), segmentIndex, blockIndex,
+            (long) blockIndex * pool.blockLength() + pool.headerLength());
+        return block;
+    }
+
+    private static int hash(final BlockFlyweight block) {
+        final long hash = ByteUtils.hash(block.memorySegment(), block.fieldOffset(0), block.encodedLength());
+        return (int) (hash ^ hash >>> 32);
+    }
+
+    private long address(final int slot) {
+        return table.get(ValueLayout.JAVA_LONG, (long) slot * SLOT_LENGTH);
+    }
+
+    private int hash(final int slot) {
+        return table.get(ValueLayout.JAVA_INT, (long) slot * SLOT_LENGTH + HASH_OFFSET);
+    }
+
+    private int count(final int slot) {
+        return table.get(ValueLayout.JAVA_INT, (long) slot * SLOT_LENGTH + COUNT_OFFSET);
+    }
+
+    private void count(final int slot, final int count) {
+        table.set(ValueLayout.JAVA_INT, (long) slot * SLOT_LENGTH + COUNT_OFFSET, count);
+    }
+}
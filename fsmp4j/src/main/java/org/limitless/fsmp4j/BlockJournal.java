@@ -0,0 +1,301 @@
+package org.limitless.fsmp4j;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An append-only change journal of a block pool in a memory-mapped file.
+ *
+ * A pool built with a journal records every allocate and free, and the writer records field
+ * writes of blocks explicitly. Appended events become visible to followers, possibly in another
+ * process, in batches when the writer commits. A follower tails the journal and applies the events
+ * to its own pool, which has the same layout and starts from the same state as the journaled pool,
+ * so that block addresses match exactly.
+ *
+ * Reference counts are not replicated. A retain or release is not an event, a follower block has
+ * the count of a newly allocated block until the release that frees the block on the writer is
+ * replayed as its free.
+ *
+ * Events are 8 byte aligned records of a type and length word, the block address, and for writes
+ * the field offset followed by the field bytes. The committed position is published with release
+ * and acquire semantics in the file header.
+ */
+public final class BlockJournal implements BlockRecorder, AutoCloseable {
+
+    public static final int ALLOCATE = 1;
+    public static final int FREE = 2;
+    public static final int WRITE = 3;
+
+    public static final int HEADER_LENGTH = 64;
+
+    private static final long MAGIC = 0x46534d504a524e31L;  // FSMPJRN1
+    private static final int MAGIC_OFFSET = 0;
+    private static final int COMMITTED_OFFSET = MAGIC_OFFSET + Long.BYTES;
+    private static final int CAPACITY_OFFSET = COMMITTED_OFFSET + Long.BYTES;
+
+    private static final int TYPE_OFFSET = 0;
+    private static final int LENGTH_OFFSET = TYPE_OFFSET + Integer.BYTES;
+    private static final int ADDRESS_OFFSET = LENGTH_OFFSET + Integer.BYTES;
+    private static final int EVENT_LENGTH = ADDRESS_OFFSET + Long.BYTES;
+    private static final int FIELD_OFFSET = EVENT_LENGTH;
+    private static final int WRITE_LENGTH = FIELD_OFFSET + Long.BYTES;
+
+    private static final VarHandle COMMITTED = ValueLayout.JAVA_LONG.varHandle();
+
+    private final Arena arena;
+    private final MemorySegment log;
+    private final boolean writer;
+    private long position;
+
+    private BlockJournal(final Arena arena, final MemorySegment log, final boolean writer) {
+        this.arena = arena;
+        this.log = log;
+        this.writer = writer;
+        position = HEADER_LENGTH;
+    }
+
+    /**
+     * Create an empty journal for writing
+     * @param path journal file
+     * @param capacity journal size in bytes
+     * @return journal
+     * @throws IllegalArgumentException null path or invalid capacity
+     * @throws IOException failed to create the journal
+     */
+    public static BlockJournal create(final Path path, final long capacity) throws IOException {
+        if (path == null || capacity <= HEADER_LENGTH) {
+            throw new IllegalArgumentException("null path or invalid capacity");
+        }
+
+        final Arena arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final MemorySegment log = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity, arena);
+            log.set(ValueLayout.JAVA_LONG, CAPACITY_OFFSET, capacity);
+            log.set(ValueLayout.JAVA_LONG, MAGIC_OFFSET, MAGIC);
+            COMMITTED.setRelease(log, (long) COMMITTED_OFFSET, (long) HEADER_LENGTH);
+            return new BlockJournal(arena, log, true);
+        } catch (IOException | RuntimeException error) {
+            arena.close();
+            throw error;
+        }
+    }
+
+    /**
+     * Open a journal for following
+     * @param path journal file
+     * @return journal
+     * @throws IllegalArgumentException null path
+     * @throws IOException failed to open the journal or invalid journal
+     */
+    public static BlockJournal open(final Path path) throws IOException {
+        if (path == null) {
+            throw new IllegalArgumentException("null path");
+        }
+
+        final Arena arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MemorySegment log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            if (log.byteSize() <= HEADER_LENGTH || log.get(ValueLayout.JAVA_LONG, MAGIC_OFFSET) != MAGIC) {
+                throw new IOException("invalid journal");
+            }
+            return new BlockJournal(arena, log, false);
+        } catch (IOException | RuntimeException error) {
+            arena.close();
+            throw error;
+        }
+    }
+
+    /**
+     * Record an allocation
+     * @param address block address
+     * @throws IllegalStateException follower journal or full journal
+     */
+    @Override
+    public void allocated(final long address) {
+        appendEvent(ALLOCATE, address);
+    }
+
+    /**
+     * Record a free
+     * @param address block address
+     * @throws IllegalStateException follower journal or full journal
+     */
+    @Override
+    public void freed(final long address) {
+        appendEvent(FREE, address);
+    }
+
+    /**
+     * Record a free of consecutive blocks of one segment, one event per block, either all events
+     * are appended or none
+     * @param address address of the first block
+     * @param count number of blocks
+     * @throws IllegalArgumentException invalid count
+     * @throws IllegalStateException follower journal or full journal
+     */
+    @Override
+    public void freed(final long address, final int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("invalid count");
+        }
+        reserve((long) count * EVENT_LENGTH);
+        for (int index = 0; index < count; ++index) {
+            appendEvent(FREE, address + index);
+        }
+    }
+
+    /**
+     * Record the data of a block
+     * @param block a wrapped flyweight
+     * @throws IllegalStateException follower journal, full journal or flyweight not wrapped
+     */
+    public void write(final BlockFlyweight block) {
+        write(block, 0, block.encodedLength());
+    }
+
+    /**
+     * Record a field write of a block
+     * @param block a wrapped flyweight
+     * @param offset field offset in flyweight
+     * @param length field length
+     * @throws IllegalArgumentException invalid field
+     * @throws IllegalStateException follower journal, full journal or flyweight not wrapped
+     */
+    public void write(final BlockFlyweight block, final int offset, final int length) {
+        if (offset < 0 || length <= 0 || offset + length > block.encodedLength()) {
+            throw new IllegalArgumentException("invalid field");
+        }
+
+        final long eventLength = WRITE_LENGTH + ByteUtils.align((long) length, Long.BYTES);
+        final long event = reserve(eventLength);
+        log.set(ValueLayout.JAVA_INT, event + TYPE_OFFSET, WRITE);
+        log.set(ValueLayout.JAVA_INT, event + LENGTH_OFFSET, length);
+        log.set(ValueLayout.JAVA_LONG, event + ADDRESS_OFFSET, block.address());
+        log.set(ValueLayout.JAVA_LONG, event + FIELD_OFFSET, offset);
+        MemorySegment.copy(block.memorySegment(), block.fieldOffset(offset), log, event + WRITE_LENGTH, length);
+        position += eventLength;
+    }
+
+    /**
+     * Publish the appended events to followers
+     * @throws IllegalStateException follower journal
+     */
+    public void commit() {
+        checkWriter();
+        COMMITTED.setRelease(log, (long) COMMITTED_OFFSET, position);
+    }
+
+    /**
+     * Drop the events appended after a position, which must not be committed yet
+     * @param position append position before the dropped events
+     * @throws IllegalStateException follower journal or committed position
+     */
+    void rewind(final long position) {
+        checkWriter();
+        if (position < committedPosition() || position > this.position) {
+            throw new IllegalStateException("invalid rewind position");
+        }
+        this.position = position;
+    }
+
+    /**
+     * The position of the last committed event
+     * @return position in the journal
+     */
+    public long committedPosition() {
+        return (long) COMMITTED.getAcquire(log, (long) COMMITTED_OFFSET);
+    }
+
+    /**
+     * The append position of a writer or the apply position of a follower
+     * @return position in the journal
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * Apply the committed events that have not been applied to a follower pool
+     * @param pool follower pool
+     * @param block a flyweight used for allocation
+     * @param <T> flyweight type
+     * @return the number of applied events
+     * @throws IllegalArgumentException null argument
+     * @throws IllegalStateException writer journal or the follower pool has diverged
+     */
+    public <T extends BlockFlyweight> int apply(final BlockPool<T> pool, final T block) {
+        if (pool == null || block == null) {
+            throw new IllegalArgumentException("null pool or block");
+        }
+        if (writer) {
+            throw new IllegalStateException("journal is not a follower");
+        }
+
+        final long committed = committedPosition();
+        int events = 0;
+        while (position < committed) {
+            final int type = log.get(ValueLayout.JAVA_INT, position + TYPE_OFFSET);
+            final long address = log.get(ValueLayout.JAVA_LONG, position + ADDRESS_OFFSET);
+            switch (type) {
+                case ALLOCATE -> {
+                    if (pool.allocate(block).address() != address) {
+                        throw new IllegalStateException("follower pool has diverged");
+                    }
+                    position += EVENT_LENGTH;
+                }
+                case FREE -> {
+                    pool.free(address);
+                    position += EVENT_LENGTH;
+                }
+                case WRITE -> {
+                    final int length = log.get(ValueLayout.JAVA_INT, position + LENGTH_OFFSET);
+                    final long offset = log.get(ValueLayout.JAVA_LONG, position + FIELD_OFFSET);
+                    MemorySegment.copy(log, position + WRITE_LENGTH, pool.asSlice(address), offset, length);
+                    position += WRITE_LENGTH + ByteUtils.align((long) length, Long.BYTES);
+                }
+                default -> throw new IllegalStateException("invalid journal event");
+            }
+            ++events;
+        }
+        return events;
+    }
+
+    /**
+     * Unmap the journal
+     */
+    @Override
+    public void close() {
+        if (arena.scope().isAlive()) {
+            arena.close();
+        }
+    }
+
+    private void appendEvent(final int type, final long address) {
+        final long event = reserve(EVENT_LENGTH);
+        log.set(ValueLayout.JAVA_INT, event + TYPE_OFFSET, type);
+        log.set(ValueLayout.JAVA_INT, event + LENGTH_OFFSET, 0);
+        log.set(ValueLayout.JAVA_LONG, event + ADDRESS_OFFSET, address);
+        position += EVENT_LENGTH;
+    }
+
+    private long reserve(final long length) {
+        checkWriter();
+        if (position + length > log.byteSize()) {
+            throw new IllegalStateException("journal is full");
+        }
+        return position;
+    }
+
+    private void checkWriter() {
+        if (!writer) {
+            throw new IllegalStateException("journal is not a writer");
+        }
+    }
+}
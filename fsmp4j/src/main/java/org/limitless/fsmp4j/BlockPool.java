@@ -1,10 +1,21 @@
 package org.limitless.fsmp4j;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.lang.foreign.*;
+import java.lang.invoke.VarHandle;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * An implementation of the allocator described in the paper:
@@ -12,6 +23,58 @@ import java.util.Locale;
  * @param <T> flyweight type
  *
  * Blocks are allocated in segments and when a segment is full another is allocated.
+ * A pool may be bounded to a maximal number of segments, in which case allocation fails
+ * when the pool is exhausted. A concurrent pool guards all operations with a lock and
+ * supports blocking allocation until another thread frees a block. Segment memory may also be
+ * reserved from an account in a global memory budget shared by several pools.
+ *
+ * A reference counted pool reserves a header word in front of every block which is updated
+ * atomically by retain and release, the block is freed when its count reaches zero.
+ *
+ * A snapshot writes the pool metadata, every segment wholesale, the live block counts and the
+ * segment free list heads or free bitmaps to a file, and a pool restored from the snapshot has
+ * identical block addresses and free list.
+ *
+ * A journaled pool appends every allocate and free to a change journal before it changes the
+ * pool, so that a follower pool can replay them and stay a warm standby with identical addresses.
+ *
+ * A traced pool records every allocate, free and get with its address and time to a block trace,
+ * which can be replayed against other pool configurations. Journal and trace are both block
+ * recorders, called once per allocate and free. A pool that is not concurrent only traces the
+ * gets of the thread that last allocated or freed, not those of lock-free readers.
+ *
+ * A pool with compact handles also names its blocks by 32 bit handles, the segment index + 1 in
+ * the high bits and the block index in the low bits needed for blocks per segment. The number of
+ * segments is capped to fit the remaining bits, keeping handles positive.
+ *
+ * The pool counts the live blocks of every segment. A pool with releasable segments allocates
+ * every segment in its own arena, so that a handle table can move the live blocks out of sparse
+ * segments and release their memory. Released segment indices are reused when the pool grows.
+ * A segment report shows the live and free blocks of every segment and where its memory is.
+ *
+ * The allocation policy decides which free block is allocated. The LIFO policy of the paper
+ * allocates the most recently freed block in any segment, while the DENSE policy keeps a free list
+ * per segment and allocates from the lowest segment with free blocks, so that after churn the live
+ * blocks stay packed in the first segments and consecutive allocations stay close.
+ *
+ * The BITMAP policy allocates in the same order but keeps the free blocks in a bitmap per segment
+ * instead of a free list in the blocks. Blocks then only need eight bytes, a free never writes to
+ * the block data, and a range of blocks in a segment is freed by a few word operations.
+ *
+ * A scoped pool never frees single blocks. Instead a reset returns all blocks allocated after a
+ * checkpoint, or all blocks, by rewinding the current segment and the lazily initiated blocks,
+ * without touching the block memory. The segments stay allocated for the next scope.
+ *
+ * A pool built with a struct layout stores the blocks of a segment as an array of the C struct,
+ * so that a block, or consecutive blocks of a segment, can be passed to native functions through
+ * asSlice or nativeAddress and are read and written in place.
+ *
+ * A frozen pool forbids allocations and frees, and hands out a read-only view of its blocks for
+ * sharing between reader threads without locks.
+ *
+ * The memory of a segment with releasable segments can be moved to another arena, e.g. to a
+ * memory-mapped file by a TieredBlockPool, keeping the block addresses. Segments in mapped memory
+ * are outside the memory budget.
  *
  */
 public class BlockPool<T extends BlockFlyweight> {
@@ -20,51 +83,137 @@ public class BlockPool<T extends BlockFlyweight> {
 
     public static final int SEGMENT_CAPACITY = 64;
 
+    public static final int REFERENCE_COUNT_LENGTH = Long.BYTES;
+
+    /**
+     * Which free block an allocation takes
+     */
+    public enum AllocationPolicy {
+        /** the most recently freed block, in any segment */
+        LIFO,
+        /** a free block of the lowest segment with free blocks */
+        DENSE,
+        /** the lowest free block of the lowest segment with free blocks, found in free bitmaps */
+        BITMAP
+    }
+
+    private static final VarHandle REFERENCE_COUNT = ValueLayout.JAVA_INT.varHandle();
+
+    private static final int SNAPSHOT_MAGIC = 0x46534d50;  // FSMP
+    private static final int SNAPSHOT_VERSION = 2;
+    private static final int SNAPSHOT_HEADER_LENGTH = 64;
+    private static final long SNAPSHOT_CHUNK_LENGTH = 1L << 30;  // segments are copied in chunks a ByteBuffer can hold
+
     private final int blockLength;
+    private final int headerLength;
+    private final int encodedLength;
     private final int blocksPerSegment;
+    private final int maxSegments;
+    private final int handleBlockBits;
+    private final AllocationPolicy policy;
+    private final boolean scoped;
 
     private Arena arena;
     private final Constructor<T> constructor;
     private MemorySegment[] memorySegments;
+    private int[] liveBlocks;
+    private Arena[] segmentArenas;   // null unless segments are releasable
+    private final FreeBlocks freeBlocks;  // free block bookkeeping of the allocation policy
     private final T workBlock;
     private final FreeBlock freeBlock;
+    private final ReentrantLock lock;
+    private final Condition blockFreed;
+    private final MemoryBudget.Account account;
+    private final boolean journaled;
+    private final BlockRecorder recorder;  // journal, trace or both, called once per allocate and free
+    private final BlockTrace trace;
+    private final MemoryLayout layout;
+    private final long segmentAlignment;
 
+    private volatile boolean frozen;  // read without the lock by retain and release
     private int initiatedFreeBlocks;   // number of initiated blocks in the current segment
     private int segmentPosition;   // index of the current used segment
     private int segmentCount;      // allocated segments
+    private int releasedSegments;
 
     private int freeBlockCount;
-    private int freeBlockPosition;
-    private int freeSegmentPosition;
 
     /**
      * Constructor
-     * @param memoryArena      the memory arena
+     * @param builder          arena, pool options, budget account, journal, trace and layout
      * @param constructor      constructor for the flyweight
-     * @param blockLength        the block size (power of 2)
+     * @param blockLength      the block size
+     * @param headerLength     the block header size
      * @param blocksPerSegment the number of blocks per segment
      * @param preAllocSegments initial number of segments
+     * @param maxSegments      maximal number of segments
+     * @param handleBlockBits  block index bits of compact handles or INVALID_INDEX
+     * @param policy           allocation policy
      */
-    private BlockPool(final Arena memoryArena,
+    private BlockPool(final Builder<T> builder,
                       final Constructor<T> constructor,
                       final int blockLength,
+                      final int headerLength,
                       final int blocksPerSegment,
-                      final int preAllocSegments) {
-        this.arena = memoryArena;
+                      final int preAllocSegments,
+                      final int maxSegments,
+                      final int handleBlockBits,
+                      final AllocationPolicy policy) {
+        final BlockJournal journal = builder.journal;
+        final BlockTrace trace = builder.trace;
+        this.arena = builder.memoryArena;
         this.constructor = constructor;
         this.blockLength = blockLength;
+        this.headerLength = headerLength;
         this.blocksPerSegment = blocksPerSegment;
+        this.maxSegments = maxSegments;
+        this.handleBlockBits = handleBlockBits;
+        this.policy = policy;
+        this.scoped = builder.scoped;
+        this.account = builder.account;
+        journaled = journal != null;
+        recorder = journal == null ? trace : trace == null ? journal : new TracedJournal(journal, trace);
+        this.trace = trace;
+        this.layout = builder.layout;
+        segmentAlignment = layout == null ? Long.BYTES : Math.max(Long.BYTES, layout.byteAlignment());
+        if (builder.concurrent) {
+            lock = new ReentrantLock();
+            blockFreed = lock.newCondition();
+        } else {
+            lock = null;
+            blockFreed = null;
+        }
 
         final long segmentSize = (long) this.blocksPerSegment * this.blockLength;
         segmentCount = preAllocSegments;
         segmentPosition = 0;
-        memorySegments = new MemorySegment[SEGMENT_CAPACITY];
+        final int capacity = Math.max(SEGMENT_CAPACITY, preAllocSegments);
+        memorySegments = new MemorySegment[capacity];
+        liveBlocks = new int[capacity];
+        segmentArenas = builder.releasable ? new Arena[capacity] : null;
+        freeBlocks = switch (policy) {
+            case LIFO -> new LifoFreeBlocks();
+            case DENSE -> new DenseFreeBlocks(capacity);
+            case BITMAP -> new BitmapFreeBlocks(capacity);
+        };
         for (int position = 0; position < this.segmentCount; ++position) {
-            memorySegments[position] = arena.allocate(segmentSize, Long.BYTES);
+            if (account != null && !account.reserve(segmentSize)) {
+                account.release((long) position * segmentSize);
+                throw new IllegalStateException("memory budget exceeded");
+            }
+            try {
+                memorySegments[position] = newSegment(position, segmentSize);
+            } catch (RuntimeException | OutOfMemoryError e) {
+                if (account != null) {
+                    account.release((long) position * segmentSize);
+                }
+                throw e;
+            }
         }
         freeBlockCount = this.blocksPerSegment;
         freeBlock = new FreeBlock();
         workBlock = newInstance();
+        encodedLength = workBlock.encodedLength();
     }
 
     /**
@@ -72,20 +221,97 @@ public class BlockPool<T extends BlockFlyweight> {
      * @return bytes
      */
     public long allocatedBytes() {
-        return (long) segmentCount * blocksPerSegment * blockLength;
+        return (long) (segmentCount - releasedSegments) * blocksPerSegment * blockLength;
+    }
+
+    /**
+     * The allocation policy of the pool
+     * @return policy
+     */
+    public AllocationPolicy allocationPolicy() {
+        return policy;
+    }
+
+    /**
+     * The fraction of the initiated blocks in the segments that are free, 0 when the live blocks
+     * are dense
+     * @return fragmentation between 0 and 1
+     */
+    public double fragmentation() {
+        lock();
+        try {
+            long initiated = 0;
+            long live = 0;
+            for (int segmentIndex = 0; segmentIndex <= segmentPosition; ++segmentIndex) {
+                initiated += initiatedBlocks(segmentIndex);
+                live += liveBlocks[segmentIndex];
+            }
+            return initiated == 0 ? 0.0 : 1.0 - (double) live / initiated;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Report the live and free blocks of every segment and where the segments are. A report is a
+     * copy taken under the pool lock.
+     * @return segment report
+     */
+    public SegmentReport report() {
+        lock();
+        try {
+            final int[] live = Arrays.copyOf(liveBlocks, segmentCount);
+            final int[] free = new int[segmentCount];
+            final int[] uninitiated = new int[segmentCount];
+            final SegmentReport.State[] states = new SegmentReport.State[segmentCount];
+            long initiated = 0;
+            for (int segmentIndex = 0; segmentIndex < segmentCount; ++segmentIndex) {
+                if (memorySegments[segmentIndex] == null) {
+                    states[segmentIndex] = SegmentReport.State.RELEASED;
+                } else if (segmentIndex > segmentPosition) {
+                    states[segmentIndex] = SegmentReport.State.UNUSED;
+                    uninitiated[segmentIndex] = blocksPerSegment;
+                } else {
+                    states[segmentIndex] = memorySegments[segmentIndex].isMapped() ?
+                        SegmentReport.State.SPILLED : SegmentReport.State.MEMORY;
+                    final int blocks = initiatedBlocks(segmentIndex);
+                    free[segmentIndex] = blocks - live[segmentIndex];
+                    uninitiated[segmentIndex] = blocksPerSegment - blocks;
+                    initiated += blocks;
+                }
+            }
+            long totalLive = 0;
+            for (int blocks : live) {
+                totalLive += blocks;
+            }
+            return new SegmentReport(blocksPerSegment, blockLength, live, free, uninitiated, null, states,
+                initiated == 0 ? 0.0 : 1.0 - (double) totalLive / initiated);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * The maximal number of segments in this memory pool.
+     * @return segments
+     */
+    public int maxSegments() {
+        return maxSegments;
     }
 
     /**
      * Allocate a new flyweight object and data from the pool
-     * @return the wrapped block or null
-     * @throws IllegalStateException free list corruption
+     * @return the wrapped block
+     * @throws IllegalStateException flyweight instantiation failed or the pool is exhausted
      */
     public T allocate() {
+        final T block;
         try {
-            return allocate(constructor.newInstance());
+            block = constructor.newInstance();
         } catch (InstantiationException | IllegalAccessException | InvocationTargetException | IllegalArgumentException error) {
-            return null;
+            throw new IllegalStateException("flyweight instantiation failed", error);
         }
+        return allocate(block);
     }
 
     /**
@@ -93,33 +319,113 @@ public class BlockPool<T extends BlockFlyweight> {
      * @param block a flyweight
      * @return the wrapped block
      * @throws IllegalArgumentException null argument
-     * @throws IllegalStateException free list corruption
+     * @throws IllegalStateException free list corruption or the pool is exhausted
      */
     public T allocate(final T block) {
         if (block == null) {
             throw new IllegalArgumentException("null block");
         }
-        if (initiatedFreeBlocks < blocksPerSegment) {
-            final long offset = (long) initiatedFreeBlocks * blockLength;
-            ++initiatedFreeBlocks;
-            freeBlock.wrap(memorySegments[segmentPosition], offset).set(segmentPosition, initiatedFreeBlocks);
+        lock();
+        try {
+            if (freeBlockCount == 0 && !allocateSegment()) {
+                throw new IllegalStateException("pool is exhausted");
+            }
+            return allocateBlock(block);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Allocate a block from the free list without failing on an exhausted pool
+     * @param block a flyweight
+     * @return the wrapped block or null if the pool is exhausted
+     * @throws IllegalArgumentException null argument
+     */
+    public T tryAllocate(final T block) {
+        if (block == null) {
+            throw new IllegalArgumentException("null block");
+        }
+        lock();
+        try {
+            if (freeBlockCount == 0 && !allocateSegment()) {
+                return null;
+            }
+            return allocateBlock(block);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Allocate a block, waiting for another thread to free a block if the pool is exhausted.
+     * The waiting thread is parked, which makes the call suitable for virtual threads.
+     * @param block a flyweight
+     * @param timeout maximal time to wait
+     * @param unit time unit of the timeout
+     * @return the wrapped block or null if the timeout elapsed
+     * @throws IllegalArgumentException null argument
+     * @throws IllegalStateException the pool is not concurrent
+     * @throws InterruptedException interrupted while waiting
+     */
+    public T allocate(final T block, final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (block == null || unit == null) {
+            throw new IllegalArgumentException("null block or time unit");
+        }
+        if (lock == null) {
+            throw new IllegalStateException("pool is not concurrent");
+        }
+
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (freeBlockCount == 0 && !allocateSegment()) {
+                if (nanos <= 0L) {
+                    return null;
+                }
+                nanos = blockFreed.awaitNanos(nanos);
+            }
+            return allocateBlock(block);
+        } finally {
+            lock.unlock();
         }
+    }
 
-        // allocate free block
-        final MemorySegment segment = memorySegments[freeSegmentPosition];
-        block.wrap(segment, freeSegmentPosition, freeBlockPosition);
-        block.nativeInt(FreeBlock.COOKIE_OFFSET, 0);
+    private T allocateBlock(final T block) {
+        checkUnfrozen();
+        final long address = freeBlocks.next();
+        if (recorder != null) {
+            recorder.allocated(address);
+        }
 
-        final long offset = (long) freeBlockPosition * blockLength;
-        freeBlock.wrap(segment, offset);  // new free block
-        freeBlockPosition = freeBlock.blockIndex();
-        freeSegmentPosition = freeBlock.blockSegment();
-        if (--freeBlockCount == 0) {
-            allocateSegment();
+        final int segmentIndex = ByteUtils.highBits(address) - 1;
+        final int blockIndex = ByteUtils.lowBits(address);
+        freeBlocks.take(segmentIndex, blockIndex);
+        ++liveBlocks[segmentIndex];
+        final MemorySegment segment = memorySegments[segmentIndex];
+        final long offset = blockOffset(blockIndex);
+        block.wrap(segment, segmentIndex, blockIndex, offset);
+        if (headerLength > 0) {
+            segment.set(ValueLayout.JAVA_INT, offset - headerLength, 1);
         }
+        --freeBlockCount;
         return block;
     }
 
+    private static long rangeMask(final int index, final int bits) {
+        return bits == Long.SIZE ? -1L : ((1L << bits) - 1) << index;
+    }
+
+    /**
+     * Check if an initiated block of a used segment of a pool with the BITMAP policy is allocated
+     * @param segmentIndex segment index
+     * @param blockIndex block index
+     * @return false if the block is in the free bitmap
+     */
+    boolean isAllocated(final int segmentIndex, final int blockIndex) {
+        return !freeBlocks.isFree(segmentIndex, blockIndex);
+    }
+
     /**
      * Free the block with address
      * @param address block address
@@ -130,11 +436,16 @@ public class BlockPool<T extends BlockFlyweight> {
             throw new IllegalArgumentException("invalid address");
         }
 
-        get(address, workBlock);
-        if (workBlock.memorySegment() == null) {
-            throw new IllegalStateException("null free segment");
+        lock();
+        try {
+            wrapBlock(address, workBlock);
+            if (workBlock.memorySegment() == null) {
+                throw new IllegalStateException("null free segment");
+            }
+            freeBlock(workBlock.memorySegment(), workBlock);
+        } finally {
+            unlock();
         }
-        freeBlock(workBlock.memorySegment(), workBlock);
     }
 
     /**
@@ -152,26 +463,187 @@ public class BlockPool<T extends BlockFlyweight> {
         if (segment == null) {
             throw new IllegalStateException("null memory segment");
         }
-        freeBlock(segment, block);
+        lock();
+        try {
+            freeBlock(segment, block);
+        } finally {
+            unlock();
+        }
     }
 
     private void freeBlock(final MemorySegment segment, final T block) {
+        checkUnscoped();
+        checkUnfrozen();
         final int segmentIndex = block.segment();
         if (segment != memorySegments[segmentIndex]) {
             throw new IllegalStateException("block does not belong to this pool");
         }
 
-        if (block.nativeInt(FreeBlock.COOKIE_OFFSET) == FreeBlock.COOKIE) {
+        final int blockIndex = block.block();
+        if (freeBlocks.isFree(segmentIndex, blockIndex)) {
             throw new IllegalStateException("double free");
         }
+        if (recorder != null) {
+            recorder.freed(ByteUtils.pack(segmentIndex + 1, blockIndex));
+        }
 
-        final int blockIndex = block.block();
-        final long offset = (long) blockIndex * blockLength;
-        freeBlock.wrap(segment, offset).set(freeSegmentPosition, freeBlockPosition);
-        freeSegmentPosition = segmentIndex;
-        freeBlockPosition = blockIndex;
+        if (headerLength > 0) {
+            segment.set(ValueLayout.JAVA_INT, blockOffset(blockIndex) - headerLength, 0);
+        }
+        freeBlocks.free(segmentIndex, blockIndex);
         ++freeBlockCount;
+        --liveBlocks[segmentIndex];
         block.clear();
+        if (blockFreed != null) {
+            blockFreed.signal();
+        }
+    }
+
+    /**
+     * Free consecutive blocks of one segment, starting with the block at address. The bitmap
+     * policy frees the range with a few word operations, the other policies block by block.
+     * @param address address of the first block
+     * @param count number of blocks
+     * @throws IllegalArgumentException invalid address or count
+     * @throws IllegalStateException invalid range or a block in the range is free
+     */
+    public void free(final long address, final int count) {
+        if (address <= 0 || count <= 0 || count > blocksPerSegment) {
+            throw new IllegalArgumentException("invalid address or count");
+        }
+
+        final int segmentIndex = ByteUtils.highBits(address) - 1;
+        final int blockIndex = ByteUtils.lowBits(address);
+        lock();
+        try {
+            checkUnscoped();
+            checkUnfrozen();
+            checkSegmentAndIndex(segmentIndex, blockIndex);
+            checkSegmentAndIndex(segmentIndex, blockIndex + count - 1);
+            final MemorySegment segment = memorySegments[segmentIndex];
+            if (freeBlocks.anyFree(segmentIndex, blockIndex, count)) {
+                throw new IllegalStateException("double free");
+            }
+            if (recorder != null) {
+                recorder.freed(ByteUtils.pack(segmentIndex + 1, blockIndex), count);
+            }
+            if (headerLength > 0) {
+                for (int index = blockIndex; index < blockIndex + count; ++index) {
+                    segment.set(ValueLayout.JAVA_INT, blockOffset(index) - headerLength, 0);
+                }
+            }
+            freeBlocks.free(segmentIndex, blockIndex, count);
+            freeBlockCount += count;
+            liveBlocks[segmentIndex] -= count;
+            if (blockFreed != null) {
+                blockFreed.signalAll();
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Forbid further allocations and frees and return a read-only view of the blocks, which any
+     * thread may read without locking once the view is published to it
+     * @return frozen view sharing the segments of the pool
+     */
+    public FrozenBlockPool<T> freeze() {
+        return freeze(false);
+    }
+
+    /**
+     * Forbid further allocations and frees and return a read-only view of the blocks, which any
+     * thread may read without locking once the view is published to it. A contiguous view copies
+     * the segments back to back into one shared allocation, the block addresses stay the same and
+     * the view stays readable after the pool is closed.
+     * @param contiguous copy the segments into one allocation
+     * @return frozen view
+     * @throws IllegalStateException a contiguous view exceeds the maximal segment size
+     */
+    public FrozenBlockPool<T> freeze(final boolean contiguous) {
+        lock();
+        try {
+            frozen = true;
+            final int segments = segmentPosition + 1;
+            final int[] blocks = new int[segments];
+            long live = 0;
+            for (int segmentIndex = 0; segmentIndex < segments; ++segmentIndex) {
+                blocks[segmentIndex] = initiatedBlocks(segmentIndex);
+                live += liveBlocks[segmentIndex];
+            }
+            return new FrozenBlockPool<>(Arrays.copyOf(memorySegments, segments), blocks, live, blockLength,
+                headerLength, encodedLength, blocksPerSegment, segmentAlignment, contiguous);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Check if the pool is frozen
+     * @return true if frozen
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * A checkpoint of a scoped pool, the position of the next block not yet allocated
+     * @return checkpoint
+     * @throws IllegalStateException the pool is not scoped
+     */
+    public long checkpoint() {
+        if (!scoped) {
+            throw new IllegalStateException("pool is not scoped");
+        }
+        lock();
+        try {
+            return ByteUtils.pack(segmentPosition + 1, initiatedFreeBlocks);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Return all blocks of a scoped pool, the segments are kept for later allocations
+     * @throws IllegalStateException the pool is not scoped
+     */
+    public void reset() {
+        reset(ByteUtils.pack(1, 0));
+    }
+
+    /**
+     * Return the blocks of a scoped pool allocated after a checkpoint. Blocks allocated before the
+     * checkpoint stay allocated, and the next allocation takes the block after them.
+     * @param checkpoint checkpoint taken since the last reset to an earlier checkpoint
+     * @throws IllegalArgumentException the checkpoint is ahead of the pool
+     * @throws IllegalStateException the pool is not scoped
+     */
+    public void reset(final long checkpoint) {
+        if (!scoped) {
+            throw new IllegalStateException("pool is not scoped");
+        }
+        final int segmentIndex = ByteUtils.highBits(checkpoint) - 1;
+        final int blockIndex = ByteUtils.lowBits(checkpoint);
+        lock();
+        try {
+            if (segmentIndex < 0 || segmentIndex > segmentPosition || blockIndex < 0 || blockIndex > blocksPerSegment ||
+                (segmentIndex == segmentPosition && blockIndex > initiatedFreeBlocks)) {
+                throw new IllegalArgumentException("invalid checkpoint");
+            }
+            checkUnfrozen();
+            Arrays.fill(liveBlocks, segmentIndex + 1, segmentPosition + 1, 0);
+            liveBlocks[segmentIndex] = blockIndex;
+            segmentPosition = segmentIndex;
+            initiatedFreeBlocks = blockIndex;
+            freeBlocks.rewind(segmentIndex, blockIndex);
+            freeBlockCount = blocksPerSegment - blockIndex;
+            if (blockFreed != null) {
+                blockFreed.signalAll();
+            }
+        } finally {
+            unlock();
+        }
     }
 
     /**
@@ -198,127 +670,973 @@ public class BlockPool<T extends BlockFlyweight> {
             throw new IllegalArgumentException("null block");
         }
 
+        lock();
+        try {
+            wrapBlock(address, block);
+            if (trace != null && (lock != null || trace.isWriter())) {
+                trace.got(address);
+            }
+        } finally {
+            unlock();
+        }
+        return block;
+    }
+
+    private void wrapBlock(final long address, final T block) {
         final int segmentIndex = ByteUtils.highBits(address) - 1;
         final int blockIndex = ByteUtils.lowBits(address);
         checkSegmentAndIndex(segmentIndex, blockIndex);
-        block.wrap(memorySegments[segmentIndex], segmentIndex, blockIndex);
-        return block;
+        block.wrap(memorySegments[segmentIndex], segmentIndex, blockIndex, blockOffset(blockIndex));
     }
 
     /**
-     * Close the associated memory arena
+     * Wrap the block with a compact handle
+     * @param handle block handle
+     * @param block the wrapped block
+     * @return the wrapped block
+     * @throws IllegalArgumentException invalid handle or block
+     * @throws IllegalStateException the pool has no compact handles or invalid indices
      */
-    public void close() {
-        if (arena != null) {
-            arena.close();
-            arena = null;
+    public T get(final int handle, final T block) {
+        if (block == null) {
+            throw new IllegalArgumentException("null block");
         }
+        return get(address(handle), block);
     }
 
-    @Override
-    public String toString() {
-        return String.format(Locale.ROOT, "BlockPool{ size = %d, blocks = %,d, segments = %d, bytes = %,d }",
-            blockLength, blocksPerSegment * segmentCount, segmentCount, allocatedBytes());
+    /**
+     * Free the block with a compact handle
+     * @param handle block handle
+     * @throws IllegalArgumentException invalid handle
+     * @throws IllegalStateException the pool has no compact handles or invalid indices
+     */
+    public void free(final int handle) {
+        free(address(handle));
     }
 
     /**
-     * Allocates a new segment.
+     * The compact handle of a block address
+     * @param address block address
+     * @return handle
+     * @throws IllegalArgumentException invalid address
+     * @throws IllegalStateException the pool has no compact handles
      */
-    private void allocateSegment() {
-        if (++segmentPosition >= segmentCount) {
-            if (segmentCount >= memorySegments.length) {
-                memorySegments = Arrays.copyOf(memorySegments, memorySegments.length << 1);
-            }
+    public int handle(final long address) {
+        if (address <= 0) {
+            throw new IllegalArgumentException("invalid address");
+        }
+        checkHandles();
+        return ByteUtils.highBits(address) << handleBlockBits | ByteUtils.lowBits(address);
+    }
 
-            final long segmentSize = (long) blocksPerSegment * blockLength;
-            memorySegments[segmentCount] = arena.allocate(segmentSize, Long.BYTES);
-            ++segmentCount;
+    /**
+     * The block address of a compact handle
+     * @param handle block handle
+     * @return address
+     * @throws IllegalArgumentException invalid handle
+     * @throws IllegalStateException the pool has no compact handles
+     */
+    public long address(final int handle) {
+        if (handle <= 0) {
+            throw new IllegalArgumentException("invalid handle");
         }
-        initiatedFreeBlocks = 0;
-        freeBlockPosition = 0;
-        freeSegmentPosition = segmentPosition;
-        freeBlockCount += blocksPerSegment;
+        checkHandles();
+        return ByteUtils.pack(handle >>> handleBlockBits, handle & ((1 << handleBlockBits) - 1));
     }
 
     /**
-     * Check segment and block indices
-     * @param segmentIndex segment index
-     * @param blockIndex block index
+     * A memory segment view of the block data
+     * @param address block address
+     * @return a slice of encoded length bytes
+     * @throws IllegalArgumentException invalid address
      * @throws IllegalStateException invalid indices
      */
-    private void checkSegmentAndIndex(final int segmentIndex, final int blockIndex) {
-        if (segmentIndex < 0 || segmentIndex > segmentPosition) {
-            throw new IllegalStateException("block has invalid address");
-        }
+    public MemorySegment asSlice(final long address) {
+        return asSlice(address, 1);
+    }
 
-        final int limit;
-        if (segmentIndex == segmentPosition) {
-            limit = initiatedFreeBlocks;
-        } else {
-            limit = blocksPerSegment;
+    /**
+     * A memory segment view of consecutive blocks in one segment, including any block header
+     * and padding between the blocks
+     * @param address address of the first block
+     * @param blocks number of blocks
+     * @return a slice starting at the data of the first block and ending after the data of the last block
+     * @throws IllegalArgumentException invalid address or number of blocks
+     * @throws IllegalStateException invalid indices
+     */
+    public MemorySegment asSlice(final long address, final int blocks) {
+        if (address <= 0 || blocks <= 0) {
+            throw new IllegalArgumentException("invalid address or blocks");
         }
-        if (blockIndex >= limit) {
-            throw new IllegalStateException("block has invalid address");
+
+        final int segmentIndex = ByteUtils.highBits(address) - 1;
+        final int blockIndex = ByteUtils.lowBits(address);
+        lock();
+        try {
+            checkSegmentAndIndex(segmentIndex, blockIndex);
+            checkSegmentAndIndex(segmentIndex, blockIndex + blocks - 1);
+            final long length = (long) (blocks - 1) * blockLength + encodedLength;
+            return memorySegments[segmentIndex].asSlice(blockOffset(blockIndex), length);
+        } finally {
+            unlock();
         }
     }
 
     /**
-     * Native block pool builder
-     * @param <N> flyweight class
+     * The native memory address of the block data, for passing the block to native code
+     * @param address block address
+     * @return native address
+     * @throws IllegalArgumentException invalid address
+     * @throws IllegalStateException invalid indices
      */
-    public static final class Builder<N extends BlockFlyweight> {
-        private final Arena memoryArena;
-        private final Class<N> clazz;
-        private int preAllocSegments;
-        private int blocksPerSegment;
+    public long nativeAddress(final long address) {
+        return asSlice(address).address();
+    }
 
-        /**
-         * Native block pool builder
-         * @param memoryArena   memory arena
-         * @param clazz         native class
-         */
-        public Builder(final Arena memoryArena, final Class<N> clazz) {
-            this.memoryArena = memoryArena;
-            this.clazz = clazz;
-            preAllocSegments = 1;
-        }
+    /**
+     * The struct layout of the blocks
+     * @return layout, null if the pool was not built with a layout
+     */
+    public MemoryLayout layout() {
+        return layout;
+    }
 
-        public Builder<N> blocksPerSegment(final int blocks) {
-            this.blocksPerSegment = blocks;
-            return this;
-        }
+    /**
+     * A byte buffer view of the block data in native byte order
+     * @param address block address
+     * @return byte buffer of encoded length bytes
+     * @throws IllegalArgumentException invalid address
+     * @throws IllegalStateException invalid indices
+     */
+    public ByteBuffer asByteBuffer(final long address) {
+        return asSlice(address).asByteBuffer().order(ByteOrder.nativeOrder());
+    }
 
-        public Builder<N> allocatedSegments(final int segments) {
-            this.preAllocSegments = segments;
-            return this;
-        }
+    /**
+     * The number of data bytes in a block, the encoded length of the flyweight
+     * @return bytes
+     */
+    public int encodedLength() {
+        return encodedLength;
+    }
 
-        /**
-         * Builds a memory pool
-         * @return Constructed NativeBlockPool of type N
-         * @throws IllegalArgumentException null memory session or flyweight class
-         * @throws IllegalStateException failed memory allocation
-         */
-        public BlockPool<N> build()  {
-            if (memoryArena == null || clazz == null) {
-                throw new IllegalArgumentException("null memory session or flyweight class");
-            }
+    /**
+     * The number of bytes between consecutive blocks in a segment
+     * @return bytes
+     */
+    public int blockLength() {
+        return blockLength;
+    }
+
+    /**
+     * The number of bytes in front of the data of every block
+     * @return bytes
+     */
+    int headerLength() {
+        return headerLength;
+    }
+
+    /**
+     * The number of blocks of every segment
+     * @return blocks
+     */
+    int blocksPerSegment() {
+        return blocksPerSegment;
+    }
+
+    /**
+     * The number of segments with initiated blocks
+     * @return segments
+     */
+    int usedSegments() {
+        return segmentPosition + 1;
+    }
+
+    /**
+     * The memory of a segment
+     * @param segmentIndex segment index
+     * @return memory segment
+     */
+    MemorySegment segment(final int segmentIndex) {
+        final MemorySegment segment = memorySegments[segmentIndex];
+        return segment != null ? segment : MemorySegment.NULL;
+    }
+
+    /**
+     * The number of initiated blocks of a used segment, allocated or on the free list
+     * @param segmentIndex segment index
+     * @return blocks, 0 for a released segment
+     */
+    int initiatedBlocks(final int segmentIndex) {
+        if (memorySegments[segmentIndex] == null) {
+            return 0;
+        }
+        return segmentIndex == segmentPosition ? initiatedFreeBlocks : blocksPerSegment;
+    }
+
+    /**
+     * The number of allocated blocks of a segment
+     * @param segmentIndex segment index
+     * @return blocks
+     */
+    int liveBlocks(final int segmentIndex) {
+        return liveBlocks[segmentIndex];
+    }
+
+    /**
+     * The number of free blocks, including the blocks not yet initiated in the current segment
+     * @return blocks
+     */
+    int freeBlocks() {
+        return freeBlockCount;
+    }
+
+    /**
+     * Remove the free blocks of segments from the free list, so that no block is allocated from
+     * them. The segments must be fully initiated.
+     * @param detached segments to detach, indexed by segment index
+     * @return the number of removed free blocks
+     * @throws IllegalStateException journaled pool
+     */
+    int detachSegments(final boolean[] detached) {
+        if (journaled) {
+            throw new IllegalStateException("journaled pool cannot move blocks");
+        }
+        lock();
+        try {
+            final int removed = freeBlocks.detach(detached);
+            freeBlockCount -= removed;
+            return removed;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Move an allocated block to a block allocated from the free list, including its header.
+     * The old block is marked free but not linked, as for blocks in detached segments. A trace
+     * records the move as the free of the old block followed by the allocation of the new block.
+     * @param address block address
+     * @return the new address
+     * @throws IllegalStateException journaled pool, invalid address or exhausted pool
+     */
+    long relocate(final long address) {
+        if (journaled) {
+            throw new IllegalStateException("journaled pool cannot move blocks");
+        }
+        final int segmentIndex = ByteUtils.highBits(address) - 1;
+        final int blockIndex = ByteUtils.lowBits(address);
+        lock();
+        try {
+            checkSegmentAndIndex(segmentIndex, blockIndex);
+            if (freeBlockCount == 0 && !allocateSegment()) {
+                throw new IllegalStateException("pool is exhausted");
+            }
+            if (recorder != null) {
+                recorder.freed(address);
+            }
+            allocateBlock(workBlock);
+            final long offset = blockOffset(blockIndex);
+            MemorySegment.copy(memorySegments[segmentIndex], offset - headerLength, workBlock.memorySegment(),
+                blockOffset(workBlock.block()) - headerLength, blockLength);
+            freeBlocks.orphan(segmentIndex, blockIndex);
+            --liveBlocks[segmentIndex];
+            return workBlock.address();
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Release the memory of a detached segment without live blocks
+     * @param segmentIndex segment index
+     * @throws IllegalStateException segments are not releasable, or the segment is current or in use
+     */
+    void releaseSegment(final int segmentIndex) {
+        lock();
+        try {
+            if (segmentArenas == null) {
+                throw new IllegalStateException("pool segments are not releasable");
+            }
+            if (segmentIndex < 0 || segmentIndex >= segmentPosition || memorySegments[segmentIndex] == null ||
+                liveBlocks[segmentIndex] != 0) {
+                throw new IllegalStateException("segment is in use");
+            }
+            if (account != null && !memorySegments[segmentIndex].isMapped()) {
+                account.release((long) blocksPerSegment * blockLength);
+            }
+            segmentArenas[segmentIndex].close();
+            segmentArenas[segmentIndex] = null;
+            memorySegments[segmentIndex] = null;
+            freeBlocks.releaseSegment(segmentIndex);
+            ++releasedSegments;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Copy the blocks of a segment before the current segment to new memory and use it instead, keeping
+     * the block addresses. Moving a segment out of mapped memory reserves it in the memory budget,
+     * moving it into mapped memory releases it. The previous arena is returned and not closed, so that
+     * the caller can close it when no reader can read the previous memory anymore.
+     * @param segmentIndex segment index
+     * @param segmentArena arena of the new memory
+     * @param segment new memory of the segment size and alignment
+     * @return previous arena, null if the memory budget is exceeded and the segment is not moved
+     * @throws IllegalArgumentException new memory of another size
+     * @throws IllegalStateException segments are not releasable, the pool is frozen, or the segment is
+     * current or released
+     */
+    Arena moveSegment(final int segmentIndex, final Arena segmentArena, final MemorySegment segment) {
+        final long segmentSize = (long) blocksPerSegment * blockLength;
+        if (segmentArena == null || segment == null || segment.byteSize() != segmentSize) {
+            throw new IllegalArgumentException("invalid segment memory");
+        }
+        lock();
+        try {
+            checkUnfrozen();
+            if (segmentArenas == null) {
+                throw new IllegalStateException("pool segments are not releasable");
+            }
+            if (segmentIndex < 0 || segmentIndex >= segmentPosition || memorySegments[segmentIndex] == null) {
+                throw new IllegalStateException("segment is current or released");
+            }
+            final boolean mapped = memorySegments[segmentIndex].isMapped();
+            if (account != null && mapped && !segment.isMapped() && !account.reserve(segmentSize)) {
+                return null;
+            }
+            MemorySegment.copy(memorySegments[segmentIndex], 0, segment, 0, segmentSize);
+            final Arena previous = segmentArenas[segmentIndex];
+            segmentArenas[segmentIndex] = segmentArena;
+            memorySegments[segmentIndex] = segment;
+            if (account != null && !mapped && segment.isMapped()) {
+                account.release(segmentSize);
+            }
+            return previous;
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * The byte alignment of the segment memory
+     * @return alignment
+     */
+    long segmentAlignment() {
+        return segmentAlignment;
+    }
+
+    /**
+     * Check if the segments are allocated in their own arenas and can be released
+     * @return true if releasable
+     */
+    boolean releasableSegments() {
+        return segmentArenas != null;
+    }
+
+    /**
+     * Increment the reference count of an allocated block, lock-free and not journaled
+     * @param address block address
+     * @return the new reference count
+     * @throws IllegalArgumentException invalid address
+     * @throws IllegalStateException the pool is not reference counted or frozen, or the block is not allocated
+     */
+    public int retain(final long address) {
+        checkUnfrozen();
+        final MemorySegment segment = referenceCountedSegment(address);
+        final long offset = blockOffset(ByteUtils.lowBits(address)) - headerLength;
+        int count;
+        do {
+            count = (int) REFERENCE_COUNT.getVolatile(segment, offset);
+            if (count <= 0) {
+                throw new IllegalStateException("block is not allocated");
+            }
+        } while (!REFERENCE_COUNT.compareAndSet(segment, offset, count, count + 1));
+        return count + 1;
+    }
+
+    /**
+     * Decrement the reference count of an allocated block and free the block when the count reaches zero.
+     * Blocks released by other threads than the allocating thread requires a concurrent pool.
+     * The count is decremented lock-free, only the free takes the pool lock.
+     * Only the free is journaled, reference counts are not replicated to followers.
+     * @param address block address
+     * @return true if the block was freed
+     * @throws IllegalArgumentException invalid address
+     * @throws IllegalStateException the pool is not reference counted or frozen, or the block is not allocated
+     */
+    public boolean release(final long address) {
+        checkUnfrozen();
+        final MemorySegment segment = referenceCountedSegment(address);
+        final long offset = blockOffset(ByteUtils.lowBits(address)) - headerLength;
+        int count;
+        do {
+            count = (int) REFERENCE_COUNT.getVolatile(segment, offset);
+            if (count <= 0) {
+                throw new IllegalStateException("block is not allocated");
+            }
+        } while (!REFERENCE_COUNT.compareAndSet(segment, offset, count, count - 1));
+
+        if (count == 1) {
+            free(address);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The reference count of a block
+     * @param address block address
+     * @return reference count, zero for a free block
+     * @throws IllegalArgumentException invalid address
+     * @throws IllegalStateException the pool is not reference counted
+     */
+    public int referenceCount(final long address) {
+        final MemorySegment segment = referenceCountedSegment(address);
+        return (int) REFERENCE_COUNT.getVolatile(segment, blockOffset(ByteUtils.lowBits(address)) - headerLength);
+    }
+
+    private MemorySegment referenceCountedSegment(final long address) {
+        if (headerLength == 0) {
+            throw new IllegalStateException("pool is not reference counted");
+        }
+        if (address <= 0) {
+            throw new IllegalArgumentException("invalid address");
+        }
+        final int segmentIndex = ByteUtils.highBits(address) - 1;
+        checkSegmentAndIndex(segmentIndex, ByteUtils.lowBits(address));
+        return memorySegments[segmentIndex];
+    }
+
+    /**
+     * Close the associated memory arena and release the memory budget
+     */
+    public void close() {
+        if (arena != null) {
+            long mappedBytes = 0;
+            if (segmentArenas != null) {
+                for (int segmentIndex = 0; segmentIndex < segmentCount; ++segmentIndex) {
+                    if (segmentArenas[segmentIndex] != null) {
+                        if (memorySegments[segmentIndex].isMapped()) {
+                            mappedBytes += (long) blocksPerSegment * blockLength;
+                        }
+                        segmentArenas[segmentIndex].close();
+                    }
+                }
+            }
+            arena.close();
+            arena = null;
+            if (account != null) {
+                account.release(allocatedBytes() - mappedBytes);
+            }
+        }
+    }
+
+    /**
+     * Write the pool metadata and all segments to a file
+     * @param path snapshot file
+     * @throws IllegalArgumentException null path
+     * @throws IllegalStateException the pool has released segments
+     * @throws IOException failed write
+     */
+    public void snapshot(final Path path) throws IOException {
+        if (path == null) {
+            throw new IllegalArgumentException("null path");
+        }
+
+        lock();
+        try {
+            if (releasedSegments > 0) {
+                throw new IllegalStateException("pool has released segments");
+            }
+            writeSnapshot(path);
+        } finally {
+            unlock();
+        }
+    }
+
+    private void writeSnapshot(final Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+            final long head = freeBlocks.head();
+            final ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_LENGTH)
+                .putInt(SNAPSHOT_MAGIC).putInt(SNAPSHOT_VERSION)
+                .putInt(blockLength).putInt(headerLength).putInt(encodedLength).putInt(blocksPerSegment)
+                .putInt(segmentCount).putInt(segmentPosition).putInt(initiatedFreeBlocks)
+                .putInt(freeBlockCount).putInt(ByteUtils.lowBits(head)).putInt(ByteUtils.highBits(head))
+                .putInt(policy.ordinal())
+                .clear();
+            writeFully(channel, header);
+            for (int index = 0; index < segmentCount; ++index) {
+                final MemorySegment segment = memorySegments[index];
+                for (long position = 0; position < segment.byteSize(); position += SNAPSHOT_CHUNK_LENGTH) {
+                    writeFully(channel, segment.asSlice(position,
+                        Math.min(SNAPSHOT_CHUNK_LENGTH, segment.byteSize() - position)).asByteBuffer());
+                }
+            }
+            final ByteBuffer live = ByteBuffer.allocate((segmentPosition + 1) * Integer.BYTES);
+            live.asIntBuffer().put(liveBlocks, 0, segmentPosition + 1);
+            writeFully(channel, live);
+            freeBlocks.write(channel);
+        }
+    }
+
+    private void restore(final FileChannel channel, final Snapshot snapshot) throws IOException {
+        for (int index = 0; index < segmentCount; ++index) {
+            final MemorySegment segment = memorySegments[index];
+            for (long position = 0; position < segment.byteSize(); position += SNAPSHOT_CHUNK_LENGTH) {
+                final ByteBuffer buffer = segment.asSlice(position,
+                    Math.min(SNAPSHOT_CHUNK_LENGTH, segment.byteSize() - position)).asByteBuffer();
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer) < 0) {
+                        throw new IOException("truncated snapshot");
+                    }
+                }
+            }
+        }
+        segmentPosition = snapshot.segmentPosition();
+        initiatedFreeBlocks = snapshot.initiatedFreeBlocks();
+        freeBlockCount = snapshot.freeBlockCount();
+        final ByteBuffer live = ByteBuffer.allocate((segmentPosition + 1) * Integer.BYTES);
+        readFully(channel, live);
+        live.flip().asIntBuffer().get(liveBlocks, 0, segmentPosition + 1);
+        freeBlocks.restore(channel, ByteUtils.pack(snapshot.freeSegmentPosition(), snapshot.freeBlockPosition()));
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("truncated snapshot");
+            }
+        }
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "BlockPool{ size = %d, blocks = %,d, segments = %d, bytes = %,d }",
+            blockLength, blocksPerSegment * (segmentCount - releasedSegments), segmentCount - releasedSegments,
+            allocatedBytes());
+    }
+
+    /**
+     * Allocates a new segment.
+     * @return false if the pool has reached its maximal number of segments or memory budget
+     */
+    private boolean allocateSegment() {
+        checkUnfrozen();
+        if (segmentPosition + 1 >= segmentCount) {
+            final long segmentSize = (long) blocksPerSegment * blockLength;
+            if (releasedSegments > 0) {
+                return reuseSegment(segmentSize);
+            }
+            if (segmentCount >= maxSegments) {
+                return false;
+            }
+            if (segmentCount >= memorySegments.length) {
+                final int capacity = memorySegments.length << 1;
+                memorySegments = Arrays.copyOf(memorySegments, capacity);
+                liveBlocks = Arrays.copyOf(liveBlocks, capacity);
+                if (segmentArenas != null) {
+                    segmentArenas = Arrays.copyOf(segmentArenas, capacity);
+                }
+                freeBlocks.grow(capacity);
+            }
+            if (account != null && !account.reserve(segmentSize)) {
+                return false;
+            }
+            memorySegments[segmentCount] = newSegment(segmentCount, segmentSize);
+            ++segmentCount;
+        }
+        ++segmentPosition;
+        initiatedFreeBlocks = 0;
+        freeBlocks.rewind(segmentPosition, 0);
+        freeBlockCount += blocksPerSegment;
+        return true;
+    }
+
+    /**
+     * Allocates memory for the lowest released segment index and links all its blocks to the
+     * free list, the blocks of the segments before the current segment are always initiated.
+     * @return false if the memory budget is exceeded
+     */
+    private boolean reuseSegment(final long segmentSize) {
+        if (account != null && !account.reserve(segmentSize)) {
+            return false;
+        }
+        int segmentIndex = 0;
+        while (memorySegments[segmentIndex] != null) {
+            ++segmentIndex;
+        }
+        memorySegments[segmentIndex] = newSegment(segmentIndex, segmentSize);
+        --releasedSegments;
+        freeBlockCount += blocksPerSegment;
+        freeBlocks.freeSegment(segmentIndex);
+        return true;
+    }
+
+    /**
+     * Allocates the memory of a segment reserved from the account, the reservation is released
+     * if the allocation fails
+     */
+    private MemorySegment newSegment(final int segmentIndex, final long segmentSize) {
+        try {
+            freeBlocks.newSegment(segmentIndex);
+            if (segmentArenas == null) {
+                return arena.allocate(segmentSize, segmentAlignment);
+            }
+            segmentArenas[segmentIndex] = Arena.ofShared();
+            return segmentArenas[segmentIndex].allocate(segmentSize, segmentAlignment);
+        } catch (RuntimeException | OutOfMemoryError e) {
+            if (segmentArenas != null && segmentArenas[segmentIndex] != null) {
+                segmentArenas[segmentIndex].close();
+                segmentArenas[segmentIndex] = null;
+            }
+            if (account != null) {
+                account.release(segmentSize);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * The segment offset of the block data, which is also where the free block is stored
+     * @param blockIndex block index
+     * @return segment offset
+     */
+    private long blockOffset(final int blockIndex) {
+        return (long) blockIndex * blockLength + headerLength;
+    }
+
+    private void checkUnfrozen() {
+        if (frozen) {
+            throw new IllegalStateException("pool is frozen");
+        }
+    }
+
+    private void checkUnscoped() {
+        if (scoped) {
+            throw new IllegalStateException("scoped pool frees blocks by reset");
+        }
+    }
+
+    private void checkHandles() {
+        if (handleBlockBits == INVALID_INDEX) {
+            throw new IllegalStateException("pool has no compact handles");
+        }
+    }
+
+    private void lock() {
+        if (lock != null) {
+            lock.lock();
+        }
+    }
+
+    private void unlock() {
+        if (lock != null) {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Check segment and block indices
+     * @param segmentIndex segment index
+     * @param blockIndex block index
+     * @throws IllegalStateException invalid indices
+     */
+    private void checkSegmentAndIndex(final int segmentIndex, final int blockIndex) {
+        if (segmentIndex < 0 || segmentIndex > segmentPosition || memorySegments[segmentIndex] == null) {
+            throw new IllegalStateException("block has invalid address");
+        }
+
+        final int limit;
+        if (segmentIndex == segmentPosition) {
+            limit = initiatedFreeBlocks;
+        } else {
+            limit = blocksPerSegment;
+        }
+        if (blockIndex >= limit) {
+            throw new IllegalStateException("block has invalid address");
+        }
+    }
+
+    /**
+     * Native block pool builder
+     * @param <N> flyweight class
+     */
+    public static final class Builder<N extends BlockFlyweight> {
+        private final Arena memoryArena;
+        private final Class<N> clazz;
+        private int preAllocSegments;
+        private int blocksPerSegment;
+        private int maxSegments;
+        private long maxBytes;
+        private boolean concurrent;
+        private MemoryBudget.Account account;
+        private boolean referenceCounted;
+        private Path snapshot;
+        private BlockJournal journal;
+        private BlockTrace trace;
+        private boolean compactHandles;
+        private boolean releasable;
+        private AllocationPolicy policy = AllocationPolicy.LIFO;
+        private boolean scoped;
+        private MemoryLayout layout;
+
+        /**
+         * Native block pool builder
+         * @param memoryArena   memory arena
+         * @param clazz         native class
+         */
+        public Builder(final Arena memoryArena, final Class<N> clazz) {
+            this.memoryArena = memoryArena;
+            this.clazz = clazz;
+            preAllocSegments = 1;
+            maxSegments = Integer.MAX_VALUE;
+            maxBytes = Long.MAX_VALUE;
+        }
+
+        public Builder<N> blocksPerSegment(final int blocks) {
+            this.blocksPerSegment = blocks;
+            return this;
+        }
+
+        public Builder<N> allocatedSegments(final int segments) {
+            this.preAllocSegments = segments;
+            return this;
+        }
+
+        /**
+         * Bound the pool to a maximal number of segments
+         * @param segments maximal number of segments
+         * @return builder
+         */
+        public Builder<N> maxSegments(final int segments) {
+            this.maxSegments = segments;
+            return this;
+        }
+
+        /**
+         * Bound the pool to a maximal number of allocated bytes, rounded down to whole segments
+         * @param bytes maximal number of bytes
+         * @return builder
+         */
+        public Builder<N> maxBytes(final long bytes) {
+            this.maxBytes = bytes;
+            return this;
+        }
+
+        /**
+         * Guard the pool with a lock so that it can be shared between threads
+         * @param concurrent concurrent pool
+         * @return builder
+         */
+        public Builder<N> concurrent(final boolean concurrent) {
+            this.concurrent = concurrent;
+            return this;
+        }
+
+        /**
+         * Reserve segment memory from a memory budget account
+         * @param account memory budget account
+         * @return builder
+         */
+        public Builder<N> budget(final MemoryBudget.Account account) {
+            this.account = account;
+            return this;
+        }
+
+        /**
+         * Reserve a reference count header in front of every block
+         * @param referenceCounted reference counted pool
+         * @return builder
+         */
+        public Builder<N> referenceCounted(final boolean referenceCounted) {
+            this.referenceCounted = referenceCounted;
+            return this;
+        }
+
+        /**
+         * Restore the pool from a snapshot, the block layout, allocation policy and segments are taken
+         * from the snapshot
+         * @param snapshot snapshot file
+         * @return builder
+         */
+        public Builder<N> restore(final Path snapshot) {
+            this.snapshot = snapshot;
+            return this;
+        }
+
+        /**
+         * Append every allocate and free of the pool to a change journal
+         * @param journal writer journal
+         * @return builder
+         */
+        public Builder<N> journal(final BlockJournal journal) {
+            this.journal = journal;
+            return this;
+        }
+
+        /**
+         * Record every allocate, free and get of the pool to a trace. A pool that is not
+         * concurrent records only the gets of the thread that last allocated or freed.
+         * @param trace recording trace
+         * @return builder
+         */
+        public Builder<N> trace(final BlockTrace trace) {
+            this.trace = trace;
+            return this;
+        }
+
+        /**
+         * Name blocks by 32 bit handles, which caps the number of segments to the handle bits left
+         * by blocks per segment
+         * @param compactHandles compact handles
+         * @return builder
+         */
+        public Builder<N> compactHandles(final boolean compactHandles) {
+            this.compactHandles = compactHandles;
+            return this;
+        }
+
+        /**
+         * Allocate every segment in its own arena, so that empty segments can be released
+         * @param releasable releasable segments
+         * @return builder
+         */
+        public Builder<N> releasableSegments(final boolean releasable) {
+            this.releasable = releasable;
+            return this;
+        }
+
+        /**
+         * Choose which free block an allocation takes
+         * @param policy allocation policy
+         * @return builder
+         */
+        public Builder<N> allocationPolicy(final AllocationPolicy policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        /**
+         * Free blocks by resetting the pool to a checkpoint instead of one by one. A reset frees
+         * no block one by one, so a scoped pool cannot be journaled or traced.
+         * @param scoped scoped pool
+         * @return builder
+         */
+        public Builder<N> scoped(final boolean scoped) {
+            this.scoped = scoped;
+            return this;
+        }
+
+        /**
+         * Lay out the blocks as an array of a C struct, so that native code can read and write
+         * blocks in place. The block length is the struct size padded to its alignment and the
+         * segments are aligned to the struct, the layout must hold the flyweight and a free block,
+         * and the pool cannot be reference counted.
+         * @param layout struct layout
+         * @return builder
+         */
+        public Builder<N> layout(final MemoryLayout layout) {
+            this.layout = layout;
+            return this;
+        }
+
+        /**
+         * Builds a memory pool
+         * @return Constructed NativeBlockPool of type N
+         * @throws IllegalArgumentException null memory session or flyweight class
+         * @throws IllegalStateException failed memory allocation
+         * @throws UncheckedIOException failed snapshot restore
+         */
+        public BlockPool<N> build()  {
+            if (memoryArena == null || clazz == null || policy == null) {
+                throw new IllegalArgumentException("null memory session, flyweight class or policy");
+            }
+            if (scoped && (journal != null || trace != null || releasable || referenceCounted)) {
+                throw new IllegalArgumentException(
+                    "scoped pool cannot be journaled, traced, reference counted or release segments");
+            }
 
             final Constructor<N> constructor;
-            int blockLength;
+            final int encodedLength;
             try {
                 constructor = clazz.getDeclaredConstructor();
-                blockLength = constructor.newInstance().encodedLength();
+                encodedLength = constructor.newInstance().encodedLength();
             } catch (ReflectiveOperationException | RuntimeException error) {
                 throw new IllegalArgumentException("flyweight instantiation");
             }
+            if (snapshot != null) {
+                return restore(constructor, encodedLength);
+            }
 
-            blockLength = ByteUtils.align(Math.max(FreeBlock.BYTES, blockLength), Long.BYTES);
+            final int headerLength = referenceCounted ? REFERENCE_COUNT_LENGTH : 0;
+            final int minimalLength = policy == AllocationPolicy.BITMAP ? Long.BYTES : FreeBlock.BYTES;
+            final int blockLength;
+            if (layout == null) {
+                blockLength = ByteUtils.align(headerLength + Math.max(minimalLength, encodedLength), Long.BYTES);
+            } else {
+                blockLength = layoutLength(layout);
+                if (referenceCounted || blockLength < Math.max(minimalLength, encodedLength)) {
+                    throw new IllegalArgumentException("layout does not fit the blocks");
+                }
+            }
             if (this.blocksPerSegment <= 0) {
                 throw new IllegalArgumentException("invalid allocated segments or blocks");
             }
+            return newPool(constructor, blockLength, headerLength, blocksPerSegment, preAllocSegments, policy);
+        }
+
+        private static int layoutLength(final MemoryLayout layout) {
+            final long length = ByteUtils.align(layout.byteSize(), layout.byteAlignment());
+            if (length > Integer.MAX_VALUE || length % Integer.BYTES != 0) {
+                throw new IllegalArgumentException("layout does not fit the blocks");
+            }
+            return (int) length;
+        }
+
+        private BlockPool<N> restore(final Constructor<N> constructor, final int encodedLength) {
+            try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+                final Snapshot header = Snapshot.read(channel);
+                if (header.encodedLength() != encodedLength ||
+                    layout != null && layoutLength(layout) != header.blockLength()) {
+                    throw new IllegalArgumentException("snapshot does not match the flyweight");
+                }
+                final var pool = newPool(constructor, header.blockLength(), header.headerLength(),
+                    header.blocksPerSegment(), header.segmentCount(), header.policy());
+                pool.restore(channel, header);
+                return pool;
+            } catch (IOException error) {
+                throw new UncheckedIOException("snapshot restore failed", error);
+            }
+        }
+
+        private BlockPool<N> newPool(final Constructor<N> constructor,
+                                     final int blockLength,
+                                     final int headerLength,
+                                     final int blocksPerSegment,
+                                     final int preAllocSegments,
+                                     final AllocationPolicy policy) {
+            final long segmentSize = (long) blocksPerSegment * blockLength;
+            int segmentLimit = (int) Math.min(maxSegments, maxBytes / segmentSize);
+            int handleBlockBits = INVALID_INDEX;
+            if (compactHandles) {
+                handleBlockBits = Integer.SIZE - Integer.numberOfLeadingZeros(blocksPerSegment - 1);
+                segmentLimit = Math.min(segmentLimit, (1 << (Integer.SIZE - 1 - handleBlockBits)) - 1);
+            }
+            if (segmentLimit <= 0 || preAllocSegments > segmentLimit) {
+                throw new IllegalArgumentException("invalid maximal segments or bytes");
+            }
 
-            final var pool = new BlockPool<>(memoryArena, constructor, blockLength, blocksPerSegment, preAllocSegments);
+            final var pool = new BlockPool<>(this, constructor, blockLength, headerLength, blocksPerSegment,
+                preAllocSegments, segmentLimit, handleBlockBits, policy);
             if (pool.memorySegments[0] == null) {
                 throw new IllegalStateException("segment allocation failed");
             }
@@ -326,7 +1644,11 @@ public class BlockPool<T extends BlockFlyweight> {
         }
     }
 
-    private T newInstance() {
+    /**
+     * A new unwrapped flyweight
+     * @return flyweight, null if the instantiation failed
+     */
+    T newInstance() {
         T newBlock;
         try {
             newBlock = constructor.newInstance();
@@ -336,6 +1658,612 @@ public class BlockPool<T extends BlockFlyweight> {
         return newBlock;
     }
 
+    /**
+     * The free block bookkeeping of an allocation policy. The pool keeps the segments, the live
+     * block counts and the blocks not yet initiated in the current segment, while the policy keeps
+     * which initiated blocks are free and picks the block an allocation takes. Called under the
+     * pool lock, a policy changes no state before the pool has called its recorder.
+     */
+    private interface FreeBlocks {
+
+        /**
+         * The block the next allocation takes, the pool has free blocks
+         * @return block address
+         */
+        long next();
+
+        /**
+         * Take the block returned by next
+         * @param segmentIndex segment index
+         * @param blockIndex block index
+         */
+        void take(int segmentIndex, int blockIndex);
+
+        /**
+         * Check if an initiated block is free
+         * @param segmentIndex segment index
+         * @param blockIndex block index
+         * @return true if free
+         */
+        boolean isFree(int segmentIndex, int blockIndex);
+
+        default boolean anyFree(final int segmentIndex, final int blockIndex, final int count) {
+            for (int index = blockIndex; index < blockIndex + count; ++index) {
+                if (isFree(segmentIndex, index)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Make an allocated block free
+         * @param segmentIndex segment index
+         * @param blockIndex block index
+         */
+        void free(int segmentIndex, int blockIndex);
+
+        default void free(final int segmentIndex, final int blockIndex, final int count) {
+            for (int index = blockIndex; index < blockIndex + count; ++index) {
+                free(segmentIndex, index);
+            }
+        }
+
+        /**
+         * Mark a block of a detached segment free without making it allocatable
+         * @param segmentIndex segment index
+         * @param blockIndex block index
+         */
+        void orphan(int segmentIndex, int blockIndex);
+
+        /**
+         * Remove the free blocks of segments, so that no block is allocated from them
+         * @param detached segments to detach, indexed by segment index
+         * @return the number of removed free blocks
+         */
+        int detach(boolean[] detached);
+
+        /**
+         * Make every block of a reused segment free
+         * @param segmentIndex segment index
+         */
+        void freeSegment(int segmentIndex);
+
+        /**
+         * Continue with the first block not yet initiated of the current segment, after a new
+         * segment or a reset
+         * @param segmentIndex current segment index
+         * @param blockIndex first block not yet initiated
+         */
+        void rewind(int segmentIndex, int blockIndex);
+
+        default void newSegment(final int segmentIndex) {
+        }
+
+        default void releaseSegment(final int segmentIndex) {
+        }
+
+        default void grow(final int capacity) {
+        }
+
+        /**
+         * The free list head of the snapshot header
+         * @return segment index in the high bits and block index in the low bits
+         */
+        long head();
+
+        default void write(final FileChannel channel) throws IOException {
+        }
+
+        /**
+         * Restore the free blocks after the segments and live block counts
+         * @param channel snapshot positioned after the live block counts
+         * @param head free list head of the snapshot header
+         * @throws IOException truncated or invalid snapshot
+         */
+        void restore(FileChannel channel, long head) throws IOException;
+    }
+
+    /**
+     * The LIFO policy of the paper, a single free list linked through the free blocks of all
+     * segments. An allocation initiates one more block of the current segment, linking it to the
+     * next block, so that a new segment is never walked.
+     */
+    private final class LifoFreeBlocks implements FreeBlocks {
+        private int headSegment;
+        private int headBlock;
+
+        @Override
+        public long next() {
+            if (initiatedFreeBlocks < blocksPerSegment) {
+                final long offset = blockOffset(initiatedFreeBlocks);
+                ++initiatedFreeBlocks;
+                freeBlock.wrap(memorySegments[segmentPosition], offset).set(segmentPosition, initiatedFreeBlocks);
+            }
+            return ByteUtils.pack(headSegment + 1, headBlock);
+        }
+
+        @Override
+        public void take(final int segmentIndex, final int blockIndex) {
+            freeBlock.wrap(memorySegments[segmentIndex], blockOffset(blockIndex));
+            headBlock = freeBlock.blockIndex();
+            headSegment = freeBlock.blockSegment();
+            freeBlock.clearCookie();
+        }
+
+        @Override
+        public boolean isFree(final int segmentIndex, final int blockIndex) {
+            return freeBlock.wrap(memorySegments[segmentIndex], blockOffset(blockIndex)).isFree();
+        }
+
+        @Override
+        public void free(final int segmentIndex, final int blockIndex) {
+            freeBlock.wrap(memorySegments[segmentIndex], blockOffset(blockIndex)).set(headSegment, headBlock);
+            headSegment = segmentIndex;
+            headBlock = blockIndex;
+        }
+
+        @Override
+        public void orphan(final int segmentIndex, final int blockIndex) {
+            freeBlock.wrap(memorySegments[segmentIndex], blockOffset(blockIndex)).set(INVALID_INDEX, INVALID_INDEX);
+        }
+
+        @Override
+        public int detach(final boolean[] detached) {
+            final int nodes = freeBlockCount - (blocksPerSegment - initiatedFreeBlocks);
+            int previousSegment = INVALID_INDEX;
+            int previousBlock = INVALID_INDEX;
+            int segmentIndex = headSegment;
+            int blockIndex = headBlock;
+            int removed = 0;
+            for (int node = 0; node < nodes; ++node) {
+                freeBlock.wrap(memorySegments[segmentIndex], blockOffset(blockIndex));
+                final int nextSegment = freeBlock.blockSegment();
+                final int nextBlock = freeBlock.blockIndex();
+                if (segmentIndex < detached.length && detached[segmentIndex]) {
+                    if (previousSegment == INVALID_INDEX) {
+                        headSegment = nextSegment;
+                        headBlock = nextBlock;
+                    } else {
+                        freeBlock.wrap(memorySegments[previousSegment], blockOffset(previousBlock))
+                            .set(nextSegment, nextBlock);
+                    }
+                    ++removed;
+                } else {
+                    previousSegment = segmentIndex;
+                    previousBlock = blockIndex;
+                }
+                segmentIndex = nextSegment;
+                blockIndex = nextBlock;
+            }
+            return removed;
+        }
+
+        @Override
+        public void freeSegment(final int segmentIndex) {
+            for (int blockIndex = blocksPerSegment - 1; blockIndex >= 0; --blockIndex) {
+                free(segmentIndex, blockIndex);
+            }
+        }
+
+        @Override
+        public void rewind(final int segmentIndex, final int blockIndex) {
+            headSegment = segmentIndex;
+            headBlock = blockIndex;
+        }
+
+        @Override
+        public long head() {
+            return ByteUtils.pack(headSegment, headBlock);
+        }
+
+        @Override
+        public void restore(final FileChannel channel, final long head) {
+            headSegment = ByteUtils.highBits(head);
+            headBlock = ByteUtils.lowBits(head);
+        }
+    }
+
+    /**
+     * Allocates from the lowest segment with free blocks, or else the next block not yet initiated
+     * in the current segment
+     */
+    private abstract class LowestFreeBlocks implements FreeBlocks {
+        protected long[] freeSegments;  // segments with free blocks
+
+        LowestFreeBlocks(final int capacity) {
+            freeSegments = new long[(capacity + Long.SIZE - 1) / Long.SIZE];
+        }
+
+        /**
+         * The free block an allocation takes from a segment with free blocks
+         */
+        protected abstract int first(int segmentIndex);
+
+        /**
+         * Remove all free blocks of a segment
+         */
+        protected abstract void clear(int segmentIndex);
+
+        @Override
+        public long next() {
+            final int segmentIndex = firstFreeSegment();
+            if (segmentIndex == INVALID_INDEX) {
+                return ByteUtils.pack(segmentPosition + 1, initiatedFreeBlocks);
+            }
+            return ByteUtils.pack(segmentIndex + 1, first(segmentIndex));
+        }
+
+        /**
+         * Initiate the block if it is the next block not yet initiated of the current segment
+         * @return false if the block is an initiated free block
+         */
+        protected boolean initiate(final int segmentIndex, final int blockIndex) {
+            if (segmentIndex == segmentPosition && blockIndex == initiatedFreeBlocks) {
+                ++initiatedFreeBlocks;
+                return true;
+            }
+            return false;
+        }
+
+        private int firstFreeSegment() {
+            for (int word = 0; word < freeSegments.length; ++word) {
+                if (freeSegments[word] != 0) {
+                    return (word << 6) + Long.numberOfTrailingZeros(freeSegments[word]);
+                }
+            }
+            return INVALID_INDEX;
+        }
+
+        @Override
+        public int detach(final boolean[] detached) {
+            int removed = 0;
+            for (int segmentIndex = 0; segmentIndex < detached.length; ++segmentIndex) {
+                if (detached[segmentIndex] && (freeSegments[segmentIndex >>> 6] & (1L << segmentIndex)) != 0) {
+                    removed += blocksPerSegment - liveBlocks[segmentIndex];
+                    clear(segmentIndex);
+                    freeSegments[segmentIndex >>> 6] &= ~(1L << segmentIndex);
+                }
+            }
+            return removed;
+        }
+
+        @Override
+        public void rewind(final int segmentIndex, final int blockIndex) {
+        }
+
+        @Override
+        public void grow(final int capacity) {
+            freeSegments = Arrays.copyOf(freeSegments, (capacity + Long.SIZE - 1) / Long.SIZE);
+        }
+
+        @Override
+        public long head() {
+            return ByteUtils.pack(segmentPosition, initiatedFreeBlocks);
+        }
+    }
+
+    /**
+     * The DENSE policy, a free list per segment linked through its free blocks
+     */
+    private final class DenseFreeBlocks extends LowestFreeBlocks {
+        private int[] heads;  // free list of every segment
+
+        DenseFreeBlocks(final int capacity) {
+            super(capacity);
+            heads = new int[capacity];
+            Arrays.fill(heads, INVALID_INDEX);
+        }
+
+        @Override
+        protected int first(final int segmentIndex) {
+            return heads[segmentIndex];
+        }
+
+        @Override
+        protected void clear(final int segmentIndex) {
+            heads[segmentIndex] = INVALID_INDEX;
+        }
+
+        @Override
+        public void take(final int segmentIndex, final int blockIndex) {
+            freeBlock.wrap(memorySegments[segmentIndex], blockOffset(blockIndex));
+            if (!initiate(segmentIndex, blockIndex)) {
+                final int nextBlock = freeBlock.blockIndex();
+                heads[segmentIndex] = nextBlock;
+                if (nextBlock == INVALID_INDEX) {
+                    freeSegments[segmentIndex >>> 6] &= ~(1L << segmentIndex);
+                }
+            }
+            freeBlock.clearCookie();
+        }
+
+        @Override
+        public boolean isFree(final int segmentIndex, final int blockIndex) {
+            return freeBlock.wrap(memorySegments[segmentIndex], blockOffset(blockIndex)).isFree();
+        }
+
+        @Override
+        public void free(final int segmentIndex, final int blockIndex) {
+            freeBlock.wrap(memorySegments[segmentIndex], blockOffset(blockIndex)).set(segmentIndex, heads[segmentIndex]);
+            heads[segmentIndex] = blockIndex;
+            freeSegments[segmentIndex >>> 6] |= 1L << segmentIndex;
+        }
+
+        @Override
+        public void orphan(final int segmentIndex, final int blockIndex) {
+            freeBlock.wrap(memorySegments[segmentIndex], blockOffset(blockIndex)).set(INVALID_INDEX, INVALID_INDEX);
+        }
+
+        @Override
+        public void freeSegment(final int segmentIndex) {
+            for (int blockIndex = blocksPerSegment - 1; blockIndex >= 0; --blockIndex) {
+                free(segmentIndex, blockIndex);
+            }
+        }
+
+        @Override
+        public void grow(final int capacity) {
+            super.grow(capacity);
+            final int length = heads.length;
+            heads = Arrays.copyOf(heads, capacity);
+            Arrays.fill(heads, length, capacity, INVALID_INDEX);
+        }
+
+        @Override
+        public void write(final FileChannel channel) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate((segmentPosition + 1) * Integer.BYTES);
+            buffer.asIntBuffer().put(heads, 0, segmentPosition + 1);
+            writeFully(channel, buffer);
+        }
+
+        @Override
+        public void restore(final FileChannel channel, final long head) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate((segmentPosition + 1) * Integer.BYTES);
+            readFully(channel, buffer);
+            buffer.flip().asIntBuffer().get(heads, 0, segmentPosition + 1);
+            for (int segmentIndex = 0; segmentIndex <= segmentPosition; ++segmentIndex) {
+                final int blockIndex = heads[segmentIndex];
+                if (blockIndex != INVALID_INDEX) {
+                    if (blockIndex < 0 || blockIndex >= initiatedBlocks(segmentIndex)) {
+                        throw new IOException("invalid snapshot");
+                    }
+                    freeSegments[segmentIndex >>> 6] |= 1L << segmentIndex;
+                }
+            }
+        }
+    }
+
+    /**
+     * The BITMAP policy, a free bitmap per segment, which never writes to the blocks
+     */
+    private final class BitmapFreeBlocks extends LowestFreeBlocks {
+        private long[][] bitmaps;  // free blocks of every segment
+        private int[] hints;       // lowest word with free blocks of every segment
+
+        BitmapFreeBlocks(final int capacity) {
+            super(capacity);
+            bitmaps = new long[capacity][];
+            hints = new int[capacity];
+        }
+
+        /**
+         * The lowest free block of a segment with free blocks, the bitmap is changed by take
+         */
+        @Override
+        protected int first(final int segmentIndex) {
+            final long[] bitmap = bitmaps[segmentIndex];
+            int word = hints[segmentIndex];
+            while (bitmap[word] == 0) {
+                ++word;
+            }
+            hints[segmentIndex] = word;
+            return (word << 6) + Long.numberOfTrailingZeros(bitmap[word]);
+        }
+
+        @Override
+        protected void clear(final int segmentIndex) {
+            Arrays.fill(bitmaps[segmentIndex], 0L);
+        }
+
+        @Override
+        public void take(final int segmentIndex, final int blockIndex) {
+            if (initiate(segmentIndex, blockIndex)) {
+                return;
+            }
+            bitmaps[segmentIndex][blockIndex >>> 6] &= ~(1L << blockIndex);
+            if (liveBlocks[segmentIndex] + 1 == initiatedBlocks(segmentIndex)) {
+                freeSegments[segmentIndex >>> 6] &= ~(1L << segmentIndex);
+            }
+        }
+
+        @Override
+        public boolean isFree(final int segmentIndex, final int blockIndex) {
+            return (bitmaps[segmentIndex][blockIndex >>> 6] & (1L << blockIndex)) != 0;
+        }
+
+        @Override
+        public boolean anyFree(final int segmentIndex, final int blockIndex, final int count) {
+            final long[] bitmap = bitmaps[segmentIndex];
+            final int end = blockIndex + count;
+            for (int index = blockIndex; index < end; ) {
+                final int bits = Math.min(Long.SIZE - (index & 63), end - index);
+                if ((bitmap[index >>> 6] & rangeMask(index, bits)) != 0) {
+                    return true;
+                }
+                index += bits;
+            }
+            return false;
+        }
+
+        @Override
+        public void free(final int segmentIndex, final int blockIndex) {
+            free(segmentIndex, blockIndex, 1);
+        }
+
+        @Override
+        public void free(final int segmentIndex, final int blockIndex, final int count) {
+            final long[] bitmap = bitmaps[segmentIndex];
+            final int end = blockIndex + count;
+            for (int index = blockIndex; index < end; ) {
+                final int bits = Math.min(Long.SIZE - (index & 63), end - index);
+                bitmap[index >>> 6] |= rangeMask(index, bits);
+                index += bits;
+            }
+            hints[segmentIndex] = Math.min(hints[segmentIndex], blockIndex >>> 6);
+            freeSegments[segmentIndex >>> 6] |= 1L << segmentIndex;
+        }
+
+        /**
+         * Sets the bit without marking the segment as having free blocks
+         */
+        @Override
+        public void orphan(final int segmentIndex, final int blockIndex) {
+            bitmaps[segmentIndex][blockIndex >>> 6] |= 1L << blockIndex;
+        }
+
+        @Override
+        public void freeSegment(final int segmentIndex) {
+            free(segmentIndex, 0, blocksPerSegment);
+        }
+
+        @Override
+        public void newSegment(final int segmentIndex) {
+            bitmaps[segmentIndex] = new long[(blocksPerSegment + Long.SIZE - 1) / Long.SIZE];
+            hints[segmentIndex] = 0;
+        }
+
+        @Override
+        public void releaseSegment(final int segmentIndex) {
+            bitmaps[segmentIndex] = null;
+        }
+
+        @Override
+        public void grow(final int capacity) {
+            super.grow(capacity);
+            bitmaps = Arrays.copyOf(bitmaps, capacity);
+            hints = Arrays.copyOf(hints, capacity);
+        }
+
+        @Override
+        public void write(final FileChannel channel) throws IOException {
+            for (int index = 0; index <= segmentPosition; ++index) {
+                final ByteBuffer buffer = ByteBuffer.allocate(bitmaps[index].length * Long.BYTES);
+                buffer.asLongBuffer().put(bitmaps[index]);
+                writeFully(channel, buffer);
+            }
+        }
+
+        @Override
+        public void restore(final FileChannel channel, final long head) throws IOException {
+            for (int segmentIndex = 0; segmentIndex <= segmentPosition; ++segmentIndex) {
+                final long[] bitmap = bitmaps[segmentIndex];
+                final ByteBuffer buffer = ByteBuffer.allocate(bitmap.length * Long.BYTES);
+                readFully(channel, buffer);
+                buffer.flip().asLongBuffer().get(bitmap);
+                long free = 0;
+                for (final long word : bitmap) {
+                    free |= word;
+                }
+                if (free != 0) {
+                    freeSegments[segmentIndex >>> 6] |= 1L << segmentIndex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Snapshot file header
+     */
+    private record Snapshot(int blockLength, int headerLength, int encodedLength, int blocksPerSegment,
+                            int segmentCount, int segmentPosition, int initiatedFreeBlocks,
+                            int freeBlockCount, int freeBlockPosition, int freeSegmentPosition,
+                            AllocationPolicy policy) {
+
+        static Snapshot read(final FileChannel channel) throws IOException {
+            final ByteBuffer header = ByteBuffer.allocate(SNAPSHOT_HEADER_LENGTH);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("truncated snapshot");
+                }
+            }
+            header.flip();
+            if (header.getInt() != SNAPSHOT_MAGIC || header.getInt() != SNAPSHOT_VERSION) {
+                throw new IOException("invalid snapshot");
+            }
+            final int[] fields = new int[10];
+            for (int field = 0; field < fields.length; ++field) {
+                fields[field] = header.getInt();
+            }
+            final int policy = header.getInt();
+            if (policy < 0 || policy >= AllocationPolicy.values().length) {
+                throw new IOException("invalid snapshot");
+            }
+            final Snapshot snapshot = new Snapshot(fields[0], fields[1], fields[2], fields[3], fields[4], fields[5],
+                fields[6], fields[7], fields[8], fields[9], AllocationPolicy.values()[policy]);
+            if (!snapshot.isValid()) {
+                throw new IOException("invalid snapshot");
+            }
+            return snapshot;
+        }
+
+        /**
+         * Check the header fields against each other, the free list positions may point at the
+         * next block not yet initiated
+         */
+        private boolean isValid() {
+            return headerLength >= 0 && blockLength > headerLength && encodedLength >= 0 &&
+                blocksPerSegment > 0 && segmentCount > 0 &&
+                segmentPosition >= 0 && segmentPosition < segmentCount &&
+                initiatedFreeBlocks >= 0 && initiatedFreeBlocks <= blocksPerSegment &&
+                freeBlockCount >= 0 && freeBlockCount <= (long) segmentCount * blocksPerSegment &&
+                freeSegmentPosition >= 0 && freeSegmentPosition <= segmentPosition &&
+                freeBlockPosition >= 0 && freeBlockPosition <= blocksPerSegment;
+        }
+    }
+
+    /**
+     * Records to the journal and then to the trace, the journal events are dropped if the trace fails
+     */
+    private record TracedJournal(BlockJournal journal, BlockTrace trace) implements BlockRecorder {
+
+        @Override
+        public void allocated(final long address) {
+            final long position = journal.position();
+            journal.allocated(address);
+            try {
+                trace.allocated(address);
+            } catch (RuntimeException error) {
+                journal.rewind(position);
+                throw error;
+            }
+        }
+
+        @Override
+        public void freed(final long address) {
+            final long position = journal.position();
+            journal.freed(address);
+            try {
+                trace.freed(address);
+            } catch (RuntimeException error) {
+                journal.rewind(position);
+                throw error;
+            }
+        }
+
+        @Override
+        public void freed(final long address, final int count) {
+            final long position = journal.position();
+            journal.freed(address, count);
+            try {
+                trace.freed(address, count);
+            } catch (RuntimeException error) {
+                journal.rewind(position);
+                throw error;
+            }
+        }
+    }
+
     // handling of object less than 8
     private static final class FreeBlock {
         public static final int INDEX_OFFSET = 0;
@@ -373,5 +2301,13 @@ public class BlockPool<T extends BlockFlyweight> {
         public int blockIndex() {
             return memorySegment.get(ValueLayout.JAVA_INT, offset + INDEX_OFFSET);
         }
+
+        public boolean isFree() {
+            return memorySegment.get(ValueLayout.JAVA_INT, offset + COOKIE_OFFSET) == COOKIE;
+        }
+
+        public void clearCookie() {
+            memorySegment.set(ValueLayout.JAVA_INT, offset + COOKIE_OFFSET, 0);
+        }
     }
 }
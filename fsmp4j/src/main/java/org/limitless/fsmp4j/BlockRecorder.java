@@ -0,0 +1,33 @@
+package org.limitless.fsmp4j;
+
+/**
+ * A recorder of the allocations and frees of a block pool, such as a journal or a trace.
+ *
+ * The pool calls the recorder once per operation, before it changes any state, so that a recorder
+ * that throws leaves the pool unchanged.
+ */
+public interface BlockRecorder {
+
+    /**
+     * Record an allocation
+     * @param address block address
+     */
+    void allocated(final long address);
+
+    /**
+     * Record a free
+     * @param address block address
+     */
+    void freed(final long address);
+
+    /**
+     * Record a free of consecutive blocks of one segment, by default block by block
+     * @param address address of the first block
+     * @param count number of blocks
+     */
+    default void freed(final long address, final int count) {
+        for (int index = 0; index < count; ++index) {
+            freed(address + index);
+        }
+    }
+}
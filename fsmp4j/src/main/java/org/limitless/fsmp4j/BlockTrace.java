@@ -0,0 +1,274 @@
+package org.limitless.fsmp4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A compact binary trace of the allocate, free and get operations of a block pool.
+ *
+ * A pool built with a trace records every operation with its block address, so that the workload
+ * can be replayed offline against other pool configurations. A record is the operation byte, the
+ * nanoseconds since the previous record and the difference from the previous address, both as
+ * variable length integers, the address difference zigzag encoded, so that frequent operations on
+ * nearby blocks take a few bytes each.
+ *
+ * The trace is written by one thread at a time. A concurrent pool records under its lock, any
+ * other pool records its allocations and frees, and only the gets of the thread that last
+ * allocated or freed, so that lock-free readers such as those of an EpochReclaimer are not traced.
+ */
+public final class BlockTrace implements BlockRecorder, AutoCloseable {
+
+    public static final int ALLOCATE = 1;
+    public static final int FREE = 2;
+    public static final int GET = 3;
+
+    public static final int BUFFER_LENGTH = 64 * 1024;
+
+    private static final long MAGIC = 0x46534d5054524331L;  // FSMPTRC1
+    private static final int MAX_RECORD_LENGTH = 1 + 2 * 10;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private long lastNanos;
+    private long lastAddress;
+    private long events;
+    private Thread writer;
+
+    private BlockTrace(final FileChannel channel) {
+        this.channel = channel;
+        buffer = ByteBuffer.allocateDirect(BUFFER_LENGTH);
+        buffer.putLong(MAGIC);
+        lastNanos = System.nanoTime();
+        writer = Thread.currentThread();
+    }
+
+    /**
+     * Create an empty trace for recording
+     * @param path trace file
+     * @return trace
+     * @throws IllegalArgumentException null path
+     * @throws IOException failed to create the trace
+     */
+    public static BlockTrace create(final Path path) throws IOException {
+        if (path == null) {
+            throw new IllegalArgumentException("null path");
+        }
+        return new BlockTrace(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    /**
+     * Record an allocation
+     * @param address block address
+     * @throws UncheckedIOException failed write
+     */
+    @Override
+    public void allocated(final long address) {
+        writer = Thread.currentThread();
+        record(ALLOCATE, address);
+    }
+
+    /**
+     * Record a free
+     * @param address block address
+     * @throws UncheckedIOException failed write
+     */
+    @Override
+    public void freed(final long address) {
+        writer = Thread.currentThread();
+        record(FREE, address);
+    }
+
+    /**
+     * Record a get
+     * @param address block address
+     * @throws UncheckedIOException failed write
+     */
+    public void got(final long address) {
+        record(GET, address);
+    }
+
+    /**
+     * Check if the calling thread recorded the last allocation or free, or created the trace
+     * @return true for the writer thread
+     */
+    boolean isWriter() {
+        return Thread.currentThread() == writer;
+    }
+
+    /**
+     * The number of recorded operations
+     * @return operations
+     */
+    public long events() {
+        return events;
+    }
+
+    /**
+     * Write the buffered records and close the file
+     * @throws IOException failed write
+     */
+    @Override
+    public void close() throws IOException {
+        if (channel.isOpen()) {
+            try (channel) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Open a trace for reading
+     * @param path trace file
+     * @return reader positioned before the first record
+     * @throws IllegalArgumentException null path
+     * @throws IOException failed to open the trace or invalid trace
+     */
+    public static Reader open(final Path path) throws IOException {
+        if (path == null) {
+            throw new IllegalArgumentException("null path");
+        }
+
+        final Arena arena = Arena.ofConfined();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final MemorySegment trace = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            if (trace.byteSize() < Long.BYTES ||
+                trace.get(ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN), 0) != MAGIC) {
+                throw new IOException("invalid trace");
+            }
+            return new Reader(arena, trace);
+        } catch (IOException | RuntimeException error) {
+            arena.close();
+            throw error;
+        }
+    }
+
+    private void record(final int operation, final long address) {
+        if (buffer.remaining() < MAX_RECORD_LENGTH) {
+            try {
+                flush();
+            } catch (IOException error) {
+                throw new UncheckedIOException("trace write failed", error);
+            }
+        }
+        final long nanos = System.nanoTime();
+        final long delta = address - lastAddress;
+        buffer.put((byte) operation);
+        putVarLong(nanos - lastNanos);
+        putVarLong(delta << 1 ^ delta >> 63);
+        lastNanos = nanos;
+        lastAddress = address;
+        ++events;
+    }
+
+    private void putVarLong(long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.put((byte) (value & 0x7f | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Sequential reader of the records of a trace
+     */
+    public static final class Reader implements AutoCloseable {
+
+        private final Arena arena;
+        private final MemorySegment trace;
+        private long position;
+        private int operation;
+        private long nanos;
+        private long address;
+
+        private Reader(final Arena arena, final MemorySegment trace) {
+            this.arena = arena;
+            this.trace = trace;
+            position = Long.BYTES;
+        }
+
+        /**
+         * Advance to the next record
+         * @return false at the end of the trace
+         * @throws IllegalStateException truncated record
+         */
+        public boolean next() {
+            if (position >= trace.byteSize()) {
+                return false;
+            }
+            operation = trace.get(ValueLayout.JAVA_BYTE, position++);
+            if (operation < ALLOCATE || operation > GET) {
+                throw new IllegalStateException("invalid trace record");
+            }
+            nanos += getVarLong();
+            final long delta = getVarLong();
+            address += delta >>> 1 ^ -(delta & 1);
+            return true;
+        }
+
+        /**
+         * The operation of the current record
+         * @return ALLOCATE, FREE or GET
+         */
+        public int operation() {
+            return operation;
+        }
+
+        /**
+         * The block address of the current record
+         * @return address
+         */
+        public long address() {
+            return address;
+        }
+
+        /**
+         * The time of the current record
+         * @return nanoseconds since the trace was created
+         */
+        public long nanos() {
+            return nanos;
+        }
+
+        /**
+         * Unmap the trace
+         */
+        @Override
+        public void close() {
+            if (arena.scope().isAlive()) {
+                arena.close();
+            }
+        }
+
+        private long getVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < Long.SIZE; shift += 7) {
+                if (position >= trace.byteSize()) {
+                    throw new IllegalStateException("truncated trace");
+                }
+                final byte bits = trace.get(ValueLayout.JAVA_BYTE, position++);
+                value |= (long) (bits & 0x7f) << shift;
+                if (bits >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("invalid trace record");
+        }
+    }
+}
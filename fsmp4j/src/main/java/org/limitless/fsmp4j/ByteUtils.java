@@ -1,7 +1,13 @@
 package org.limitless.fsmp4j;
 
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
 public final class ByteUtils {
 
+    private static final long HASH_SEED = 0x9e3779b97f4a7c15L;
+    private static final long HASH_MULTIPLIER = 0xbf58476d1ce4e5b9L;
+
     public static long pack(final int high, final int low) {
         return ((long) high) << 32 | low;
     }
@@ -21,4 +27,24 @@ public final class ByteUtils {
     public static long align(final long value, final long alignment) {
         return (value + (alignment - 1)) & -alignment;
     }
+
+    public static long hash(final MemorySegment segment, final long offset, final long length) {
+        long hash = HASH_SEED ^ length;
+        long position = offset;
+        final long end = offset + length;
+        for (; position + Long.BYTES <= end; position += Long.BYTES) {
+            hash = Long.rotateLeft(hash ^ segment.get(ValueLayout.JAVA_LONG_UNALIGNED, position) * HASH_MULTIPLIER, 29)
+                * HASH_SEED;
+        }
+        if (position < end) {
+            long tail = 0;
+            for (int shift = 0; position < end; ++position, shift += Byte.SIZE) {
+                tail |= (segment.get(ValueLayout.JAVA_BYTE, position) & 0xffL) << shift;
+            }
+            hash = Long.rotateLeft(hash ^ tail * HASH_MULTIPLIER, 29) * HASH_SEED;
+        }
+        hash ^= hash >>> 31;
+        hash *= HASH_MULTIPLIER;
+        return hash ^ hash >>> 29;
+    }
 }
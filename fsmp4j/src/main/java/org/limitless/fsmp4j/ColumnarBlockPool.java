@@ -0,0 +1,350 @@
+package org.limitless.fsmp4j;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A fixed-size block pool storing the blocks column-wise, structure of arrays.
+ * @param <T> flyweight type
+ *
+ * Every segment holds blocks per segment blocks, and every field of the flyweight layout lives in
+ * its own column of the segment: the field at offset o with length l of block b is stored at
+ * o * blocks per segment + b * l. A scan over one field of all blocks reads a contiguous column
+ * and no other field. Flyweights keep their accessors and packed addresses, but must access each
+ * field with the same offset and length, see BlockFlyweight.
+ *
+ * Since no block memory is free in a column layout, the free list is a stack of addresses, and a
+ * bitmap per segment tracks the allocated blocks. A freed block keeps its field values, scans over
+ * a pool with freed blocks check isAllocated.
+ */
+public final class ColumnarBlockPool<T extends BlockFlyweight> {
+
+    private final Constructor<T> constructor;
+    private final int encodedLength;
+    private final int blocksPerSegment;
+    private final int maxSegments;
+
+    private Arena arena;
+    private MemorySegment[] memorySegments;
+    private long[][] allocatedBlocks;
+    private int segmentPosition;   // index of the current used segment
+    private int segmentCount;      // allocated segments
+    private int initiatedBlocks;   // number of initiated blocks in the current segment
+
+    private long[] freeAddresses;
+    private int freeCount;
+
+    private ColumnarBlockPool(final Arena memoryArena,
+                              final Constructor<T> constructor,
+                              final int encodedLength,
+                              final int blocksPerSegment,
+                              final int preAllocSegments,
+                              final int maxSegments) {
+        this.arena = memoryArena;
+        this.constructor = constructor;
+        this.encodedLength = encodedLength;
+        this.blocksPerSegment = blocksPerSegment;
+        this.maxSegments = maxSegments;
+
+        final int capacity = Math.max(BlockPool.SEGMENT_CAPACITY, preAllocSegments);
+        memorySegments = new MemorySegment[capacity];
+        allocatedBlocks = new long[capacity][];
+        for (int position = 0; position < preAllocSegments; ++position) {
+            newSegment();
+        }
+        freeAddresses = new long[blocksPerSegment];
+    }
+
+    /**
+     * Allocate a new flyweight object and block from the pool
+     * @return the wrapped block
+     * @throws IllegalStateException flyweight instantiation failed or the pool is exhausted
+     */
+    public T allocate() {
+        final T block;
+        try {
+            block = constructor.newInstance();
+        } catch (ReflectiveOperationException | IllegalArgumentException error) {
+            throw new IllegalStateException("flyweight instantiation failed", error);
+        }
+        return allocate(block);
+    }
+
+    /**
+     * Allocate a block, reusing the last freed block first
+     * @param block a flyweight
+     * @return the wrapped block
+     * @throws IllegalArgumentException null argument
+     * @throws IllegalStateException the pool is exhausted
+     */
+    public T allocate(final T block) {
+        if (block == null) {
+            throw new IllegalArgumentException("null block");
+        }
+
+        final int segmentIndex;
+        final int blockIndex;
+        if (freeCount > 0) {
+            final long address = freeAddresses[--freeCount];
+            segmentIndex = ByteUtils.highBits(address) - 1;
+            blockIndex = ByteUtils.lowBits(address);
+        } else {
+            if (initiatedBlocks == blocksPerSegment) {
+                if (segmentPosition + 1 >= segmentCount) {
+                    if (segmentCount >= maxSegments) {
+                        throw new IllegalStateException("pool is exhausted");
+                    }
+                    newSegment();
+                }
+                ++segmentPosition;
+                initiatedBlocks = 0;
+            }
+            segmentIndex = segmentPosition;
+            blockIndex = initiatedBlocks++;
+        }
+        allocatedBlocks[segmentIndex][blockIndex >>> 6] |= 1L << blockIndex;
+        block.wrapColumns(memorySegments[segmentIndex], segmentIndex, blockIndex, blocksPerSegment);
+        return block;
+    }
+
+    /**
+     * Free the block with address
+     * @param address block address
+     * @throws IllegalArgumentException invalid address
+     * @throws IllegalStateException block is not allocated
+     */
+    public void free(final long address) {
+        if (address <= 0) {
+            throw new IllegalArgumentException("invalid address");
+        }
+
+        final int segmentIndex = ByteUtils.highBits(address) - 1;
+        final int blockIndex = ByteUtils.lowBits(address);
+        checkAllocated(segmentIndex, blockIndex);
+        allocatedBlocks[segmentIndex][blockIndex >>> 6] &= ~(1L << blockIndex);
+        if (freeCount == freeAddresses.length) {
+            freeAddresses = Arrays.copyOf(freeAddresses, freeAddresses.length << 1);
+        }
+        freeAddresses[freeCount++] = address;
+    }
+
+    /**
+     * Free the block
+     * @param block a wrapped flyweight
+     * @throws IllegalArgumentException null block
+     * @throws IllegalStateException block is not allocated or does not belong to this pool
+     */
+    public void free(final T block) {
+        if (block == null) {
+            throw new IllegalArgumentException("null block");
+        }
+        final int segmentIndex = block.segment();
+        if (segmentIndex < 0 || segmentIndex >= segmentCount || block.memorySegment() != memorySegments[segmentIndex]) {
+            throw new IllegalStateException("block does not belong to this pool");
+        }
+        free(block.address());
+        block.clear();
+    }
+
+    /**
+     * Wrap the block
+     * @param address the segment and index for the block
+     * @param block the wrapped block
+     * @return the wrapped block
+     * @throws IllegalArgumentException null block
+     * @throws IllegalStateException block is not allocated
+     */
+    public T get(final long address, final T block) {
+        if (block == null) {
+            throw new IllegalArgumentException("null block");
+        }
+
+        final int segmentIndex = ByteUtils.highBits(address) - 1;
+        final int blockIndex = ByteUtils.lowBits(address);
+        checkAllocated(segmentIndex, blockIndex);
+        block.wrapColumns(memorySegments[segmentIndex], segmentIndex, blockIndex, blocksPerSegment);
+        return block;
+    }
+
+    /**
+     * Check if the block with address is allocated
+     * @param address block address
+     * @return true if allocated
+     */
+    public boolean isAllocated(final long address) {
+        final int segmentIndex = ByteUtils.highBits(address) - 1;
+        final int blockIndex = ByteUtils.lowBits(address);
+        return segmentIndex >= 0 && segmentIndex < segmentCount && blockIndex >= 0 && blockIndex < blocks(segmentIndex) &&
+            (allocatedBlocks[segmentIndex][blockIndex >>> 6] & (1L << blockIndex)) != 0;
+    }
+
+    /**
+     * A memory segment view of a field column of a segment, the value of block b is at b * length
+     * @param segmentIndex segment index
+     * @param offset field offset in flyweight
+     * @param length field length
+     * @return a slice of blocks per segment * length bytes
+     * @throws IllegalArgumentException invalid segment or field
+     */
+    public MemorySegment column(final int segmentIndex, final int offset, final int length) {
+        if (segmentIndex < 0 || segmentIndex >= segmentCount) {
+            throw new IllegalArgumentException("invalid segment");
+        }
+        if (offset < 0 || length <= 0 || offset + length > encodedLength) {
+            throw new IllegalArgumentException("invalid field");
+        }
+        return memorySegments[segmentIndex].asSlice((long) offset * blocksPerSegment, (long) length * blocksPerSegment);
+    }
+
+    /**
+     * The number of initiated blocks of a segment, the blocks after these have never been allocated
+     * @param segmentIndex segment index
+     * @return blocks
+     */
+    public int blocks(final int segmentIndex) {
+        if (segmentIndex == segmentPosition) {
+            return initiatedBlocks;
+        }
+        return segmentIndex < segmentPosition ? blocksPerSegment : 0;
+    }
+
+    /**
+     * The number of allocated segments
+     * @return segments
+     */
+    public int segmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * The number of blocks in a segment
+     * @return blocks
+     */
+    public int blocksPerSegment() {
+        return blocksPerSegment;
+    }
+
+    /**
+     * The number of data bytes in a block, the encoded length of the flyweight
+     * @return bytes
+     */
+    public int encodedLength() {
+        return encodedLength;
+    }
+
+    /**
+     * The allocated number of bytes in this memory pool.
+     * @return bytes
+     */
+    public long allocatedBytes() {
+        return (long) segmentCount * blocksPerSegment * encodedLength;
+    }
+
+    /**
+     * Close the associated memory arena
+     */
+    public void close() {
+        if (arena != null) {
+            arena.close();
+            arena = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "ColumnarBlockPool{ size = %d, blocks = %,d, segments = %d, bytes = %,d }",
+            encodedLength, blocksPerSegment * segmentCount, segmentCount, allocatedBytes());
+    }
+
+    private void newSegment() {
+        if (segmentCount >= memorySegments.length) {
+            memorySegments = Arrays.copyOf(memorySegments, memorySegments.length << 1);
+            allocatedBlocks = Arrays.copyOf(allocatedBlocks, allocatedBlocks.length << 1);
+        }
+        memorySegments[segmentCount] = arena.allocate((long) blocksPerSegment * encodedLength, Long.BYTES);
+        allocatedBlocks[segmentCount] = new long[(blocksPerSegment + Long.SIZE - 1) / Long.SIZE];
+        ++segmentCount;
+    }
+
+    private void checkAllocated(final int segmentIndex, final int blockIndex) {
+        if (segmentIndex < 0 || segmentIndex >= segmentCount || blockIndex < 0 || blockIndex >= blocks(segmentIndex)) {
+            throw new IllegalStateException("block has invalid address");
+        }
+        if ((allocatedBlocks[segmentIndex][blockIndex >>> 6] & (1L << blockIndex)) == 0) {
+            throw new IllegalStateException("block is not allocated");
+        }
+    }
+
+    /**
+     * Columnar block pool builder
+     * @param <N> flyweight class
+     */
+    public static final class Builder<N extends BlockFlyweight> {
+        private final Arena memoryArena;
+        private final Class<N> clazz;
+        private int preAllocSegments;
+        private int blocksPerSegment;
+        private int maxSegments;
+
+        /**
+         * Columnar block pool builder
+         * @param memoryArena   memory arena
+         * @param clazz         native class
+         */
+        public Builder(final Arena memoryArena, final Class<N> clazz) {
+            this.memoryArena = memoryArena;
+            this.clazz = clazz;
+            preAllocSegments = 1;
+            maxSegments = Integer.MAX_VALUE;
+        }
+
+        public Builder<N> blocksPerSegment(final int blocks) {
+            this.blocksPerSegment = blocks;
+            return this;
+        }
+
+        public Builder<N> allocatedSegments(final int segments) {
+            this.preAllocSegments = segments;
+            return this;
+        }
+
+        /**
+         * Bound the pool to a maximal number of segments
+         * @param segments maximal number of segments
+         * @return builder
+         */
+        public Builder<N> maxSegments(final int segments) {
+            this.maxSegments = segments;
+            return this;
+        }
+
+        /**
+         * Builds a columnar memory pool
+         * @return Constructed ColumnarBlockPool of type N
+         * @throws IllegalArgumentException null memory session or flyweight class, invalid segments or blocks
+         */
+        public ColumnarBlockPool<N> build() {
+            if (memoryArena == null || clazz == null) {
+                throw new IllegalArgumentException("null memory session or flyweight class");
+            }
+
+            final Constructor<N> constructor;
+            final int encodedLength;
+            try {
+                constructor = clazz.getDeclaredConstructor();
+                encodedLength = constructor.newInstance().encodedLength();
+            } catch (ReflectiveOperationException | RuntimeException error) {
+                throw new IllegalArgumentException("flyweight instantiation");
+            }
+            if (blocksPerSegment <= 0 || encodedLength <= 0 || preAllocSegments <= 0 ||
+                preAllocSegments > maxSegments) {
+                throw new IllegalArgumentException("invalid allocated segments or blocks");
+            }
+            return new ColumnarBlockPool<>(memoryArena, constructor, encodedLength, blocksPerSegment, preAllocSegments,
+                maxSegments);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package org.limitless.fsmp4j;
+
+import java.lang.foreign.Arena;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Epoch based deferred reclamation for blocks read by other threads than the writer.
+ * @param <T> flyweight type
+ *
+ * Readers enter an epoch before they get blocks from the pool and exit it when they are done with
+ * the blocks. The writer frees blocks through the reclaimer, which defers them to a limbo list
+ * tagged with the current epoch. A reclamation advances the global epoch and returns the limbo
+ * blocks to the pool once every active reader has entered a later epoch, so a block is never
+ * reused while a reader may still read it.
+ *
+ * The arenas of segment memory replaced by the writer, e.g. by a tier migration of a
+ * TieredBlockPool, are deferred the same way and closed once no reader can read them anymore.
+ *
+ * The writer, that is the thread calling free and reclaim, must be the only thread that allocates
+ * and frees blocks in the pool. Readers only get blocks with addresses published by the writer.
+ */
+public final class EpochReclaimer<T extends BlockFlyweight> {
+
+    public static final int LIMBO_CAPACITY = 1024;
+
+    private static final long IDLE = Long.MAX_VALUE;
+
+    private final BlockPool<T> pool;
+    private final AtomicLong globalEpoch;
+    private volatile Reader<?>[] readers;
+
+    private long[] limboAddresses;
+    private long[] limboEpochs;
+    private int limboHead;
+    private int limboCount;
+    private final ArrayDeque<LimboArena> limboArenas;
+
+    /**
+     * Constructor
+     * @param pool the pool of the blocks
+     * @throws IllegalArgumentException null pool
+     */
+    public EpochReclaimer(final BlockPool<T> pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("null pool");
+        }
+        this.pool = pool;
+        globalEpoch = new AtomicLong();
+        readers = new Reader<?>[0];
+        limboAddresses = new long[LIMBO_CAPACITY];
+        limboEpochs = new long[LIMBO_CAPACITY];
+        limboArenas = new ArrayDeque<>();
+    }
+
+    /**
+     * The pool of the blocks
+     * @return pool
+     */
+    public BlockPool<T> pool() {
+        return pool;
+    }
+
+    /**
+     * Register a reader, each reader thread needs its own reader
+     * @return reader
+     */
+    public synchronized Reader<T> register() {
+        final Reader<T> reader = new Reader<>(this);
+        final Reader<?>[] current = readers;
+        final Reader<?>[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = reader;
+        readers = updated;
+        return reader;
+    }
+
+    /**
+     * The current global epoch
+     * @return epoch
+     */
+    public long epoch() {
+        return globalEpoch.get();
+    }
+
+    /**
+     * The number of freed blocks waiting for reclamation
+     * @return blocks
+     */
+    public int limboCount() {
+        return limboCount;
+    }
+
+    /**
+     * Free a block when no reader can read it anymore. The block must be unreachable for readers
+     * that enter an epoch after this call.
+     * @param address block address
+     * @throws IllegalArgumentException invalid address
+     */
+    public void free(final long address) {
+        if (address <= 0) {
+            throw new IllegalArgumentException("invalid address");
+        }
+        if (limboCount == limboAddresses.length && reclaim() == 0) {
+            grow();
+        }
+
+        final int position = (limboHead + limboCount) & (limboAddresses.length - 1);
+        limboAddresses[position] = address;
+        limboEpochs[position] = globalEpoch.get();
+        ++limboCount;
+    }
+
+    /**
+     * The number of replaced arenas waiting to be closed
+     * @return arenas
+     */
+    public int limboArenas() {
+        return limboArenas.size();
+    }
+
+    /**
+     * Close an arena when no reader can read its memory anymore. The memory must be unreachable for
+     * readers that enter an epoch after this call.
+     * @param arena arena
+     * @throws IllegalArgumentException null arena
+     */
+    public void close(final Arena arena) {
+        if (arena == null) {
+            throw new IllegalArgumentException("null arena");
+        }
+        limboArenas.addLast(new LimboArena(arena, globalEpoch.get()));
+    }
+
+    /**
+     * Advance the global epoch, return the blocks that no active reader can read to the pool and
+     * close the arenas that no active reader can read.
+     * @return the number of freed blocks
+     */
+    public int reclaim() {
+        globalEpoch.incrementAndGet();
+        long minimum = IDLE;
+        for (final Reader<?> reader : readers) {
+            minimum = Math.min(minimum, reader.epoch);
+        }
+
+        final int mask = limboAddresses.length - 1;
+        int freed = 0;
+        while (limboCount > 0 && limboEpochs[limboHead] < minimum) {
+            pool.free(limboAddresses[limboHead]);
+            limboHead = (limboHead + 1) & mask;
+            --limboCount;
+            ++freed;
+        }
+        while (!limboArenas.isEmpty() && limboArenas.peekFirst().epoch() < minimum) {
+            limboArenas.pollFirst().arena().close();
+        }
+        return freed;
+    }
+
+    private void grow() {
+        final int capacity = limboAddresses.length;
+        final long[] addresses = new long[capacity << 1];
+        final long[] epochs = new long[capacity << 1];
+        for (int index = 0; index < limboCount; ++index) {
+            final int position = (limboHead + index) & (capacity - 1);
+            addresses[index] = limboAddresses[position];
+            epochs[index] = limboEpochs[position];
+        }
+        limboAddresses = addresses;
+        limboEpochs = epochs;
+        limboHead = 0;
+    }
+
+    private record LimboArena(Arena arena, long epoch) {
+    }
+
+    private synchronized void deregister(final Reader<?> reader) {
+        final Reader<?>[] current = readers;
+        for (int index = 0; index < current.length; ++index) {
+            if (current[index] == reader) {
+                final Reader<?>[] updated = new Reader<?>[current.length - 1];
+                System.arraycopy(current, 0, updated, 0, index);
+                System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+                readers = updated;
+                return;
+            }
+        }
+    }
+
+    /**
+     * A reader of blocks, not shared between threads
+     * @param <T> flyweight type
+     */
+    public static final class Reader<T extends BlockFlyweight> implements AutoCloseable {
+
+        private static final VarHandle EPOCH;
+
+        static {
+            try {
+                EPOCH = MethodHandles.lookup().findVarHandle(Reader.class, "epoch", long.class);
+            } catch (ReflectiveOperationException error) {
+                throw new ExceptionInInitializerError(error);
+            }
+        }
+
+        private final EpochReclaimer<T> reclaimer;
+        private volatile long epoch;
+
+        private Reader(final EpochReclaimer<T> reclaimer) {
+            this.reclaimer = reclaimer;
+            epoch = IDLE;
+        }
+
+        /**
+         * Enter the current epoch before reading blocks
+         */
+        public void enter() {
+            long current;
+            do {
+                current = reclaimer.globalEpoch.get();
+                epoch = current;
+            } while (current != reclaimer.globalEpoch.get());
+        }
+
+        /**
+         * Exit the epoch when done reading blocks, flyweights must not be used after exit
+         */
+        public void exit() {
+            EPOCH.setRelease(this, IDLE);
+        }
+
+        /**
+         * Wrap a block inside the epoch
+         * @param address block address
+         * @param block the flyweight
+         * @return the wrapped block
+         * @throws IllegalStateException reader has not entered an epoch
+         */
+        public T get(final long address, final T block) {
+            if (epoch == IDLE) {
+                throw new IllegalStateException("reader is not in an epoch");
+            }
+            return reclaimer.pool.get(address, block);
+        }
+
+        /**
+         * Deregister the reader
+         */
+        @Override
+        public void close() {
+            exit();
+            reclaimer.deregister(this);
+        }
+    }
+}
@@ -0,0 +1,626 @@
+package org.limitless.fsmp4j;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Bulk kernels over a long or int field at a fixed offset in every block.
+ *
+ * The segment kernels visit count fields starting at offset and stride bytes apart, which is a
+ * field of consecutive pool blocks with stride block length, or a column of a columnar pool with
+ * stride field length. The pool kernels visit the field of every allocated block of a pool with
+ * the BITMAP policy, they split each segment into runs of consecutive blocks not in the free bitmap
+ * and run the segment kernel over every run. A segment without free blocks is a single run. Pools
+ * with free lists are rejected, since a free block there is only told apart from a live block by
+ * its contents. The pool must not be changed during a kernel.
+ *
+ * When the jdk.incubator.vector module is present and the optional fsmp4j-vector artifact is on
+ * the class path, the kernels load whole vectors and mask the lanes of the field, provided the
+ * stride fits in a vector. Otherwise, and for the remaining
+ * fields, the kernels fall back to scalar loops.
+ */
+public final class FieldKernels {
+
+    /**
+     * Comparison of a field value with an operand
+     */
+    public enum Comparison {
+        EQ, NE, LT, LE, GT, GE;
+
+        boolean test(final long value, final long operand) {
+            return switch (this) {
+                case EQ -> value == operand;
+                case NE -> value != operand;
+                case LT -> value < operand;
+                case LE -> value <= operand;
+                case GT -> value > operand;
+                case GE -> value >= operand;
+            };
+        }
+    }
+
+    public static final int NOT_FOUND = -1;
+
+    private static final VectorKernels VECTOR = vectorKernels();
+
+    private FieldKernels() {
+    }
+
+    private static VectorKernels vectorKernels() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            return (VectorKernels) Class.forName("org.limitless.fsmp4j.VectorFieldKernels")
+                .getDeclaredConstructor().newInstance();
+        } catch (final ReflectiveOperationException | LinkageError exception) {
+            return null;
+        }
+    }
+
+    /**
+     * Check if the kernels use the vector API
+     * @return true if vectorized
+     */
+    public static boolean isVectorized() {
+        return VECTOR != null;
+    }
+
+    /**
+     * Sum long fields
+     * @param segment memory segment
+     * @param offset segment offset of the first field
+     * @param stride bytes between fields
+     * @param count number of fields
+     * @return sum
+     * @throws IllegalArgumentException invalid segment, offset, stride or count
+     */
+    public static long sumLong(final MemorySegment segment, final long offset, final long stride, final int count) {
+        checkFields(segment, offset, stride, count, Long.BYTES);
+        int index = 0;
+        long sum = 0;
+        if (VECTOR != null && VECTOR.supportsLong(offset, stride)) {
+            index = VECTOR.longFields(segment, offset, stride, count);
+            sum = VECTOR.sumLong(segment, offset, stride, index);
+        }
+        for (; index < count; ++index) {
+            sum += segment.get(ValueLayout.JAVA_LONG, offset + index * stride);
+        }
+        return sum;
+    }
+
+    /**
+     * Minimum of long fields
+     * @param segment memory segment
+     * @param offset segment offset of the first field
+     * @param stride bytes between fields
+     * @param count number of fields
+     * @return minimum or Long.MAX_VALUE if no fields
+     * @throws IllegalArgumentException invalid segment, offset, stride or count
+     */
+    public static long minLong(final MemorySegment segment, final long offset, final long stride, final int count) {
+        checkFields(segment, offset, stride, count, Long.BYTES);
+        int index = 0;
+        long min = Long.MAX_VALUE;
+        if (VECTOR != null && VECTOR.supportsLong(offset, stride)) {
+            index = VECTOR.longFields(segment, offset, stride, count);
+            min = VECTOR.minLong(segment, offset, stride, index);
+        }
+        for (; index < count; ++index) {
+            min = Math.min(min, segment.get(ValueLayout.JAVA_LONG, offset + index * stride));
+        }
+        return min;
+    }
+
+    /**
+     * Maximum of long fields
+     * @param segment memory segment
+     * @param offset segment offset of the first field
+     * @param stride bytes between fields
+     * @param count number of fields
+     * @return maximum or Long.MIN_VALUE if no fields
+     * @throws IllegalArgumentException invalid segment, offset, stride or count
+     */
+    public static long maxLong(final MemorySegment segment, final long offset, final long stride, final int count) {
+        checkFields(segment, offset, stride, count, Long.BYTES);
+        int index = 0;
+        long max = Long.MIN_VALUE;
+        if (VECTOR != null && VECTOR.supportsLong(offset, stride)) {
+            index = VECTOR.longFields(segment, offset, stride, count);
+            max = VECTOR.maxLong(segment, offset, stride, index);
+        }
+        for (; index < count; ++index) {
+            max = Math.max(max, segment.get(ValueLayout.JAVA_LONG, offset + index * stride));
+        }
+        return max;
+    }
+
+    /**
+     * Count long fields matching a comparison
+     * @param segment memory segment
+     * @param offset segment offset of the first field
+     * @param stride bytes between fields
+     * @param count number of fields
+     * @param comparison comparison of field and operand
+     * @param operand operand
+     * @return number of matching fields
+     * @throws IllegalArgumentException invalid segment, offset, stride, count or comparison
+     */
+    public static int countLong(final MemorySegment segment, final long offset, final long stride, final int count,
+                                final Comparison comparison, final long operand) {
+        checkFields(segment, offset, stride, count, Long.BYTES);
+        checkComparison(comparison);
+        int index = 0;
+        int matches = 0;
+        if (VECTOR != null && VECTOR.supportsLong(offset, stride)) {
+            index = VECTOR.longFields(segment, offset, stride, count);
+            matches = VECTOR.countLong(segment, offset, stride, index, comparison, operand);
+        }
+        for (; index < count; ++index) {
+            if (comparison.test(segment.get(ValueLayout.JAVA_LONG, offset + index * stride), operand)) {
+                ++matches;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Find the first long field matching a comparison
+     * @param segment memory segment
+     * @param offset segment offset of the first field
+     * @param stride bytes between fields
+     * @param count number of fields
+     * @param comparison comparison of field and operand
+     * @param operand operand
+     * @return index of the first matching field or NOT_FOUND
+     * @throws IllegalArgumentException invalid segment, offset, stride, count or comparison
+     */
+    public static int findFirstLong(final MemorySegment segment, final long offset, final long stride, final int count,
+                                    final Comparison comparison, final long operand) {
+        checkFields(segment, offset, stride, count, Long.BYTES);
+        checkComparison(comparison);
+        int index = 0;
+        if (VECTOR != null && VECTOR.supportsLong(offset, stride)) {
+            index = VECTOR.longFields(segment, offset, stride, count);
+            final int found = VECTOR.findFirstLong(segment, offset, stride, index, comparison, operand);
+            if (found != NOT_FOUND) {
+                return found;
+            }
+        }
+        for (; index < count; ++index) {
+            if (comparison.test(segment.get(ValueLayout.JAVA_LONG, offset + index * stride), operand)) {
+                return index;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Sum int fields
+     * @param segment memory segment
+     * @param offset segment offset of the first field
+     * @param stride bytes between fields
+     * @param count number of fields
+     * @return sum
+     * @throws IllegalArgumentException invalid segment, offset, stride or count
+     */
+    public static long sumInt(final MemorySegment segment, final long offset, final long stride, final int count) {
+        checkFields(segment, offset, stride, count, Integer.BYTES);
+        int index = 0;
+        long sum = 0;
+        if (VECTOR != null && VECTOR.supportsInt(offset, stride)) {
+            index = VECTOR.intFields(segment, offset, stride, count);
+            sum = VECTOR.sumInt(segment, offset, stride, index);
+        }
+        for (; index < count; ++index) {
+            sum += segment.get(ValueLayout.JAVA_INT, offset + index * stride);
+        }
+        return sum;
+    }
+
+    /**
+     * Minimum of int fields
+     * @param segment memory segment
+     * @param offset segment offset of the first field
+     * @param stride bytes between fields
+     * @param count number of fields
+     * @return minimum or Integer.MAX_VALUE if no fields
+     * @throws IllegalArgumentException invalid segment, offset, stride or count
+     */
+    public static int minInt(final MemorySegment segment, final long offset, final long stride, final int count) {
+        checkFields(segment, offset, stride, count, Integer.BYTES);
+        int index = 0;
+        int min = Integer.MAX_VALUE;
+        if (VECTOR != null && VECTOR.supportsInt(offset, stride)) {
+            index = VECTOR.intFields(segment, offset, stride, count);
+            min = VECTOR.minInt(segment, offset, stride, index);
+        }
+        for (; index < count; ++index) {
+            min = Math.min(min, segment.get(ValueLayout.JAVA_INT, offset + index * stride));
+        }
+        return min;
+    }
+
+    /**
+     * Maximum of int fields
+     * @param segment memory segment
+     * @param offset segment offset of the first field
+     * @param stride bytes between fields
+     * @param count number of fields
+     * @return maximum or Integer.MIN_VALUE if no fields
+     * @throws IllegalArgumentException invalid segment, offset, stride or count
+     */
+    public static int maxInt(final MemorySegment segment, final long offset, final long stride, final int count) {
+        checkFields(segment, offset, stride, count, Integer.BYTES);
+        int index = 0;
+        int max = Integer.MIN_VALUE;
+        if (VECTOR != null && VECTOR.supportsInt(offset, stride)) {
+            index = VECTOR.intFields(segment, offset, stride, count);
+            max = VECTOR.maxInt(segment, offset, stride, index);
+        }
+        for (; index < count; ++index) {
+            max = Math.max(max, segment.get(ValueLayout.JAVA_INT, offset + index * stride));
+        }
+        return max;
+    }
+
+    /**
+     * Count int fields matching a comparison
+     * @param segment memory segment
+     * @param offset segment offset of the first field
+     * @param stride bytes between fields
+     * @param count number of fields
+     * @param comparison comparison of field and operand
+     * @param operand operand
+     * @return number of matching fields
+     * @throws IllegalArgumentException invalid segment, offset, stride, count or comparison
+     */
+    public static int countInt(final MemorySegment segment, final long offset, final long stride, final int count,
+                               final Comparison comparison, final int operand) {
+        checkFields(segment, offset, stride, count, Integer.BYTES);
+        checkComparison(comparison);
+        int index = 0;
+        int matches = 0;
+        if (VECTOR != null && VECTOR.supportsInt(offset, stride)) {
+            index = VECTOR.intFields(segment, offset, stride, count);
+            matches = VECTOR.countInt(segment, offset, stride, index, comparison, operand);
+        }
+        for (; index < count; ++index) {
+            if (comparison.test(segment.get(ValueLayout.JAVA_INT, offset + index * stride), operand)) {
+                ++matches;
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Find the first int field matching a comparison
+     * @param segment memory segment
+     * @param offset segment offset of the first field
+     * @param stride bytes between fields
+     * @param count number of fields
+     * @param comparison comparison of field and operand
+     * @param operand operand
+     * @return index of the first matching field or NOT_FOUND
+     * @throws IllegalArgumentException invalid segment, offset, stride, count or comparison
+     */
+    public static int findFirstInt(final MemorySegment segment, final long offset, final long stride, final int count,
+                                   final Comparison comparison, final int operand) {
+        checkFields(segment, offset, stride, count, Integer.BYTES);
+        checkComparison(comparison);
+        int index = 0;
+        if (VECTOR != null && VECTOR.supportsInt(offset, stride)) {
+            index = VECTOR.intFields(segment, offset, stride, count);
+            final int found = VECTOR.findFirstInt(segment, offset, stride, index, comparison, operand);
+            if (found != NOT_FOUND) {
+                return found;
+            }
+        }
+        for (; index < count; ++index) {
+            if (comparison.test(segment.get(ValueLayout.JAVA_INT, offset + index * stride), operand)) {
+                return index;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Sum a long field of every allocated block
+     * @param pool block pool
+     * @param fieldOffset field offset in flyweight
+     * @return sum
+     * @throws IllegalArgumentException null pool or invalid field
+     */
+    public static long sumLong(final BlockPool<?> pool, final int fieldOffset) {
+        checkField(pool, fieldOffset, Long.BYTES);
+        long sum = 0;
+        for (int segment = 0; segment < pool.usedSegments(); ++segment) {
+            final int blocks = pool.initiatedBlocks(segment);
+            for (int start = runStart(pool, segment, 0, blocks), end; start < blocks;
+                 start = runStart(pool, segment, end, blocks)) {
+                end = runEnd(pool, segment, start, blocks);
+                sum += sumLong(pool.segment(segment), fieldOffset(pool, fieldOffset, start), pool.blockLength(),
+                    end - start);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Minimum of a long field of every allocated block
+     * @param pool block pool
+     * @param fieldOffset field offset in flyweight
+     * @return minimum or Long.MAX_VALUE if no blocks
+     * @throws IllegalArgumentException null pool or invalid field
+     */
+    public static long minLong(final BlockPool<?> pool, final int fieldOffset) {
+        checkField(pool, fieldOffset, Long.BYTES);
+        long min = Long.MAX_VALUE;
+        for (int segment = 0; segment < pool.usedSegments(); ++segment) {
+            final int blocks = pool.initiatedBlocks(segment);
+            for (int start = runStart(pool, segment, 0, blocks), end; start < blocks;
+                 start = runStart(pool, segment, end, blocks)) {
+                end = runEnd(pool, segment, start, blocks);
+                min = Math.min(min, minLong(pool.segment(segment), fieldOffset(pool, fieldOffset, start), pool.blockLength(),
+                    end - start));
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Maximum of a long field of every allocated block
+     * @param pool block pool
+     * @param fieldOffset field offset in flyweight
+     * @return maximum or Long.MIN_VALUE if no blocks
+     * @throws IllegalArgumentException null pool or invalid field
+     */
+    public static long maxLong(final BlockPool<?> pool, final int fieldOffset) {
+        checkField(pool, fieldOffset, Long.BYTES);
+        long max = Long.MIN_VALUE;
+        for (int segment = 0; segment < pool.usedSegments(); ++segment) {
+            final int blocks = pool.initiatedBlocks(segment);
+            for (int start = runStart(pool, segment, 0, blocks), end; start < blocks;
+                 start = runStart(pool, segment, end, blocks)) {
+                end = runEnd(pool, segment, start, blocks);
+                max = Math.max(max, maxLong(pool.segment(segment), fieldOffset(pool, fieldOffset, start), pool.blockLength(),
+                    end - start));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Count the allocated blocks with a long field matching a comparison
+     * @param pool block pool
+     * @param fieldOffset field offset in flyweight
+     * @param comparison comparison of field and operand
+     * @param operand operand
+     * @return number of matching blocks
+     * @throws IllegalArgumentException null pool or comparison, invalid field
+     */
+    public static int countLong(final BlockPool<?> pool, final int fieldOffset, final Comparison comparison,
+                                final long operand) {
+        checkField(pool, fieldOffset, Long.BYTES);
+        int matches = 0;
+        for (int segment = 0; segment < pool.usedSegments(); ++segment) {
+            final int blocks = pool.initiatedBlocks(segment);
+            for (int start = runStart(pool, segment, 0, blocks), end; start < blocks;
+                 start = runStart(pool, segment, end, blocks)) {
+                end = runEnd(pool, segment, start, blocks);
+                matches += countLong(pool.segment(segment), fieldOffset(pool, fieldOffset, start), pool.blockLength(),
+                    end - start, comparison, operand);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Find the first allocated block with a long field matching a comparison
+     * @param pool block pool
+     * @param fieldOffset field offset in flyweight
+     * @param comparison comparison of field and operand
+     * @param operand operand
+     * @return the block address or 0 if not found
+     * @throws IllegalArgumentException null pool or comparison, invalid field
+     */
+    public static long findFirstLong(final BlockPool<?> pool, final int fieldOffset, final Comparison comparison,
+                                     final long operand) {
+        checkField(pool, fieldOffset, Long.BYTES);
+        for (int segment = 0; segment < pool.usedSegments(); ++segment) {
+            final int blocks = pool.initiatedBlocks(segment);
+            for (int start = runStart(pool, segment, 0, blocks), end; start < blocks;
+                 start = runStart(pool, segment, end, blocks)) {
+                end = runEnd(pool, segment, start, blocks);
+                final int block = findFirstLong(pool.segment(segment), fieldOffset(pool, fieldOffset, start),
+                    pool.blockLength(), end - start, comparison, operand);
+                if (block != NOT_FOUND) {
+                    return ByteUtils.pack(segment + 1, start + block);
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Sum an int field of every allocated block
+     * @param pool block pool
+     * @param fieldOffset field offset in flyweight
+     * @return sum
+     * @throws IllegalArgumentException null pool or invalid field
+     */
+    public static long sumInt(final BlockPool<?> pool, final int fieldOffset) {
+        checkField(pool, fieldOffset, Integer.BYTES);
+        long sum = 0;
+        for (int segment = 0; segment < pool.usedSegments(); ++segment) {
+            final int blocks = pool.initiatedBlocks(segment);
+            for (int start = runStart(pool, segment, 0, blocks), end; start < blocks;
+                 start = runStart(pool, segment, end, blocks)) {
+                end = runEnd(pool, segment, start, blocks);
+                sum += sumInt(pool.segment(segment), fieldOffset(pool, fieldOffset, start), pool.blockLength(),
+                    end - start);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Minimum of an int field of every allocated block
+     * @param pool block pool
+     * @param fieldOffset field offset in flyweight
+     * @return minimum or Integer.MAX_VALUE if no blocks
+     * @throws IllegalArgumentException null pool or invalid field
+     */
+    public static int minInt(final BlockPool<?> pool, final int fieldOffset) {
+        checkField(pool, fieldOffset, Integer.BYTES);
+        int min = Integer.MAX_VALUE;
+        for (int segment = 0; segment < pool.usedSegments(); ++segment) {
+            final int blocks = pool.initiatedBlocks(segment);
+            for (int start = runStart(pool, segment, 0, blocks), end; start < blocks;
+                 start = runStart(pool, segment, end, blocks)) {
+                end = runEnd(pool, segment, start, blocks);
+                min = Math.min(min, minInt(pool.segment(segment), fieldOffset(pool, fieldOffset, start), pool.blockLength(),
+                    end - start));
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Maximum of an int field of every allocated block
+     * @param pool block pool
+     * @param fieldOffset field offset in flyweight
+     * @return maximum or Integer.MIN_VALUE if no blocks
+     * @throws IllegalArgumentException null pool or invalid field
+     */
+    public static int maxInt(final BlockPool<?> pool, final int fieldOffset) {
+        checkField(pool, fieldOffset, Integer.BYTES);
+        int max = Integer.MIN_VALUE;
+        for (int segment = 0; segment < pool.usedSegments(); ++segment) {
+            final int blocks = pool.initiatedBlocks(segment);
+            for (int start = runStart(pool, segment, 0, blocks), end; start < blocks;
+                 start = runStart(pool, segment, end, blocks)) {
+                end = runEnd(pool, segment, start, blocks);
+                max = Math.max(max, maxInt(pool.segment(segment), fieldOffset(pool, fieldOffset, start), pool.blockLength(),
+                    end - start));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Count the allocated blocks with an int field matching a comparison
+     * @param pool block pool
+     * @param fieldOffset field offset in flyweight
+     * @param comparison comparison of field and operand
+     * @param operand operand
+     * @return number of matching blocks
+     * @throws IllegalArgumentException null pool or comparison, invalid field
+     */
+    public static int countInt(final BlockPool<?> pool, final int fieldOffset, final Comparison comparison,
+                               final int operand) {
+        checkField(pool, fieldOffset, Integer.BYTES);
+        int matches = 0;
+        for (int segment = 0; segment < pool.usedSegments(); ++segment) {
+            final int blocks = pool.initiatedBlocks(segment);
+            for (int start = runStart(pool, segment, 0, blocks), end; start < blocks;
+                 start = runStart(pool, segment, end, blocks)) {
+                end = runEnd(pool, segment, start, blocks);
+                matches += countInt(pool.segment(segment), fieldOffset(pool, fieldOffset, start), pool.blockLength(),
+                    end - start, comparison, operand);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Find the first allocated block with an int field matching a comparison
+     * @param pool block pool
+     * @param fieldOffset field offset in flyweight
+     * @param comparison comparison of field and operand
+     * @param operand operand
+     * @return the block address or 0 if not found
+     * @throws IllegalArgumentException null pool or comparison, invalid field
+     */
+    public static long findFirstInt(final BlockPool<?> pool, final int fieldOffset, final Comparison comparison,
+                                    final int operand) {
+        checkField(pool, fieldOffset, Integer.BYTES);
+        for (int segment = 0; segment < pool.usedSegments(); ++segment) {
+            final int blocks = pool.initiatedBlocks(segment);
+            for (int start = runStart(pool, segment, 0, blocks), end; start < blocks;
+                 start = runStart(pool, segment, end, blocks)) {
+                end = runEnd(pool, segment, start, blocks);
+                final int block = findFirstInt(pool.segment(segment), fieldOffset(pool, fieldOffset, start),
+                    pool.blockLength(), end - start, comparison, operand);
+                if (block != NOT_FOUND) {
+                    return ByteUtils.pack(segment + 1, start + block);
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * The first allocated block of a segment at or after a block index, or blocks if none
+     */
+    private static int runStart(final BlockPool<?> pool, final int segment, final int blockIndex, final int blocks) {
+        final int live = pool.liveBlocks(segment);
+        if (live == 0) {
+            return blocks;
+        }
+        if (live == blocks) {
+            return blockIndex;
+        }
+        int index = blockIndex;
+        while (index < blocks && !pool.isAllocated(segment, index)) {
+            ++index;
+        }
+        return index;
+    }
+
+    /**
+     * The first free block of a segment after an allocated block, or blocks if none
+     */
+    private static int runEnd(final BlockPool<?> pool, final int segment, final int blockIndex, final int blocks) {
+        if (pool.liveBlocks(segment) == blocks) {
+            return blocks;
+        }
+        int index = blockIndex + 1;
+        while (index < blocks && pool.isAllocated(segment, index)) {
+            ++index;
+        }
+        return index;
+    }
+
+    private static long fieldOffset(final BlockPool<?> pool, final int fieldOffset, final int blockIndex) {
+        return (long) blockIndex * pool.blockLength() + pool.headerLength() + fieldOffset;
+    }
+
+    private static void checkFields(final MemorySegment segment, final long offset, final long stride, final int count,
+                                    final int length) {
+        if (segment == null || offset < 0 || stride < length || count < 0) {
+            throw new IllegalArgumentException("null segment or invalid offset, stride or count");
+        }
+        if (count > 0 && offset + (count - 1) * stride + length > segment.byteSize()) {
+            throw new IllegalArgumentException("fields are outside the segment");
+        }
+    }
+
+    private static void checkField(final BlockPool<?> pool, final int fieldOffset, final int length) {
+        if (pool == null) {
+            throw new IllegalArgumentException("null pool");
+        }
+        if (pool.allocationPolicy() != BlockPool.AllocationPolicy.BITMAP) {
+            throw new IllegalArgumentException("pool kernels require the BITMAP policy");
+        }
+        if (fieldOffset < 0 || fieldOffset + length > pool.encodedLength()) {
+            throw new IllegalArgumentException("invalid field");
+        }
+    }
+
+    private static void checkComparison(final Comparison comparison) {
+        if (comparison == null) {
+            throw new IllegalArgumentException("null comparison");
+        }
+    }
+}
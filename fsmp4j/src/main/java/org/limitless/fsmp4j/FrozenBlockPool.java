@@ -0,0 +1,152 @@
+package org.limitless.fsmp4j;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.VarHandle;
+
+/**
+ * A read-only view of the blocks of a frozen pool.
+ * @param <T> flyweight type
+ *
+ * The view holds read-only slices of the pool segments in final fields and wraps flyweights
+ * without locking, so that any number of threads can read the blocks once the view is published
+ * to them, for instance through a final or volatile field or by starting the reader threads after
+ * the freeze. A flyweight wrapped by the view is read-only, its setters throw
+ * UnsupportedOperationException.
+ *
+ * A view sharing the pool segments is valid until the pool is closed, and needs a pool arena
+ * accessible by the reader threads. A contiguous view owns a copy of the segments laid out back to
+ * back in one shared allocation, which keeps the block addresses, and is valid until it is closed.
+ */
+public final class FrozenBlockPool<T extends BlockFlyweight> implements AutoCloseable {
+
+    private final MemorySegment[] segments;
+    private final int[] blocks;
+    private final long liveBlocks;
+    private final int blockLength;
+    private final int headerLength;
+    private final int encodedLength;
+    private final Arena arena;
+
+    FrozenBlockPool(final MemorySegment[] segments,
+                    final int[] blocks,
+                    final long liveBlocks,
+                    final int blockLength,
+                    final int headerLength,
+                    final int encodedLength,
+                    final int blocksPerSegment,
+                    final long segmentAlignment,
+                    final boolean contiguous) {
+        this.blocks = blocks;
+        this.liveBlocks = liveBlocks;
+        this.blockLength = blockLength;
+        this.headerLength = headerLength;
+        this.encodedLength = encodedLength;
+
+        final long segmentSize = (long) blocksPerSegment * blockLength;
+        MemorySegment memory = null;
+        if (contiguous) {
+            arena = Arena.ofShared();
+            try {
+                memory = arena.allocate(segmentSize * segments.length, segmentAlignment);
+            } catch (RuntimeException | OutOfMemoryError error) {
+                arena.close();
+                throw new IllegalStateException("contiguous segment allocation failed", error);
+            }
+        } else {
+            arena = null;
+        }
+        this.segments = new MemorySegment[segments.length];
+        for (int segmentIndex = 0; segmentIndex < segments.length; ++segmentIndex) {
+            MemorySegment segment = segments[segmentIndex];
+            if (segment == null) {
+                continue;
+            }
+            if (memory != null) {
+                final MemorySegment copy = memory.asSlice(segmentIndex * segmentSize, segmentSize);
+                MemorySegment.copy(segment, 0, copy, 0, (long) blocks[segmentIndex] * blockLength);
+                segment = copy;
+            }
+            this.segments[segmentIndex] = segment.asReadOnly();
+        }
+        VarHandle.releaseFence();
+    }
+
+    /**
+     * Wrap a block for reading
+     * @param address block address
+     * @param block a flyweight
+     * @return the wrapped read-only block
+     * @throws IllegalArgumentException null block or invalid address
+     * @throws IllegalStateException reading a closed contiguous view
+     */
+    public T get(final long address, final T block) {
+        if (block == null) {
+            throw new IllegalArgumentException("null block");
+        }
+        final int segmentIndex = ByteUtils.highBits(address) - 1;
+        final int blockIndex = ByteUtils.lowBits(address);
+        if (segmentIndex < 0 || segmentIndex >= segments.length || blockIndex < 0 ||
+            blockIndex >= blocks[segmentIndex]) {
+            throw new IllegalArgumentException("invalid address");
+        }
+        block.wrap(segments[segmentIndex], segmentIndex, blockIndex, (long) blockIndex * blockLength + headerLength);
+        return block;
+    }
+
+    /**
+     * The number of allocated blocks when the pool was frozen
+     * @return blocks
+     */
+    public long liveBlocks() {
+        return liveBlocks;
+    }
+
+    /**
+     * The number of segments
+     * @return segments
+     */
+    public int segments() {
+        return segments.length;
+    }
+
+    /**
+     * The number of data bytes in a block
+     * @return bytes
+     */
+    public int encodedLength() {
+        return encodedLength;
+    }
+
+    /**
+     * The number of bytes between consecutive blocks in a segment
+     * @return bytes
+     */
+    public int blockLength() {
+        return blockLength;
+    }
+
+    /**
+     * Check if the view owns a contiguous copy of the segments
+     * @return true if contiguous
+     */
+    public boolean isContiguous() {
+        return arena != null;
+    }
+
+    /**
+     * Free the contiguous copy, a view sharing the pool segments is closed with the pool
+     */
+    @Override
+    public void close() {
+        if (arena != null && arena.scope().isAlive()) {
+            arena.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FrozenBlockPool{segments=" + segments.length + ", liveBlocks=" + liveBlocks + ", blockLength=" +
+            blockLength + ", contiguous=" + isContiguous() + "}";
+    }
+}
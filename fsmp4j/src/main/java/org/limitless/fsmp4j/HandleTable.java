@@ -0,0 +1,215 @@
+package org.limitless.fsmp4j;
+
+import java.util.Arrays;
+
+/**
+ * Indirect handles to blocks of a pool, so that blocks can be moved without invalidating the
+ * references held by the application.
+ * @param <T> flyweight type
+ *
+ * A handle is an index into a table of block addresses. Blocks are allocated, read and freed
+ * through the table, which lets a compaction move the live blocks out of sparse segments into the
+ * free blocks of dense segments, update their table entries and release the emptied segments.
+ * Compaction needs a pool with releasable segments and without a journal, and every allocated
+ * block of a compacted segment must be owned by the table.
+ *
+ * The table is not thread safe, the owning thread must be the only thread using the pool.
+ */
+public final class HandleTable<T extends BlockFlyweight> {
+
+    public static final int INVALID_HANDLE = 0;
+    public static final int INITIAL_CAPACITY = 1024;
+
+    private final BlockPool<T> pool;
+    private long[] entries;     // block address, or the negated next free handle
+    private int limit;          // handles in use or on the free list, excluding handle 0
+    private int freeHandle;
+    private int size;
+
+    /**
+     * The result of a compaction
+     * @param movedBlocks         blocks copied to another segment
+     * @param releasedSegments    segments returned to the arena
+     * @param fragmentationBefore pool fragmentation before the compaction
+     * @param fragmentationAfter  pool fragmentation after the compaction
+     */
+    public record Compaction(int movedBlocks, int releasedSegments, double fragmentationBefore,
+                             double fragmentationAfter) {
+    }
+
+    /**
+     * Constructor
+     * @param pool the pool of the blocks
+     * @throws IllegalArgumentException null pool
+     */
+    public HandleTable(final BlockPool<T> pool) {
+        if (pool == null) {
+            throw new IllegalArgumentException("null pool");
+        }
+        this.pool = pool;
+        entries = new long[INITIAL_CAPACITY];
+        freeHandle = INVALID_HANDLE;
+    }
+
+    /**
+     * The pool of the blocks
+     * @return pool
+     */
+    public BlockPool<T> pool() {
+        return pool;
+    }
+
+    /**
+     * The number of allocated handles
+     * @return handles
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Allocate a block and a handle to it
+     * @param block a flyweight
+     * @return handle
+     * @throws IllegalArgumentException null argument
+     * @throws IllegalStateException the pool is exhausted
+     */
+    public int allocate(final T block) {
+        pool.allocate(block);
+        final int handle;
+        if (freeHandle != INVALID_HANDLE) {
+            handle = freeHandle;
+            freeHandle = (int) -entries[handle];
+        } else {
+            if (limit == Integer.MAX_VALUE - 1) {
+                pool.free(block);
+                throw new IllegalStateException("handle table is full");
+            }
+            handle = ++limit;
+            if (handle >= entries.length) {
+                entries = Arrays.copyOf(entries, (int) Math.min((long) entries.length << 1, Integer.MAX_VALUE));
+            }
+        }
+        entries[handle] = block.address();
+        ++size;
+        return handle;
+    }
+
+    /**
+     * Wrap the block of a handle
+     * @param handle block handle
+     * @param block a flyweight
+     * @return the wrapped block
+     * @throws IllegalArgumentException null block or invalid handle
+     */
+    public T get(final int handle, final T block) {
+        if (block == null) {
+            throw new IllegalArgumentException("null block");
+        }
+        return pool.get(address(handle), block);
+    }
+
+    /**
+     * The current block address of a handle, which changes when the block is moved
+     * @param handle block handle
+     * @return block address
+     * @throws IllegalArgumentException invalid handle
+     */
+    public long address(final int handle) {
+        if (handle <= INVALID_HANDLE || handle > limit || entries[handle] <= 0) {
+            throw new IllegalArgumentException("invalid handle");
+        }
+        return entries[handle];
+    }
+
+    /**
+     * Free the block of a handle and the handle
+     * @param handle block handle
+     * @throws IllegalArgumentException invalid handle
+     */
+    public void free(final int handle) {
+        pool.free(address(handle));
+        entries[handle] = -freeHandle;
+        freeHandle = handle;
+        --size;
+    }
+
+    /**
+     * Move the live blocks of the sparsest segments into the free blocks of the other segments,
+     * and release the emptied segments. A segment is only compacted if all its live blocks are
+     * in the table, and if the other segments have enough free blocks to hold them.
+     * @param maxSegments maximal number of segments to empty
+     * @return compaction result
+     * @throws IllegalArgumentException max segments is not positive
+     * @throws IllegalStateException the pool segments are not releasable
+     */
+    public Compaction compact(final int maxSegments) {
+        if (maxSegments <= 0) {
+            throw new IllegalArgumentException("invalid max segments");
+        }
+        if (!pool.releasableSegments()) {
+            throw new IllegalStateException("pool segments are not releasable");
+        }
+
+        final double before = pool.fragmentation();
+        final int segments = pool.usedSegments();
+        final int[] owned = new int[segments];
+        for (int handle = 1; handle <= limit; ++handle) {
+            if (entries[handle] > 0) {
+                ++owned[ByteUtils.highBits(entries[handle]) - 1];
+            }
+        }
+
+        // sparse segments first, the current segment is still being initiated
+        final int blocksPerSegment = pool.blocksPerSegment();
+        final long[] candidates = new long[segments];
+        int candidateCount = 0;
+        for (int segmentIndex = 0; segmentIndex < segments - 1; ++segmentIndex) {
+            final int live = pool.liveBlocks(segmentIndex);
+            if (pool.initiatedBlocks(segmentIndex) > 0 && live < blocksPerSegment && live == owned[segmentIndex]) {
+                candidates[candidateCount++] = (long) live << Integer.SIZE | segmentIndex;
+            }
+        }
+        Arrays.sort(candidates, 0, candidateCount);
+
+        final boolean[] victims = new boolean[segments];
+        int victimCount = 0;
+        long moving = 0;
+        long spare = pool.freeBlocks();
+        for (int candidate = 0; candidate < candidateCount && victimCount < maxSegments; ++candidate) {
+            final int live = (int) (candidates[candidate] >>> Integer.SIZE);
+            final int free = blocksPerSegment - live;
+            if (moving + live > spare - free) {
+                break;
+            }
+            moving += live;
+            spare -= free;
+            victims[(int) candidates[candidate]] = true;
+            ++victimCount;
+        }
+        if (victimCount == 0) {
+            return new Compaction(0, 0, before, before);
+        }
+
+        pool.detachSegments(victims);
+        int moved = 0;
+        for (int handle = 1; handle <= limit; ++handle) {
+            final long address = entries[handle];
+            if (address > 0 && victims[ByteUtils.highBits(address) - 1]) {
+                entries[handle] = pool.relocate(address);
+                ++moved;
+            }
+        }
+        for (int segmentIndex = 0; segmentIndex < segments; ++segmentIndex) {
+            if (victims[segmentIndex]) {
+                pool.releaseSegment(segmentIndex);
+            }
+        }
+        return new Compaction(moved, victimCount, before, pool.fragmentation());
+    }
+
+    @Override
+    public String toString() {
+        return "HandleTable{ handles = " + size + ", pool = " + pool + " }";
+    }
+}
@@ -0,0 +1,217 @@
+package org.limitless.fsmp4j;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A global budget of off-heap memory shared by block pools.
+ *
+ * Every pool reserves its segment memory from an account in the budget. An account is guaranteed
+ * its minimum number of bytes, memory above the minimum is taken from the part of the budget that
+ * is not guaranteed to, or used by, other accounts. A runaway pool can therefore never starve the
+ * other pools of their guaranteed memory.
+ */
+public final class MemoryBudget {
+
+    private final long limitBytes;
+    private final List<Account> accounts;
+    private long committedBytes;   // sum of max(used, minimum) over all accounts
+
+    /**
+     * Constructor
+     * @param limitBytes global byte limit
+     * @throws IllegalArgumentException invalid limit
+     */
+    public MemoryBudget(final long limitBytes) {
+        if (limitBytes <= 0) {
+            throw new IllegalArgumentException("invalid limit");
+        }
+        this.limitBytes = limitBytes;
+        accounts = new ArrayList<>();
+    }
+
+    /**
+     * Register an account with a guaranteed minimum
+     * @param name account name used in reports
+     * @param minimumBytes guaranteed bytes
+     * @return the account
+     * @throws IllegalArgumentException invalid arguments or the minimum does not fit in the budget
+     */
+    public synchronized Account register(final String name, final long minimumBytes) {
+        if (name == null || minimumBytes < 0) {
+            throw new IllegalArgumentException("null name or invalid minimum");
+        }
+        if (committedBytes + minimumBytes > limitBytes) {
+            throw new IllegalArgumentException("minimum exceeds budget");
+        }
+
+        final Account account = new Account(name, minimumBytes);
+        committedBytes += minimumBytes;
+        accounts.add(account);
+        return account;
+    }
+
+    /**
+     * The global byte limit
+     * @return bytes
+     */
+    public long limitBytes() {
+        return limitBytes;
+    }
+
+    /**
+     * The bytes used by all accounts
+     * @return bytes
+     */
+    public synchronized long usedBytes() {
+        long bytes = 0;
+        for (final Account account : accounts) {
+            bytes += account.usedBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * The bytes that are neither used nor guaranteed to an account
+     * @return bytes
+     */
+    public synchronized long availableBytes() {
+        return limitBytes - committedBytes;
+    }
+
+    /**
+     * The registered accounts
+     * @return a copy of the accounts
+     */
+    public synchronized List<Account> accounts() {
+        return List.copyOf(accounts);
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder builder = new StringBuilder(64 + 64 * accounts.size());
+        builder.append(String.format(Locale.ROOT, "MemoryBudget{ limit = %,d, used = %,d, available = %,d, accounts = [",
+            limitBytes, usedBytes(), availableBytes()));
+        for (int index = 0; index < accounts.size(); ++index) {
+            if (index > 0) {
+                builder.append(", ");
+            }
+            accounts.get(index).append(builder);
+        }
+        return builder.append("] }").toString();
+    }
+
+    /**
+     * A pool account in the memory budget
+     */
+    public final class Account {
+        private final String name;
+        private final long minimumBytes;
+        private long usedBytes;
+        private boolean closed;
+
+        private Account(final String name, final long minimumBytes) {
+            this.name = name;
+            this.minimumBytes = minimumBytes;
+        }
+
+        /**
+         * Reserve memory
+         * @param bytes bytes to reserve
+         * @return false if the reservation exceeds the budget
+         * @throws IllegalArgumentException negative bytes
+         * @throws IllegalStateException closed account
+         */
+        public boolean reserve(final long bytes) {
+            if (bytes < 0) {
+                throw new IllegalArgumentException("negative bytes");
+            }
+            synchronized (MemoryBudget.this) {
+                if (closed) {
+                    throw new IllegalStateException("account is closed");
+                }
+                final long used = usedBytes + bytes;
+                final long delta = Math.max(used, minimumBytes) - Math.max(usedBytes, minimumBytes);
+                if (committedBytes + delta > limitBytes) {
+                    return false;
+                }
+                committedBytes += delta;
+                usedBytes = used;
+                return true;
+            }
+        }
+
+        /**
+         * Release reserved memory, nothing once the account is closed
+         * @param bytes bytes to release
+         * @throws IllegalArgumentException more bytes than reserved
+         */
+        public void release(final long bytes) {
+            synchronized (MemoryBudget.this) {
+                if (closed) {
+                    return;
+                }
+                if (bytes < 0 || bytes > usedBytes) {
+                    throw new IllegalArgumentException("invalid bytes");
+                }
+                final long used = usedBytes - bytes;
+                committedBytes -= Math.max(usedBytes, minimumBytes) - Math.max(used, minimumBytes);
+                usedBytes = used;
+            }
+        }
+
+        /**
+         * Release all memory and the guaranteed minimum, and remove the account from the budget. Pools
+         * of the account may still be closed afterwards, their releases are ignored.
+         */
+        public void close() {
+            synchronized (MemoryBudget.this) {
+                if (!closed) {
+                    closed = true;
+                    committedBytes -= Math.max(usedBytes, minimumBytes);
+                    usedBytes = 0;
+                    accounts.remove(this);
+                }
+            }
+        }
+
+        /**
+         * Account name
+         * @return name
+         */
+        public String name() {
+            return name;
+        }
+
+        /**
+         * Guaranteed bytes
+         * @return bytes
+         */
+        public long minimumBytes() {
+            return minimumBytes;
+        }
+
+        /**
+         * Reserved bytes
+         * @return bytes
+         */
+        public long usedBytes() {
+            synchronized (MemoryBudget.this) {
+                return usedBytes;
+            }
+        }
+
+        @Override
+        public String toString() {
+            synchronized (MemoryBudget.this) {
+                return append(new StringBuilder(64)).toString();
+            }
+        }
+
+        private StringBuilder append(final StringBuilder builder) {
+            return builder.append(String.format(Locale.ROOT, "%s{ used = %,d, minimum = %,d }",
+                name, usedBytes, minimumBytes));
+        }
+    }
+}
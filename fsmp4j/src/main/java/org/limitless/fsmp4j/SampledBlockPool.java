@@ -0,0 +1,127 @@
+package org.limitless.fsmp4j;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Locale;
+
+/**
+ * A block pool whose gets are sampled per segment, for the access heat map of a segment report
+ * without tiering.
+ * @param <T> flyweight type
+ *
+ * The gets through the sampled pool are sampled as in a tiered pool, one get in a sample period on
+ * average is counted for the segment of the block, and any thread may get blocks. The samples
+ * decay only when the owner halves them. Gets on the underlying pool and on lock-free readers are
+ * not sampled.
+ */
+public final class SampledBlockPool<T extends BlockFlyweight> {
+
+    public static final int DEFAULT_SAMPLE_PERIOD = TieredBlockPool.DEFAULT_SAMPLE_PERIOD;
+
+    private final BlockPool<T> pool;
+    private final AccessSamples accessSamples;
+
+    /**
+     * Sample the gets of a pool with the default sample period
+     * @param pool block pool
+     * @throws IllegalArgumentException null pool
+     */
+    public SampledBlockPool(final BlockPool<T> pool) {
+        this(pool, DEFAULT_SAMPLE_PERIOD);
+    }
+
+    /**
+     * Sample the gets of a pool
+     * @param pool block pool
+     * @param samplePeriod gets per sampled get
+     * @throws IllegalArgumentException null pool or invalid sample period
+     */
+    public SampledBlockPool(final BlockPool<T> pool, final int samplePeriod) {
+        if (pool == null || samplePeriod <= 0) {
+            throw new IllegalArgumentException("null pool or invalid sample period");
+        }
+        this.pool = pool;
+        accessSamples = new AccessSamples(samplePeriod, pool.usedSegments());
+    }
+
+    /**
+     * The underlying pool, its gets are not sampled
+     * @return pool
+     */
+    public BlockPool<T> pool() {
+        return pool;
+    }
+
+    /**
+     * Allocate a block
+     * @param block a flyweight
+     * @return the wrapped block
+     * @throws IllegalArgumentException null block
+     * @throws IllegalStateException the pool is exhausted
+     */
+    public T allocate(final T block) {
+        return pool.allocate(block);
+    }
+
+    /**
+     * Wrap a block and sample the get
+     * @param address block address
+     * @param block the wrapped block
+     * @return the wrapped block
+     * @throws IllegalArgumentException invalid address or block
+     * @throws IllegalStateException invalid indices
+     */
+    public T get(final long address, final T block) {
+        pool.get(address, block);
+        accessSamples.sample(block.segment());
+        return block;
+    }
+
+    /**
+     * Free a block
+     * @param address block address
+     * @throws IllegalArgumentException invalid address
+     */
+    public void free(final long address) {
+        pool.free(address);
+    }
+
+    /**
+     * The sampled gets of a segment since the pool was wrapped, halved by every decay
+     * @param segmentIndex segment index
+     * @return sampled gets
+     * @throws IllegalArgumentException invalid segment index
+     */
+    public int accessSamples(final int segmentIndex) {
+        if (segmentIndex < 0 || segmentIndex >= pool.usedSegments()) {
+            throw new IllegalArgumentException("invalid segment index");
+        }
+        return accessSamples.get(segmentIndex);
+    }
+
+    /**
+     * Halve the samples of all segments, so that the heat map follows the recent gets, and forget
+     * the samples of released segments
+     */
+    public void decay() {
+        for (int segmentIndex = 0; segmentIndex < pool.usedSegments(); ++segmentIndex) {
+            if (pool.segment(segmentIndex) == MemorySegment.NULL) {
+                accessSamples.clear(segmentIndex);
+            }
+        }
+        accessSamples.decay();
+    }
+
+    /**
+     * Report the live and free blocks, the sampled gets and where the memory is of every segment
+     * @return segment report
+     */
+    public SegmentReport report() {
+        return pool.report().withAccessSamples(accessSamples.table());
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "SampledBlockPool{ segments = %d, samplePeriod = %d }",
+            pool.usedSegments(), accessSamples.period());
+    }
+}
@@ -0,0 +1,281 @@
+package org.limitless.fsmp4j;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * The distribution of the blocks of a pool across its segments at one point in time.
+ *
+ * For every segment the report holds the live blocks, the free blocks, which are the initiated
+ * blocks on the free list or in the free bitmap of the segment, the blocks not yet initiated, the
+ * sampled gets of a sampled or tiered pool and where the segment memory is. The overall
+ * fragmentation is the fraction of the initiated blocks that are free, as returned by the pool.
+ *
+ * The text dump draws one character per segment for the live blocks, the free blocks and the
+ * sampled gets on a scale from ' ' (none) to '@' (a full segment, or the most sampled segment),
+ * and the state of the segment. The JSON dump holds the exact numbers.
+ */
+public final class SegmentReport {
+
+    /**
+     * Where the memory of a segment is
+     */
+    public enum State {
+        /** in arena memory */
+        MEMORY,
+        /** in mapped memory, such as the spill file of a tiered pool */
+        SPILLED,
+        /** released, the index is reused when the pool grows */
+        RELEASED,
+        /** allocated after the current segment and not yet used */
+        UNUSED
+    }
+
+    private static final String LEVELS = " .:-=+*#%@";
+    private static final int ROW_SEGMENTS = 64;
+
+    private final int blocksPerSegment;
+    private final int blockLength;
+    private final int[] liveBlocks;
+    private final int[] freeBlocks;
+    private final int[] uninitiatedBlocks;
+    private final int[] accessSamples;
+    private final State[] states;
+    private final double fragmentation;
+
+    SegmentReport(final int blocksPerSegment,
+                  final int blockLength,
+                  final int[] liveBlocks,
+                  final int[] freeBlocks,
+                  final int[] uninitiatedBlocks,
+                  final int[] accessSamples,
+                  final State[] states,
+                  final double fragmentation) {
+        this.blocksPerSegment = blocksPerSegment;
+        this.blockLength = blockLength;
+        this.liveBlocks = liveBlocks;
+        this.freeBlocks = freeBlocks;
+        this.uninitiatedBlocks = uninitiatedBlocks;
+        this.accessSamples = accessSamples;
+        this.states = states;
+        this.fragmentation = fragmentation;
+    }
+
+    /**
+     * The number of segments, including released and unused segments
+     * @return segments
+     */
+    public int segments() {
+        return states.length;
+    }
+
+    /**
+     * The number of blocks per segment
+     * @return blocks
+     */
+    public int blocksPerSegment() {
+        return blocksPerSegment;
+    }
+
+    /**
+     * The number of bytes between consecutive blocks in a segment
+     * @return bytes
+     */
+    public int blockLength() {
+        return blockLength;
+    }
+
+    /**
+     * The number of allocated blocks of a segment
+     * @param segmentIndex segment index
+     * @return blocks
+     * @throws IllegalArgumentException invalid segment index
+     */
+    public int liveBlocks(final int segmentIndex) {
+        return liveBlocks[checkSegment(segmentIndex)];
+    }
+
+    /**
+     * The number of initiated free blocks of a segment, the length of its part of the free list
+     * @param segmentIndex segment index
+     * @return blocks
+     * @throws IllegalArgumentException invalid segment index
+     */
+    public int freeBlocks(final int segmentIndex) {
+        return freeBlocks[checkSegment(segmentIndex)];
+    }
+
+    /**
+     * The number of blocks of a segment never allocated since the segment was last used
+     * @param segmentIndex segment index
+     * @return blocks
+     * @throws IllegalArgumentException invalid segment index
+     */
+    public int uninitiatedBlocks(final int segmentIndex) {
+        return uninitiatedBlocks[checkSegment(segmentIndex)];
+    }
+
+    /**
+     * The fraction of the blocks of a segment that are allocated
+     * @param segmentIndex segment index
+     * @return occupancy between 0 and 1
+     * @throws IllegalArgumentException invalid segment index
+     */
+    public double occupancy(final int segmentIndex) {
+        return (double) liveBlocks(segmentIndex) / blocksPerSegment;
+    }
+
+    /**
+     * The sampled gets of a segment
+     * @param segmentIndex segment index
+     * @return sampled gets
+     * @throws IllegalArgumentException invalid segment index
+     * @throws IllegalStateException the report holds no sampled gets
+     */
+    public int accessSamples(final int segmentIndex) {
+        if (accessSamples == null) {
+            throw new IllegalStateException("pool is not sampled");
+        }
+        return accessSamples[checkSegment(segmentIndex)];
+    }
+
+    /**
+     * Check if the report holds sampled gets
+     * @return true if sampled
+     */
+    public boolean isSampled() {
+        return accessSamples != null;
+    }
+
+    /**
+     * A copy of the report with the sampled gets of the segments
+     * @param samples sampled gets per segment, none for the segments after its length
+     * @return report
+     */
+    SegmentReport withAccessSamples(final int[] samples) {
+        return new SegmentReport(blocksPerSegment, blockLength, liveBlocks, freeBlocks, uninitiatedBlocks,
+            Arrays.copyOf(samples, states.length), states, fragmentation);
+    }
+
+    /**
+     * Where the memory of a segment is
+     * @param segmentIndex segment index
+     * @return state
+     * @throws IllegalArgumentException invalid segment index
+     */
+    public State state(final int segmentIndex) {
+        return states[checkSegment(segmentIndex)];
+    }
+
+    /**
+     * The number of allocated blocks of all segments
+     * @return blocks
+     */
+    public long liveBlocks() {
+        return sum(liveBlocks);
+    }
+
+    /**
+     * The number of initiated free blocks of all segments
+     * @return blocks
+     */
+    public long freeBlocks() {
+        return sum(freeBlocks);
+    }
+
+    /**
+     * The fraction of the initiated blocks in the segments that are free
+     * @return fragmentation between 0 and 1
+     */
+    public double fragmentation() {
+        return fragmentation;
+    }
+
+    /**
+     * The report as a JSON object with an array per segment field and the states as a string of
+     * their initials
+     * @return JSON
+     */
+    public String toJson() {
+        final StringBuilder builder = new StringBuilder(128 + 24 * states.length);
+        builder.append(String.format(Locale.ROOT,
+            "{\"segments\":%d,\"blocksPerSegment\":%d,\"blockLength\":%d,\"liveBlocks\":%d,\"freeBlocks\":%d," +
+            "\"fragmentation\":%.6f,", states.length, blocksPerSegment, blockLength, liveBlocks(), freeBlocks(),
+            fragmentation));
+        appendArray(builder.append("\"live\":"), liveBlocks);
+        appendArray(builder.append(",\"free\":"), freeBlocks);
+        appendArray(builder.append(",\"uninitiated\":"), uninitiatedBlocks);
+        if (accessSamples != null) {
+            appendArray(builder.append(",\"samples\":"), accessSamples);
+        }
+        builder.append(",\"states\":\"");
+        for (State state : states) {
+            builder.append(state.name().charAt(0));
+        }
+        return builder.append("\"}").toString();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder(128 + 5 * (states.length + 16));
+        builder.append(String.format(Locale.ROOT,
+            "SegmentReport{ segments = %d, blocksPerSegment = %d, live = %,d, free = %,d, fragmentation = %.4f }",
+            states.length, blocksPerSegment, liveBlocks(), freeBlocks(), fragmentation));
+        final int maxSamples = accessSamples == null ? 0 : Arrays.stream(accessSamples).max().orElse(0);
+        for (int start = 0; start < states.length; start += ROW_SEGMENTS) {
+            final int end = Math.min(states.length, start + ROW_SEGMENTS);
+            appendRow(builder.append(String.format(Locale.ROOT, "%n%6d live  ", start)), liveBlocks, start, end,
+                blocksPerSegment);
+            appendRow(builder.append(String.format(Locale.ROOT, "%n       free  ")), freeBlocks, start, end,
+                blocksPerSegment);
+            if (accessSamples != null) {
+                appendRow(builder.append(String.format(Locale.ROOT, "%n       heat  ")), accessSamples, start, end,
+                    maxSamples);
+            }
+            builder.append(String.format(Locale.ROOT, "%n       state "));
+            for (int segmentIndex = start; segmentIndex < end; ++segmentIndex) {
+                builder.append(states[segmentIndex].name().charAt(0));
+            }
+        }
+        return builder.toString();
+    }
+
+    private int checkSegment(final int segmentIndex) {
+        if (segmentIndex < 0 || segmentIndex >= states.length) {
+            throw new IllegalArgumentException("invalid segment index");
+        }
+        return segmentIndex;
+    }
+
+    private static long sum(final int[] values) {
+        long sum = 0;
+        for (int value : values) {
+            sum += value;
+        }
+        return sum;
+    }
+
+    private static void appendArray(final StringBuilder builder, final int[] values) {
+        builder.append('[');
+        for (int index = 0; index < values.length; ++index) {
+            if (index > 0) {
+                builder.append(',');
+            }
+            builder.append(values[index]);
+        }
+        builder.append(']');
+    }
+
+    /**
+     * Append one level character per segment, none is ' ' and any value up to full a level above it
+     */
+    private static void appendRow(final StringBuilder builder, final int[] values, final int start, final int end,
+                                  final int full) {
+        for (int index = start; index < end; ++index) {
+            final int value = values[index];
+            final int level = value <= 0 || full <= 0 ? 0 :
+                1 + (int) Math.min(LEVELS.length() - 2, (long) value * (LEVELS.length() - 2) / full);
+            builder.append(LEVELS.charAt(level));
+        }
+    }
+}
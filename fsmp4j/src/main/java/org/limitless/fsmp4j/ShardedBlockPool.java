@@ -0,0 +1,347 @@
+package org.limitless.fsmp4j;
+
+import java.lang.foreign.Arena;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Block pools partitioned by a shard key, one pool per shard.
+ * @param <T> flyweight type
+ *
+ * Every shard is an ordinary pool in its own shared arena, meant to be used by one worker thread
+ * only, so shards share no memory or locks. Allocation picks the shard from a key supplied by the
+ * caller, and the returned address carries the shard index in bits 56 to 62 above the shard pool
+ * address, so get and free find the shard without a lookup. The flyweight address of a block is
+ * the address within its shard pool.
+ */
+public final class ShardedBlockPool<T extends BlockFlyweight> {
+
+    public static final int MAX_SHARDS = 1 << 7;
+
+    private static final int SHARD_SHIFT = 56;
+    private static final long POOL_ADDRESS_MASK = (1L << SHARD_SHIFT) - 1;
+    private static final int MAX_SEGMENTS = (1 << (SHARD_SHIFT - Integer.SIZE)) - 1;
+
+    private final BlockPool<T>[] pools;
+
+    private ShardedBlockPool(final BlockPool<T>[] pools) {
+        this.pools = pools;
+    }
+
+    /**
+     * The number of shards
+     * @return shards
+     */
+    public int shards() {
+        return pools.length;
+    }
+
+    /**
+     * The pool of a shard
+     * @param shard shard index
+     * @return pool
+     * @throws IllegalArgumentException invalid shard index
+     */
+    public BlockPool<T> shard(final int shard) {
+        if (shard < 0 || shard >= pools.length) {
+            throw new IllegalArgumentException("invalid shard");
+        }
+        return pools[shard];
+    }
+
+    /**
+     * The shard of a key
+     * @param key shard key
+     * @return shard index
+     */
+    public int shardOf(final long key) {
+        return (int) Math.floorMod(key, (long) pools.length);
+    }
+
+    /**
+     * The shard of a sharded address
+     * @param address sharded address
+     * @return shard index
+     */
+    public static int shardOfAddress(final long address) {
+        return (int) (address >>> SHARD_SHIFT);
+    }
+
+    /**
+     * The address of a block within its shard pool
+     * @param address sharded address
+     * @return shard pool address
+     */
+    public static long poolAddress(final long address) {
+        return address & POOL_ADDRESS_MASK;
+    }
+
+    /**
+     * Allocate a block in the shard of a key
+     * @param key shard key
+     * @param block a flyweight
+     * @return sharded address of the block
+     * @throws IllegalArgumentException null block
+     * @throws IllegalStateException the shard is exhausted
+     */
+    public long allocate(final long key, final T block) {
+        final int shard = shardOf(key);
+        return (long) shard << SHARD_SHIFT | pools[shard].allocate(block).address();
+    }
+
+    /**
+     * Wrap the block of a sharded address
+     * @param address sharded address
+     * @param block the wrapped block
+     * @return the wrapped block
+     * @throws IllegalArgumentException invalid address or block
+     * @throws IllegalStateException invalid indices
+     */
+    public T get(final long address, final T block) {
+        return pool(address).get(poolAddress(address), block);
+    }
+
+    /**
+     * Free the block of a sharded address
+     * @param address sharded address
+     * @throws IllegalArgumentException invalid address
+     */
+    public void free(final long address) {
+        pool(address).free(poolAddress(address));
+    }
+
+    /**
+     * Run an action for every shard pool in parallel, each shard on a dedicated thread, and wait
+     * for all of them. The action must not use other shards. The first failure of an action is
+     * rethrown once all threads have finished, and an interrupt while waiting is kept as the
+     * interrupt status of the calling thread.
+     * @param action action taking a shard pool and its index
+     * @throws IllegalArgumentException null action
+     */
+    public void forEach(final ObjIntConsumer<BlockPool<T>> action) {
+        if (action == null) {
+            throw new IllegalArgumentException("null action");
+        }
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Thread[] threads = new Thread[pools.length];
+        for (int shard = 0; shard < pools.length; ++shard) {
+            final int index = shard;
+            threads[shard] = new Thread(() -> {
+                try {
+                    action.accept(pools[index], index);
+                } catch (Throwable error) {
+                    failure.compareAndSet(null, error);
+                }
+            }, "fsmp4j-shard-" + shard);
+            threads[shard].start();
+        }
+        boolean interrupted = false;
+        for (final Thread thread : threads) {
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException error) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        final Throwable error = failure.get();
+        if (error instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        if (error instanceof Error fatal) {
+            throw fatal;
+        }
+        if (error != null) {
+            throw new IllegalStateException("shard action failed", error);
+        }
+    }
+
+    /**
+     * The allocated number of bytes in all shards
+     * @return bytes
+     */
+    public long allocatedBytes() {
+        long bytes = 0;
+        for (final BlockPool<T> pool : pools) {
+            bytes += pool.allocatedBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * The number of allocated blocks in all shards, which must not change during the call
+     * @return blocks
+     */
+    public long liveBlocks() {
+        long blocks = 0;
+        for (final BlockPool<T> pool : pools) {
+            blocks += liveBlocks(pool);
+        }
+        return blocks;
+    }
+
+    /**
+     * The fraction of the initiated blocks in all shards that are free
+     * @return fragmentation between 0 and 1
+     */
+    public double fragmentation() {
+        long initiated = 0;
+        long live = 0;
+        for (final BlockPool<T> pool : pools) {
+            for (int segmentIndex = 0; segmentIndex < pool.usedSegments(); ++segmentIndex) {
+                initiated += pool.initiatedBlocks(segmentIndex);
+            }
+            live += liveBlocks(pool);
+        }
+        return initiated == 0 ? 0.0 : 1.0 - (double) live / initiated;
+    }
+
+    /**
+     * Close all shard pools and their arenas
+     */
+    public void close() {
+        for (final BlockPool<T> pool : pools) {
+            pool.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "ShardedBlockPool{ shards = %d, blocks = %,d, bytes = %,d }",
+            pools.length, liveBlocks(), allocatedBytes());
+    }
+
+    private BlockPool<T> pool(final long address) {
+        final int shard = shardOfAddress(address);
+        if (address <= 0 || shard >= pools.length) {
+            throw new IllegalArgumentException("invalid address");
+        }
+        return pools[shard];
+    }
+
+    private static long liveBlocks(final BlockPool<?> pool) {
+        long blocks = 0;
+        for (int segmentIndex = 0; segmentIndex < pool.usedSegments(); ++segmentIndex) {
+            blocks += pool.liveBlocks(segmentIndex);
+        }
+        return blocks;
+    }
+
+    /**
+     * Builder of a sharded pool, the shard pools share the settings
+     * @param <N> flyweight type
+     */
+    public static final class Builder<N extends BlockFlyweight> {
+        private final Class<N> clazz;
+        private int shards;
+        private int blocksPerSegment;
+        private int preAllocSegments;
+        private int maxSegments;
+        private BlockPool.AllocationPolicy policy;
+        private boolean concurrent;
+
+        /**
+         * Sharded block pool builder
+         * @param clazz native class
+         */
+        public Builder(final Class<N> clazz) {
+            this.clazz = clazz;
+            shards = Runtime.getRuntime().availableProcessors();
+            preAllocSegments = 1;
+            maxSegments = MAX_SEGMENTS;
+            policy = BlockPool.AllocationPolicy.LIFO;
+        }
+
+        /**
+         * The number of shards
+         * @param shards number of shards, default the number of processors
+         * @return builder
+         */
+        public Builder<N> shards(final int shards) {
+            this.shards = shards;
+            return this;
+        }
+
+        public Builder<N> blocksPerSegment(final int blocks) {
+            this.blocksPerSegment = blocks;
+            return this;
+        }
+
+        public Builder<N> allocatedSegments(final int segments) {
+            this.preAllocSegments = segments;
+            return this;
+        }
+
+        /**
+         * Bound every shard to a maximal number of segments
+         * @param segments maximal number of segments
+         * @return builder
+         */
+        public Builder<N> maxSegments(final int segments) {
+            this.maxSegments = segments;
+            return this;
+        }
+
+        /**
+         * Choose which free block an allocation takes in every shard
+         * @param policy allocation policy
+         * @return builder
+         */
+        public Builder<N> allocationPolicy(final BlockPool.AllocationPolicy policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        /**
+         * Guard every shard with a lock, for shards used by more than one thread
+         * @param concurrent concurrent shards
+         * @return builder
+         */
+        public Builder<N> concurrent(final boolean concurrent) {
+            this.concurrent = concurrent;
+            return this;
+        }
+
+        /**
+         * Builds a sharded memory pool
+         * @return Constructed ShardedBlockPool of type N
+         * @throws IllegalArgumentException invalid shards or segments, or a shard pool argument
+         * @throws IllegalStateException failed memory allocation
+         */
+        public ShardedBlockPool<N> build() {
+            if (shards <= 0 || shards > MAX_SHARDS || maxSegments <= 0 || maxSegments > MAX_SEGMENTS) {
+                throw new IllegalArgumentException("invalid shards or maximal segments");
+            }
+
+            @SuppressWarnings("unchecked")
+            final BlockPool<N>[] pools = new BlockPool[shards];
+            Arena arena = null;
+            try {
+                for (int shard = 0; shard < shards; ++shard) {
+                    arena = Arena.ofShared();
+                    pools[shard] = new BlockPool.Builder<>(arena, clazz).blocksPerSegment(blocksPerSegment)
+                        .allocatedSegments(preAllocSegments).maxSegments(maxSegments).allocationPolicy(policy)
+                        .concurrent(concurrent).build();
+                    arena = null;
+                }
+            } catch (RuntimeException | OutOfMemoryError error) {
+                if (arena != null) {
+                    arena.close();
+                }
+                for (final BlockPool<N> pool : pools) {
+                    if (pool != null) {
+                        pool.close();
+                    }
+                }
+                throw error;
+            }
+            return new ShardedBlockPool<>(pools);
+        }
+    }
+}
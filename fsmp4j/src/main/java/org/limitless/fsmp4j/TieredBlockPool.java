@@ -0,0 +1,380 @@
+package org.limitless.fsmp4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * A block pool that keeps its cold segments in a memory-mapped spill file.
+ * @param <T> flyweight type
+ *
+ * The gets through the tiered pool are sampled, one get in a sample period on average is counted
+ * for the segment of the block. A tier migration moves the segments with few samples to their range
+ * of the spill file and the spilled segments with many samples back to arena memory, then halves
+ * the samples so that they decay. Segment indices are kept, so the block addresses of the pool stay
+ * valid. Spilled segments are outside the memory budget of the pool.
+ *
+ * Samples are counted by atomic adds and the sampling decision is thread local, so gets may run on
+ * any thread. Samples counted while the sample table grows for a new segment may be lost.
+ *
+ * The migration must run on the writer thread of the pool, the only thread that allocates, frees
+ * and migrates. Flyweights wrapped on migrated segments must be wrapped again. Lock-free readers of
+ * an EpochReclaimer may still read the previous memory of a migrated segment, so their migration
+ * defers closing it until every reader has left its epoch. Reader gets are not sampled, readers
+ * that should be counted get blocks through the tiered pool between enter and exit.
+ */
+public final class TieredBlockPool<T extends BlockFlyweight> {
+
+    public static final int DEFAULT_SAMPLE_PERIOD = 64;
+
+    /**
+     * The result of a tier migration
+     * @param spilledSegments segments moved from memory to the spill file
+     * @param loadedSegments  segments moved from the spill file to memory
+     */
+    public record Tiering(int spilledSegments, int loadedSegments) {
+    }
+
+    private final BlockPool<T> pool;
+    private final Path spillFile;
+    private final FileChannel spillChannel;
+    private final long segmentSize;
+    private final AccessSamples accessSamples;
+
+    private TieredBlockPool(final BlockPool<T> pool, final Path spillFile, final FileChannel spillChannel,
+                            final int samplePeriod) {
+        this.pool = pool;
+        this.spillFile = spillFile;
+        this.spillChannel = spillChannel;
+        segmentSize = (long) pool.blocksPerSegment() * pool.blockLength();
+        accessSamples = new AccessSamples(samplePeriod, pool.usedSegments());
+    }
+
+    /**
+     * The underlying pool, its gets are not sampled
+     * @return pool
+     */
+    public BlockPool<T> pool() {
+        return pool;
+    }
+
+    /**
+     * Allocate a block
+     * @param block a flyweight
+     * @return the wrapped block
+     * @throws IllegalArgumentException null block
+     * @throws IllegalStateException the pool is exhausted
+     */
+    public T allocate(final T block) {
+        return pool.allocate(block);
+    }
+
+    /**
+     * Wrap a block and sample the get
+     * @param address block address
+     * @param block the wrapped block
+     * @return the wrapped block
+     * @throws IllegalArgumentException invalid address or block
+     * @throws IllegalStateException invalid indices
+     */
+    public T get(final long address, final T block) {
+        pool.get(address, block);
+        accessSamples.sample(block.segment());
+        return block;
+    }
+
+    /**
+     * Free a block
+     * @param address block address
+     * @throws IllegalArgumentException invalid address
+     */
+    public void free(final long address) {
+        pool.free(address);
+    }
+
+    /**
+     * The sampled gets of a segment since the pool was built, halved by every tier migration
+     * @param segmentIndex segment index
+     * @return sampled gets
+     * @throws IllegalArgumentException invalid segment index
+     */
+    public int accessSamples(final int segmentIndex) {
+        if (segmentIndex < 0 || segmentIndex >= pool.usedSegments()) {
+            throw new IllegalArgumentException("invalid segment index");
+        }
+        return accessSamples.get(segmentIndex);
+    }
+
+    /**
+     * The number of segments in the spill file
+     * @return segments
+     */
+    public int spilledSegments() {
+        int spilled = 0;
+        for (int segmentIndex = 0; segmentIndex < pool.usedSegments(); ++segmentIndex) {
+            if (pool.segment(segmentIndex).isMapped()) {
+                ++spilled;
+            }
+        }
+        return spilled;
+    }
+
+    /**
+     * Move the segments with at most coldSamples sampled gets to the spill file, and the spilled
+     * segments with at least hotSamples sampled gets back to memory, then halve the samples of all
+     * segments. The current segment is never spilled, and a spilled segment stays in the file when
+     * the memory budget is exceeded. The previous memory of a migrated segment is closed at once, so
+     * the pool must not have lock-free readers.
+     * @param coldSamples maximal samples of a spilled segment
+     * @param hotSamples minimal samples of a loaded segment
+     * @return migrated segments
+     * @throws IllegalArgumentException negative cold samples or hot samples not above cold samples
+     * @throws IllegalStateException the pool is frozen
+     * @throws UncheckedIOException failed spill file mapping
+     */
+    public Tiering tier(final int coldSamples, final int hotSamples) {
+        return tier(coldSamples, hotSamples, Arena::close);
+    }
+
+    /**
+     * Migrate the segments as tier(coldSamples, hotSamples), and close the previous memory of the
+     * migrated segments when no reader of the reclaimer can read it anymore
+     * @param coldSamples maximal samples of a spilled segment
+     * @param hotSamples minimal samples of a loaded segment
+     * @param reclaimer reclaimer of the readers of the pool
+     * @return migrated segments
+     * @throws IllegalArgumentException invalid samples, or a reclaimer of another pool
+     * @throws IllegalStateException the pool is frozen
+     * @throws UncheckedIOException failed spill file mapping
+     */
+    public Tiering tier(final int coldSamples, final int hotSamples, final EpochReclaimer<T> reclaimer) {
+        if (reclaimer == null || reclaimer.pool() != pool) {
+            throw new IllegalArgumentException("reclaimer of another pool");
+        }
+        return tier(coldSamples, hotSamples, reclaimer::close);
+    }
+
+    private Tiering tier(final int coldSamples, final int hotSamples, final Consumer<Arena> closer) {
+        if (coldSamples < 0 || hotSamples <= coldSamples) {
+            throw new IllegalArgumentException("invalid cold or hot samples");
+        }
+        int spilled = 0;
+        int loaded = 0;
+        final int segments = pool.usedSegments() - 1;
+        for (int segmentIndex = 0; segmentIndex < segments; ++segmentIndex) {
+            final MemorySegment segment = pool.segment(segmentIndex);
+            if (segment == MemorySegment.NULL) {
+                accessSamples.clear(segmentIndex);
+                continue;
+            }
+            final int samples = accessSamples(segmentIndex);
+            if (!segment.isMapped() && samples <= coldSamples) {
+                closer.accept(spillSegment(segmentIndex));
+                ++spilled;
+            } else if (segment.isMapped() && samples >= hotSamples) {
+                final Arena previous = loadSegment(segmentIndex);
+                if (previous != null) {
+                    closer.accept(previous);
+                    ++loaded;
+                }
+            }
+        }
+        accessSamples.decay();
+        return new Tiering(spilled, loaded);
+    }
+
+    /**
+     * Report the live and free blocks, the sampled gets and where the memory is of every segment
+     * @return segment report
+     */
+    public SegmentReport report() {
+        return pool.report().withAccessSamples(accessSamples.table());
+    }
+
+    /**
+     * Close the pool and delete the spill file
+     * @throws UncheckedIOException failed spill file deletion
+     */
+    public void close() {
+        pool.close();
+        try {
+            spillChannel.close();
+            Files.deleteIfExists(spillFile);
+        } catch (IOException error) {
+            throw new UncheckedIOException("spill file deletion failed", error);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "TieredBlockPool{ segments = %d, spilled = %d, samplePeriod = %d }",
+            pool.usedSegments(), spilledSegments(), accessSamples.period());
+    }
+
+    /**
+     * Move a segment to its range of the spill file
+     * @return previous arena
+     */
+    private Arena spillSegment(final int segmentIndex) {
+        final Arena spillArena = Arena.ofShared();
+        try {
+            return pool.moveSegment(segmentIndex, spillArena, spillChannel.map(FileChannel.MapMode.READ_WRITE,
+                segmentIndex * segmentSize, segmentSize, spillArena));
+        } catch (IOException error) {
+            spillArena.close();
+            throw new UncheckedIOException("segment spill failed", error);
+        } catch (RuntimeException error) {
+            spillArena.close();
+            throw error;
+        }
+    }
+
+    /**
+     * Move a spilled segment back to arena memory
+     * @return previous arena, null if the memory budget is exceeded
+     */
+    private Arena loadSegment(final int segmentIndex) {
+        final Arena segmentArena = Arena.ofShared();
+        final Arena previous;
+        try {
+            previous = pool.moveSegment(segmentIndex, segmentArena,
+                segmentArena.allocate(segmentSize, pool.segmentAlignment()));
+        } catch (RuntimeException | OutOfMemoryError error) {
+            segmentArena.close();
+            throw error;
+        }
+        if (previous == null) {
+            segmentArena.close();
+        }
+        return previous;
+    }
+
+    /**
+     * Builder of a tiered pool
+     * @param <N> flyweight type
+     */
+    public static final class Builder<N extends BlockFlyweight> {
+        private final Arena memoryArena;
+        private final Class<N> clazz;
+        private final Path spillFile;
+        private int blocksPerSegment;
+        private int preAllocSegments;
+        private int maxSegments;
+        private BlockPool.AllocationPolicy policy;
+        private boolean concurrent;
+        private MemoryBudget.Account account;
+        private int samplePeriod;
+
+        /**
+         * Tiered block pool builder
+         * @param memoryArena memory arena
+         * @param clazz       native class
+         * @param spillFile   spill file, created or truncated by the pool and deleted when it is closed
+         */
+        public Builder(final Arena memoryArena, final Class<N> clazz, final Path spillFile) {
+            this.memoryArena = memoryArena;
+            this.clazz = clazz;
+            this.spillFile = spillFile;
+            preAllocSegments = 1;
+            maxSegments = Integer.MAX_VALUE;
+            policy = BlockPool.AllocationPolicy.LIFO;
+            samplePeriod = DEFAULT_SAMPLE_PERIOD;
+        }
+
+        public Builder<N> blocksPerSegment(final int blocks) {
+            this.blocksPerSegment = blocks;
+            return this;
+        }
+
+        public Builder<N> allocatedSegments(final int segments) {
+            this.preAllocSegments = segments;
+            return this;
+        }
+
+        /**
+         * Bound the pool to a maximal number of segments
+         * @param segments maximal number of segments
+         * @return builder
+         */
+        public Builder<N> maxSegments(final int segments) {
+            this.maxSegments = segments;
+            return this;
+        }
+
+        /**
+         * Choose which free block an allocation takes
+         * @param policy allocation policy
+         * @return builder
+         */
+        public Builder<N> allocationPolicy(final BlockPool.AllocationPolicy policy) {
+            this.policy = policy;
+            return this;
+        }
+
+        /**
+         * Guard the pool with a lock, for pools used by more than one thread
+         * @param concurrent concurrent pool
+         * @return builder
+         */
+        public Builder<N> concurrent(final boolean concurrent) {
+            this.concurrent = concurrent;
+            return this;
+        }
+
+        /**
+         * Reserve the segment memory, but not the spilled segments, from a memory budget account
+         * @param account memory budget account
+         * @return builder
+         */
+        public Builder<N> budget(final MemoryBudget.Account account) {
+            this.account = account;
+            return this;
+        }
+
+        /**
+         * Count one get in every period gets on average in the segment of the block
+         * @param period gets per sampled get, default DEFAULT_SAMPLE_PERIOD
+         * @return builder
+         */
+        public Builder<N> samplePeriod(final int period) {
+            this.samplePeriod = period;
+            return this;
+        }
+
+        /**
+         * Builds a tiered memory pool
+         * @return Constructed TieredBlockPool of type N
+         * @throws IllegalArgumentException null spill file, invalid sample period or a pool argument
+         * @throws IllegalStateException failed memory allocation
+         * @throws UncheckedIOException failed spill file creation
+         */
+        public TieredBlockPool<N> build() {
+            if (spillFile == null || samplePeriod <= 0) {
+                throw new IllegalArgumentException("null spill file or invalid sample period");
+            }
+
+            final var builder = new BlockPool.Builder<>(memoryArena, clazz).blocksPerSegment(blocksPerSegment)
+                .allocatedSegments(preAllocSegments).maxSegments(maxSegments).allocationPolicy(policy)
+                .concurrent(concurrent).releasableSegments(true);
+            if (account != null) {
+                builder.budget(account);
+            }
+            final BlockPool<N> pool = builder.build();
+            try {
+                return new TieredBlockPool<>(pool, spillFile, FileChannel.open(spillFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING),
+                    samplePeriod);
+            } catch (IOException error) {
+                pool.close();
+                throw new UncheckedIOException("spill file creation failed", error);
+            }
+        }
+    }
+}
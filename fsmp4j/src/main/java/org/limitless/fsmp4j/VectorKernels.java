@@ -0,0 +1,56 @@
+package org.limitless.fsmp4j;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Vectorized field kernels, implemented against the incubating Vector API in the optional vector
+ * source set and loaded by name, so that the core library does not depend on the incubator module.
+ *
+ * The kernels visit the fields covered by whole vectors, the caller handles the remaining fields.
+ */
+interface VectorKernels {
+
+    /**
+     * Check if long fields at the offset and stride fit in vectors
+     */
+    boolean supportsLong(long offset, long stride);
+
+    /**
+     * Check if int fields at the offset and stride fit in vectors
+     */
+    boolean supportsInt(long offset, long stride);
+
+    /**
+     * The number of long fields covered by whole vectors inside the segment
+     */
+    int longFields(MemorySegment segment, long offset, long stride, int count);
+
+    /**
+     * The number of int fields covered by whole vectors inside the segment
+     */
+    int intFields(MemorySegment segment, long offset, long stride, int count);
+
+    long sumLong(MemorySegment segment, long offset, long stride, int fields);
+
+    long minLong(MemorySegment segment, long offset, long stride, int fields);
+
+    long maxLong(MemorySegment segment, long offset, long stride, int fields);
+
+    int countLong(MemorySegment segment, long offset, long stride, int fields,
+                  FieldKernels.Comparison comparison, long operand);
+
+    int findFirstLong(MemorySegment segment, long offset, long stride, int fields,
+                      FieldKernels.Comparison comparison, long operand);
+
+    long sumInt(MemorySegment segment, long offset, long stride, int fields);
+
+    int minInt(MemorySegment segment, long offset, long stride, int fields);
+
+    int maxInt(MemorySegment segment, long offset, long stride, int fields);
+
+    int countInt(MemorySegment segment, long offset, long stride, int fields,
+                 FieldKernels.Comparison comparison, int operand);
+
+    int findFirstInt(MemorySegment segment, long offset, long stride, int fields,
+                     FieldKernels.Comparison comparison, int operand);
+}
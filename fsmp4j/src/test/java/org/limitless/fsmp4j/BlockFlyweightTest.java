@@ -3,6 +3,8 @@ package org.limitless.fsmp4j;
 import org.junit.jupiter.api.Test;
 
 import java.lang.foreign.Arena;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -26,6 +28,44 @@ public class BlockFlyweightTest {
             block.append(builder).toString());
     }
 
+    @Test
+    public void stringFields() {
+        var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(16).build();
+        var block1 = pool.allocate().string("long string");
+        var block2 = pool.allocate().string(new StringBuilder("short"));
+        assertEquals("short", block2.string());
+        assertFalse(block1.stringEquals(block2));
+        block1.string("short");
+        assertTrue(block1.stringEquals(block2));
+        assertTrue(block1.stringEquals("short"));
+        assertTrue(block1.stringEquals(new StringBuilder("short")));
+        assertFalse(block1.stringEquals("shor"));
+        assertFalse(block1.stringEquals("shorts"));
+        assertFalse(block1.stringEquals("a too long string"));
+        assertEquals(BlockFlyweight.stringHash("short"), block1.stringHash());
+        assertEquals(BlockFlyweight.stringHash(""), block1.string("").stringHash());
+        assertTrue(block1.stringEquals(""));
+        assertEquals("[]", block1.appendString(new StringBuilder("[")).append(']').toString());
+
+        for (String value : new String[] {"\u00e9t\u00e9", "\u20ac 5", "\ud83d\ude00!", "\u00ff\u0100"}) {
+            block1.string(value);
+            assertEquals(value, block1.string());
+            assertTrue(block1.stringEquals(value));
+            assertEquals(BlockFlyweight.stringHash(value), block1.stringHash());
+            assertEquals(value, block1.appendString(new StringBuilder()).toString());
+        }
+        assertEquals("?a", block1.string("\ud83da").string());
+
+        assertThrows(IllegalArgumentException.class, () -> block2.string("123456789012"));
+        assertEquals("", block2.string());
+        assertEquals("123456789\u00e9", block2.string("123456789\u00e9").string());
+        assertThrows(IllegalArgumentException.class, () -> block2.string("1234567890\u00e9"));
+        assertEquals("", block2.string());
+        assertThrows(IllegalArgumentException.class, () -> block2.string(null));
+        assertThrows(IllegalArgumentException.class, () -> block2.stringEquals((CharSequence) null));
+        assertThrows(IllegalArgumentException.class, () -> BlockFlyweight.stringHash(null));
+    }
+
     public static class ArrayFlyweight extends BlockFlyweight {
         private static final int INT_OFFSET = 0;
         private static final int INT_LENGTH = Integer.BYTES;
@@ -76,4 +116,131 @@ public class BlockFlyweightTest {
         assertFalse(block1.compare(block2));
         assertFalse(block2.compare(block1));
     }
+
+    public static class QuoteFlyweight extends BlockFlyweight {
+        private static final int SEQUENCE_OFFSET = 0;
+        private static final int SEQUENCE_LENGTH = Long.BYTES;
+        private static final int BID_OFFSET = SEQUENCE_OFFSET + SEQUENCE_LENGTH;
+        private static final int BID_LENGTH = Long.BYTES;
+        private static final int ASK_OFFSET = BID_OFFSET + BID_LENGTH;
+        private static final int ASK_LENGTH = Long.BYTES;
+        private static final int SIZE_OFFSET = ASK_OFFSET + ASK_LENGTH;
+        private static final int SIZE_LENGTH = Long.BYTES;
+        private static final int BYTES = SIZE_OFFSET + SIZE_LENGTH;
+
+        @Override
+        protected StringBuilder append(StringBuilder builder) {
+            return builder;
+        }
+
+        @Override
+        public int encodedLength() {
+            return BYTES;
+        }
+
+        @Override
+        protected int sequenceOffset() {
+            return SEQUENCE_OFFSET;
+        }
+
+        public long bid() {
+            return nativeLong(BID_OFFSET);
+        }
+
+        public long ask() {
+            return nativeLong(ASK_OFFSET);
+        }
+
+        public long size() {
+            return nativeLong(SIZE_OFFSET);
+        }
+
+        public QuoteFlyweight quote(long bid, long ask, long size) {
+            nativeLong(BID_OFFSET, bid);
+            nativeLong(ASK_OFFSET, ask);
+            nativeLong(SIZE_OFFSET, size);
+            return this;
+        }
+    }
+
+    @Test
+    public void optimisticRead() {
+        var pool = new BlockPool.Builder<>(Arena.ofShared(), QuoteFlyweight.class).blocksPerSegment(16).build();
+        var writer = pool.allocate();
+        writer.beginWrite();
+        writer.quote(1, 2, 3);
+        writer.endWrite();
+        var reader = pool.get(writer.address(), new QuoteFlyweight());
+
+        long stamp = reader.tryOptimisticRead();
+        assertTrue(reader.validate(stamp));
+
+        long sequence = writer.beginWrite();
+        assertEquals(1, sequence & 1);
+        assertFalse(reader.validate(stamp));
+        long writing = reader.tryOptimisticRead();
+        writer.quote(100, 101, 5);
+        assertFalse(reader.validate(writing));
+        writer.endWrite();
+        assertFalse(reader.validate(writing));
+
+        stamp = reader.tryOptimisticRead();
+        assertEquals(100, reader.bid());
+        assertEquals(101, reader.ask());
+        assertTrue(reader.validate(stamp));
+        assertThrows(IllegalStateException.class, writer::endWrite);
+
+        var plain = pool.get(writer.address(), new QuoteFlyweight());
+        var other = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(16).build();
+        assertThrows(IllegalStateException.class, () -> other.allocate().beginWrite());
+        assertNotNull(plain);
+        pool.close();
+        other.close();
+    }
+
+    @Test
+    public void concurrentOptimisticReads() throws InterruptedException {
+        var pool = new BlockPool.Builder<>(Arena.ofShared(), QuoteFlyweight.class).blocksPerSegment(16).build();
+        var writer = pool.allocate();
+        writer.beginWrite();
+        writer.quote(0, 1, 0);
+        writer.endWrite();
+        final long address = writer.address();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong validated = new AtomicLong();
+
+        Thread[] readers = new Thread[3];
+        for (int i = 0; i < readers.length; ++i) {
+            readers[i] = new Thread(() -> {
+                var quote = pool.get(address, new QuoteFlyweight());
+                while (running.get()) {
+                    long stamp = quote.tryOptimisticRead();
+                    long bid = quote.bid();
+                    long ask = quote.ask();
+                    long size = quote.size();
+                    if (quote.validate(stamp)) {
+                        validated.incrementAndGet();
+                        if (ask != bid + 1 || size != bid * 2) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            readers[i].start();
+        }
+
+        for (long i = 1; i <= 1_000_000; ++i) {
+            writer.beginWrite();
+            writer.quote(i, i + 1, i * 2);
+            writer.endWrite();
+        }
+        running.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(0, errors.get());
+        assertTrue(validated.get() > 0);
+        pool.close();
+    }
 }
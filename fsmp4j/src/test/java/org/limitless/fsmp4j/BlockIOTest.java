@@ -0,0 +1,130 @@
+package org.limitless.fsmp4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockIOTest {
+
+    private static final int COUNT = 3000;
+
+    @Test
+    public void writeAndReadBlocks() throws IOException {
+        roundTrip(false);
+    }
+
+    @Test
+    public void writeAndReadPaddedBlocks() throws IOException {
+        roundTrip(true);
+    }
+
+    @Test
+    public void truncatedBlock() throws IOException {
+        final Path path = Files.createTempFile("fsmp4j", ".blocks");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(16).build();
+            final var io = new BlockIO<>(pool, new TestFlyweight());
+            final long[] addresses = {pool.allocate().int64(1).address(), pool.allocate().int64(2).address()};
+            assertEquals(64, io.write(channel, addresses, 0, 2));
+            channel.write(ByteBuffer.allocate(5));
+
+            final var target = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(16).build();
+            final var input = new BlockIO<>(target, new TestFlyweight());
+            final long[] read = new long[10];
+            channel.position(0);
+            final var truncated = assertThrows(BlockIO.TruncatedBlockException.class,
+                () -> input.read(channel, read, 0, read.length));
+            assertEquals(2, truncated.blocks());
+            assertEquals(2, target.report().liveBlocks());
+            assertEquals(1, target.get(read[0], new TestFlyweight()).int64());
+            assertEquals(2, target.get(read[1], new TestFlyweight()).int64());
+
+            channel.position(0);
+            channel.truncate(64);
+            assertEquals(2, input.read(channel, read, 0, read.length));
+            assertThrows(IllegalArgumentException.class, () -> input.read(channel, read, 5, 6));
+            pool.close();
+            target.close();
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void exhaustedPoolFreesBatch() throws IOException {
+        final Path path = Files.createTempFile("fsmp4j", ".blocks");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(16).build();
+            final long[] addresses = new long[20];
+            for (int i = 0; i < addresses.length; ++i) {
+                addresses[i] = pool.allocate().int64(i).address();
+            }
+            new BlockIO<>(pool, new TestFlyweight()).write(channel, addresses, 0, addresses.length);
+
+            final var target = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(16)
+                .maxSegments(1).build();
+            final var input = new BlockIO<>(target, new TestFlyweight());
+            channel.position(0);
+            assertThrows(IllegalStateException.class, () -> input.read(channel, new long[20], 0, 20));
+            assertEquals(0, target.report().liveBlocks());
+            channel.position(0);
+            assertEquals(16, input.read(channel, new long[16], 0, 16));
+            pool.close();
+            target.close();
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static void roundTrip(final boolean padded) throws IOException {
+        final Path path = Files.createTempFile("fsmp4j", ".blocks");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+                .blocksPerSegment(1000).referenceCounted(padded).build();
+            final var block = new TestFlyweight();
+            final long[] addresses = new long[COUNT];
+            int count = 0;
+            for (int i = 0; i < COUNT + COUNT / 10; ++i) {
+                pool.allocate(block).int64(i).int32(-i).string("s" + i);
+                if (i % 11 == 5) {
+                    pool.free(block);
+                } else if (count < COUNT) {
+                    addresses[count++] = block.address();
+                }
+            }
+
+            final var output = new BlockIO<>(pool, new TestFlyweight());
+            assertEquals((long) COUNT * pool.encodedLength(), output.write(channel, addresses, 0, COUNT));
+            assertEquals((long) COUNT * pool.encodedLength(), channel.size());
+
+            final var target = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+                .blocksPerSegment(512).referenceCounted(padded).build();
+            final var input = new BlockIO<>(target, new TestFlyweight());
+            final long[] read = new long[COUNT + 10];
+            channel.position(0);
+            assertEquals(COUNT, input.read(channel, read, 10, COUNT));
+
+            final var expected = new TestFlyweight();
+            final var actual = new TestFlyweight();
+            for (int i = 0; i < COUNT; ++i) {
+                pool.get(addresses[i], expected);
+                target.get(read[i + 10], actual);
+                assertEquals(expected.int64(), actual.int64());
+                assertEquals(expected.int32(), actual.int32());
+                assertEquals(expected.string(), actual.string());
+            }
+            pool.close();
+            target.close();
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
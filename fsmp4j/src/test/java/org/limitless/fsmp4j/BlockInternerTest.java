@@ -0,0 +1,93 @@
+package org.limitless.fsmp4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockInternerTest {
+
+    @Test
+    public void deduplicates() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(256).build();
+        final var interner = new BlockInterner<>(pool);
+        final var block = new TestFlyweight();
+
+        final long first = interner.intern(pool.allocate(block).int64(7).string("AAPL"));
+        final long second = interner.intern(pool.allocate(block).int64(7).string("MSFT"));
+        assertNotEquals(first, second);
+        assertEquals(first, interner.intern(pool.allocate(block).int64(7).string("AAPL")));
+        assertEquals(first, block.address());
+        assertEquals("AAPL", block.string());
+        assertEquals(2, interner.size());
+        assertEquals(2, interner.referenceCount(first));
+        assertEquals(1, interner.referenceCount(second));
+        assertEquals(2, pool.liveBlocks(0));
+
+        assertEquals(first, interner.find(pool.allocate(block).int64(7).string("AAPL")));
+        assertEquals(0, interner.find(block.int64(8)));
+        pool.free(block);
+
+        assertEquals(3, interner.retain(first));
+        assertFalse(interner.release(first));
+        assertFalse(interner.release(first));
+        assertTrue(interner.release(first));
+        assertEquals(0, interner.referenceCount(first));
+        assertThrows(IllegalArgumentException.class, () -> interner.release(first));
+        assertEquals(0, interner.referenceCount(ByteUtils.pack(5, 0)));
+        assertEquals(0, interner.referenceCount(ByteUtils.pack(1, 200)));
+        assertEquals(0, interner.referenceCount(ByteUtils.pack(0, 1)));
+        assertThrows(IllegalArgumentException.class, () -> interner.retain(ByteUtils.pack(5, 0)));
+        assertEquals(1, interner.size());
+        assertEquals(1, pool.liveBlocks(0));
+
+        assertThrows(IllegalArgumentException.class, () -> interner.intern(null));
+        assertThrows(IllegalArgumentException.class, () -> interner.intern(new TestFlyweight()));
+        assertThrows(IllegalArgumentException.class, () -> new BlockInterner<TestFlyweight>(null));
+        interner.close();
+        assertThrows(IllegalStateException.class, () -> interner.retain(second));
+        pool.close();
+    }
+
+    @Test
+    public void growAndRemove() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(1024).build();
+        final var block = new TestFlyweight();
+        final Map<Integer, Long> canonical = new HashMap<>();
+        final Map<Integer, Integer> references = new HashMap<>();
+        final var random = new Random(5);
+        try (var interner = new BlockInterner<>(pool)) {
+            for (int i = 0; i < 50_000; ++i) {
+                final int value = random.nextInt(5000);
+                if (random.nextInt(3) == 0 && references.containsKey(value)) {
+                    final int count = references.merge(value, -1, Integer::sum);
+                    assertEquals(count == 0, interner.release(canonical.get(value)));
+                    if (count == 0) {
+                        references.remove(value);
+                        canonical.remove(value);
+                    }
+                } else {
+                    final long address = interner.intern(pool.allocate(block).int64(value).string("v" + value));
+                    assertEquals(value, block.int64());
+                    assertEquals((long) canonical.computeIfAbsent(value, v -> address), address);
+                    references.merge(value, 1, Integer::sum);
+                }
+            }
+            assertEquals(canonical.size(), interner.size());
+            long live = 0;
+            for (int segment = 0; segment < pool.usedSegments(); ++segment) {
+                live += pool.liveBlocks(segment);
+            }
+            assertEquals(canonical.size(), live);
+            for (final var entry : canonical.entrySet()) {
+                assertEquals((int) references.get(entry.getKey()), interner.referenceCount(entry.getValue()));
+                assertEquals((long) entry.getKey(), pool.get(entry.getValue(), block).int64());
+            }
+        }
+        pool.close();
+    }
+}
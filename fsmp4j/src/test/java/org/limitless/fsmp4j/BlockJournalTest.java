@@ -0,0 +1,220 @@
+package org.limitless.fsmp4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockJournalTest {
+
+    @Test
+    public void followerReplaysCommittedEvents() throws IOException {
+        final Path path = Files.createTempFile("fsmp4j", ".journal");
+        try (BlockJournal writer = BlockJournal.create(path, 1 << 20);
+             BlockJournal follower = BlockJournal.open(path)) {
+            final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+                .blocksPerSegment(16).journal(writer).build();
+            final var standby = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+                .blocksPerSegment(16).build();
+            final var block = new TestFlyweight();
+
+            final List<Long> addresses = new ArrayList<>();
+            for (int i = 0; i < 40; ++i) {
+                pool.allocate(block).int64(i).int32(-i).string("s" + i);
+                writer.write(block);
+                addresses.add(block.address());
+                if (i % 3 == 0) {
+                    pool.free(addresses.removeFirst());
+                }
+            }
+            assertEquals(0, follower.apply(standby, new TestFlyweight()));
+            writer.commit();
+            assertEquals(writer.position(), writer.committedPosition());
+            assertEquals(40 + 40 + 14, follower.apply(standby, new TestFlyweight()));
+            assertEquals(writer.position(), follower.position());
+
+            final var expected = new TestFlyweight();
+            final var actual = new TestFlyweight();
+            for (final long address : addresses) {
+                pool.get(address, expected);
+                standby.get(address, actual);
+                assertEquals(expected.int64(), actual.int64());
+                assertEquals(expected.int32(), actual.int32());
+                assertEquals(expected.string(), actual.string());
+            }
+
+            pool.get(addresses.getFirst(), block).int32(7);
+            writer.write(block, Long.BYTES, Integer.BYTES);
+            pool.allocate(block);
+            writer.commit();
+            assertEquals(2, follower.apply(standby, actual));
+            assertEquals(block.address(), actual.address());
+            assertEquals(7, standby.get(addresses.getFirst(), actual).int32());
+            pool.close();
+            standby.close();
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void concurrentFollower() throws Exception {
+        final Path path = Files.createTempFile("fsmp4j", ".journal");
+        try (BlockJournal writer = BlockJournal.create(path, 16 << 20);
+             BlockJournal follower = BlockJournal.open(path)) {
+            final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+                .blocksPerSegment(256).journal(writer).build();
+            final var standby = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+                .blocksPerSegment(256).build();
+            final var last = new AtomicLong(-1);
+            final var error = new AtomicReference<Throwable>();
+
+            final Thread thread = new Thread(() -> {
+                try {
+                    final var block = new TestFlyweight();
+                    while (follower.position() != last.get()) {
+                        follower.apply(standby, block);
+                    }
+                } catch (Throwable e) {
+                    error.set(e);
+                }
+            });
+            thread.start();
+
+            final var block = new TestFlyweight();
+            final long[] live = new long[64];
+            for (int i = 0; i < 100_000; ++i) {
+                final int slot = i & 63;
+                if (live[slot] != 0) {
+                    pool.free(live[slot]);
+                }
+                live[slot] = pool.allocate(block).int64(i).address();
+                writer.write(block, 0, Long.BYTES);
+                if ((i & 31) == 0) {
+                    writer.commit();
+                }
+            }
+            writer.commit();
+            last.set(writer.position());
+            thread.join();
+            assertNull(error.get());
+
+            final var actual = new TestFlyweight();
+            for (final long address : live) {
+                assertEquals(pool.get(address, block).int64(), standby.get(address, actual).int64());
+            }
+            pool.close();
+            standby.close();
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void referenceCountsNotReplicated() throws IOException {
+        final Path path = Files.createTempFile("fsmp4j", ".journal");
+        try (BlockJournal writer = BlockJournal.create(path, 1 << 20);
+             BlockJournal follower = BlockJournal.open(path)) {
+            final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+                .blocksPerSegment(16).referenceCounted(true).journal(writer).build();
+            final var standby = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+                .blocksPerSegment(16).referenceCounted(true).build();
+            final long address = pool.allocate().address();
+            pool.retain(address);
+            pool.retain(address);
+            writer.commit();
+            assertEquals(1, follower.apply(standby, new TestFlyweight()));
+            assertEquals(3, pool.referenceCount(address));
+            assertEquals(1, standby.referenceCount(address));
+
+            assertFalse(pool.release(address));
+            assertFalse(pool.release(address));
+            assertTrue(pool.release(address));
+            writer.commit();
+            assertEquals(1, follower.apply(standby, new TestFlyweight()));
+            assertEquals(0, standby.referenceCount(address));
+            pool.close();
+            standby.close();
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void invalidUse() throws IOException {
+        final Path path = Files.createTempFile("fsmp4j", ".journal");
+        try (BlockJournal writer = BlockJournal.create(path, 256);
+             BlockJournal follower = BlockJournal.open(path)) {
+            final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+                .blocksPerSegment(16).journal(writer).build();
+            final var block = new TestFlyweight();
+            assertThrows(IllegalStateException.class, () -> writer.apply(pool, block));
+            assertThrows(IllegalStateException.class, () -> follower.allocated(1));
+            assertThrows(IllegalStateException.class, follower::commit);
+            assertThrows(IllegalArgumentException.class, () -> writer.write(pool.allocate(block), 20, 40));
+
+            while (writer.position() + 16 <= 256) {
+                pool.allocate(block);
+            }
+            final String state = pool.toString();
+            assertThrows(IllegalStateException.class, () -> pool.allocate(block));
+            assertEquals(state, pool.toString());
+            writer.commit();
+
+            final var standby = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+                .blocksPerSegment(16).build();
+            standby.allocate(block);
+            assertThrows(IllegalStateException.class, () -> follower.apply(standby, block));
+            pool.close();
+            standby.close();
+        } finally {
+            Files.delete(path);
+        }
+        assertThrows(IllegalArgumentException.class, () -> BlockJournal.create(path, 64));
+    }
+
+    @Test
+    public void bitmapJournalFull() throws IOException {
+        final Path path = Files.createTempFile("fsmp4j", ".journal");
+        try (BlockJournal writer = BlockJournal.create(path, 256);
+             BlockJournal follower = BlockJournal.open(path)) {
+            final var pool = new BlockPool.Builder<>(Arena.ofShared(), BlockPoolTest.WordFlyweight.class)
+                .blocksPerSegment(16).allocationPolicy(BlockPool.AllocationPolicy.BITMAP).journal(writer).build();
+            final var block = new BlockPoolTest.WordFlyweight();
+            final long[] addresses = new long[10];
+            for (int i = 0; i < addresses.length; ++i) {
+                addresses[i] = pool.allocate(block).address();
+            }
+
+            // room for two of the four events of a range free
+            assertThrows(IllegalStateException.class, () -> pool.free(addresses[0], 4));
+            assertEquals(0.0, pool.fragmentation());
+            assertEquals(224, writer.position());
+            pool.free(addresses[0], 2);
+            final String state = pool.toString();
+            final double fragmentation = pool.fragmentation();
+            assertThrows(IllegalStateException.class, () -> pool.allocate(block));
+            assertEquals(state, pool.toString());
+            assertEquals(fragmentation, pool.fragmentation());
+            writer.commit();
+
+            final var standby = new BlockPool.Builder<>(Arena.ofShared(), BlockPoolTest.WordFlyweight.class)
+                .blocksPerSegment(16).allocationPolicy(BlockPool.AllocationPolicy.BITMAP).build();
+            assertEquals(12, follower.apply(standby, block));
+            assertEquals(fragmentation, standby.fragmentation());
+            assertEquals(addresses[0], standby.allocate(block).address());
+            pool.close();
+            standby.close();
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -1,9 +1,28 @@
 package org.limitless.fsmp4j;
 
 import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemoryLayout;
 import java.lang.foreign.MemorySegment;
+import java.lang.foreign.StructLayout;
 import java.lang.foreign.ValueLayout;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.jupiter.api.Test;
 
@@ -276,4 +295,663 @@ public class BlockPoolTest {
             assertEquals(i, found.int64());
         }
     }
+
+    @Test
+    public void boundedPool() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(16).maxSegments(2).build();
+        assertEquals(2, pool.maxSegments());
+        final long[] addresses = new long[32];
+        for (int i = 0; i < addresses.length; ++i) {
+            addresses[i] = pool.allocate().int64(i).address();
+        }
+        assertEquals(2 * 16 * 32, pool.allocatedBytes());
+        assertNull(pool.tryAllocate(new TestFlyweight()));
+        assertThrows(IllegalStateException.class, pool::allocate);
+
+        pool.free(addresses[17]);
+        final var block = pool.tryAllocate(new TestFlyweight());
+        assertNotNull(block);
+        assertEquals(addresses[17], block.address());
+        assertNull(pool.tryAllocate(new TestFlyweight()));
+        pool.close();
+    }
+
+    @Test
+    public void maxBytes() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(16).maxBytes(3 * 16 * 32 + 100).build();
+        assertEquals(3, pool.maxSegments());
+
+        assertThrows(IllegalArgumentException.class, () -> new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(16).maxBytes(100).build());
+        assertThrows(IllegalArgumentException.class, () -> new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(16).allocatedSegments(3).maxSegments(2).build());
+    }
+
+    @Test
+    public void blockingAllocate() throws InterruptedException {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(16).maxSegments(1).concurrent(true).build();
+        final long[] addresses = new long[16];
+        for (int i = 0; i < addresses.length; ++i) {
+            addresses[i] = pool.allocate().address();
+        }
+        assertNull(pool.allocate(new TestFlyweight(), 10, TimeUnit.MILLISECONDS));
+
+        final Thread freeing = Thread.ofVirtual().start(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+                Thread.currentThread().interrupt();
+            }
+            pool.free(addresses[5]);
+        });
+        final var block = pool.allocate(new TestFlyweight(), 10, TimeUnit.SECONDS);
+        assertNotNull(block);
+        assertEquals(addresses[5], block.address());
+        freeing.join();
+        pool.close();
+    }
+
+    @Test
+    public void blockingAllocateRequiresConcurrentPool() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(16).build();
+        assertThrows(IllegalStateException.class, () -> pool.allocate(new TestFlyweight(), 1, TimeUnit.SECONDS));
+        pool.close();
+    }
+
+    @Test
+    public void referenceCounting() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(16).referenceCounted(true).build();
+        assertEquals(16 * 40, pool.allocatedBytes());
+        final var block = pool.allocate().int64(-1L).int32(-1);
+        final long address = block.address();
+        assertEquals(1, pool.referenceCount(address));
+        assertEquals(-1L, block.int64());
+
+        assertEquals(2, pool.retain(address));
+        assertEquals(3, pool.retain(address));
+        assertFalse(pool.release(address));
+        assertFalse(pool.release(address));
+        assertEquals(1, pool.referenceCount(address));
+        assertTrue(pool.release(address));
+        assertEquals(0, pool.referenceCount(address));
+        assertThrows(IllegalStateException.class, () -> pool.release(address));
+        assertThrows(IllegalStateException.class, () -> pool.retain(address));
+
+        final var other = pool.allocate().int64(7);
+        assertEquals(address, other.address());
+        assertEquals(1, pool.referenceCount(address));
+        pool.free(other);
+        assertEquals(0, pool.referenceCount(address));
+        pool.close();
+
+        final var plain = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(16).build();
+        final long plainAddress = plain.allocate().address();
+        assertThrows(IllegalStateException.class, () -> plain.retain(plainAddress));
+        plain.close();
+    }
+
+    @Test
+    public void referenceCountedFanOut() throws InterruptedException {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(16).referenceCounted(true).concurrent(true).build();
+        final int consumers = 8;
+        final AtomicInteger freed = new AtomicInteger();
+        for (int round = 0; round < 100; ++round) {
+            final long address = pool.allocate().int64(round).address();
+            for (int i = 1; i < consumers; ++i) {
+                pool.retain(address);
+            }
+            final Thread[] threads = new Thread[consumers];
+            for (int i = 0; i < consumers; ++i) {
+                threads[i] = Thread.ofVirtual().start(() -> {
+                    if (pool.release(address)) {
+                        freed.incrementAndGet();
+                    }
+                });
+            }
+            for (final Thread thread : threads) {
+                thread.join();
+            }
+        }
+        assertEquals(100, freed.get());
+        pool.close();
+    }
+
+    @Test
+    public void slices() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(16).referenceCounted(true).build();
+        final var block1 = pool.allocate().int64(11);
+        final var block2 = pool.allocate().int64(12);
+        assertEquals(32, pool.encodedLength());
+        assertEquals(40, pool.blockLength());
+
+        final MemorySegment slice = pool.asSlice(block1.address());
+        assertEquals(32, slice.byteSize());
+        assertEquals(11, slice.get(ValueLayout.JAVA_LONG, 0));
+        assertEquals(12, pool.asByteBuffer(block2.address()).getLong(0));
+
+        final MemorySegment run = pool.asSlice(block1.address(), 2);
+        assertEquals(72, run.byteSize());
+        assertEquals(12, run.get(ValueLayout.JAVA_LONG, 40));
+        assertThrows(IllegalStateException.class, () -> pool.asSlice(block1.address(), 3));
+        assertThrows(IllegalArgumentException.class, () -> pool.asSlice(block1.address(), 0));
+        pool.close();
+    }
+
+    @Test
+    public void snapshotAndRestore() throws IOException {
+        final Path path = Files.createTempFile("fsmp4j", ".snapshot");
+        try {
+            final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+                .blocksPerSegment(100).referenceCounted(true).build();
+            final long[] addresses = new long[250];
+            for (int i = 0; i < addresses.length; ++i) {
+                addresses[i] = pool.allocate().int64(i).string("b" + i).address();
+            }
+            for (int i = 0; i < addresses.length; i += 3) {
+                pool.free(addresses[i]);
+            }
+            // a live block holding the free block cookie is still counted live
+            pool.get(addresses[1], new TestFlyweight()).int32(0xdeadbeef);
+            pool.snapshot(path);
+            assertEquals(64 + pool.allocatedBytes() + 3 * Integer.BYTES, Files.size(path));
+
+            final var restored = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).restore(path).build();
+            assertEquals(pool.toString(), restored.toString());
+            assertEquals(pool.report().liveBlocks(), restored.report().liveBlocks());
+            assertEquals(pool.liveBlocks(0), restored.liveBlocks(0));
+            final var block = new TestFlyweight();
+            for (int i = 1; i < addresses.length; i += 3) {
+                restored.get(addresses[i], block);
+                assertEquals(i, block.int64());
+                assertEquals("b" + i, block.string());
+                assertEquals(1, restored.referenceCount(addresses[i]));
+            }
+            assertThrows(IllegalStateException.class, () -> restored.free(addresses[0]));
+            for (int i = 0; i < 200; ++i) {
+                assertEquals(pool.allocate().address(), restored.allocate().address());
+            }
+
+            assertThrows(IllegalArgumentException.class,
+                () -> new BlockPool.Builder<>(Arena.ofShared(), BlockFlyweightTest.ArrayFlyweight.class).restore(path).build());
+            assertThrows(UncheckedIOException.class,
+                () -> new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).restore(path.resolveSibling("missing")).build());
+
+            // segment position, then initiated free blocks out of range
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, 3), 28);
+            }
+            final var error = assertThrows(UncheckedIOException.class,
+                () -> new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).restore(path).build());
+            assertEquals("invalid snapshot", error.getCause().getMessage());
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.write(ByteBuffer.allocate(2 * Integer.BYTES).putInt(0, 2).putInt(4, 101), 28);
+            }
+            assertThrows(UncheckedIOException.class,
+                () -> new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).restore(path).build());
+            pool.close();
+            restored.close();
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void compactHandles() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(1000).compactHandles(true).build();
+        assertEquals((1 << 21) - 1, pool.maxSegments());
+        final var block = new TestFlyweight();
+        final int[] handles = new int[2500];
+        for (int i = 0; i < handles.length; ++i) {
+            handles[i] = pool.handle(pool.allocate(block).int64(i).address());
+            assertEquals(block.address(), pool.address(handles[i]));
+            assertTrue(handles[i] > 0);
+        }
+        assertEquals((3 << 10) | 499, handles[2499]);
+        for (int i = 0; i < handles.length; ++i) {
+            assertEquals(i, pool.get(handles[i], block).int64());
+        }
+
+        pool.free(handles[1234]);
+        assertEquals(handles[1234], pool.handle(pool.allocate(block).address()));
+        assertThrows(IllegalArgumentException.class, () -> pool.free(0));
+        assertThrows(IllegalArgumentException.class, () -> pool.get(-1, block));
+        assertThrows(IllegalArgumentException.class, () -> pool.get(handles[0], null));
+        assertThrows(IllegalStateException.class, () -> pool.get((5 << 10) | 1, block));
+        pool.close();
+
+        final var large = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(1 << 20).maxSegments(10_000).compactHandles(true).build();
+        assertEquals((1 << 11) - 1, large.maxSegments());
+        large.close();
+
+        final var plain = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(16).build();
+        final long address = plain.allocate().address();
+        assertThrows(IllegalStateException.class, () -> plain.handle(address));
+        assertThrows(IllegalStateException.class, () -> plain.free(1));
+        plain.close();
+    }
+
+    @Test
+    public void densePolicy() throws IOException {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(10).allocationPolicy(BlockPool.AllocationPolicy.DENSE).build();
+        assertEquals(BlockPool.AllocationPolicy.DENSE, pool.allocationPolicy());
+        final var block = new TestFlyweight();
+        final long[] addresses = new long[35];
+        for (int i = 0; i < addresses.length; ++i) {
+            addresses[i] = pool.allocate(block).int64(i).address();
+            assertEquals(ByteUtils.pack(i / 10 + 1, i % 10), addresses[i]);
+        }
+
+        // freed blocks of the lowest segment are allocated first, whatever the free order
+        pool.free(addresses[3]);
+        pool.free(addresses[25]);
+        pool.free(addresses[7]);
+        pool.free(addresses[12]);
+        assertThrows(IllegalStateException.class, () -> pool.free(addresses[7]));
+        assertEquals(addresses[7], pool.allocate(block).address());
+        assertEquals(addresses[3], pool.allocate(block).address());
+        assertEquals(addresses[12], pool.allocate(block).address());
+        assertEquals(addresses[25], pool.allocate(block).address());
+        assertEquals(ByteUtils.pack(4, 5), pool.allocate(block).address());
+        for (int i = 0; i < addresses.length; ++i) {
+            if (i != 3 && i != 7 && i != 12 && i != 25) {
+                assertEquals(i, pool.get(addresses[i], block).int64());
+            }
+        }
+
+        final Path path = Files.createTempFile("fsmp4j", ".snapshot");
+        try {
+            pool.free(addresses[31]);
+            pool.free(addresses[2]);
+            // a live block holding the free block cookie stays allocated
+            pool.get(addresses[0], block).int32(0xdeadbeef);
+            pool.snapshot(path);
+            final var restored = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).restore(path).build();
+            assertEquals(BlockPool.AllocationPolicy.DENSE, restored.allocationPolicy());
+            assertEquals(pool.liveBlocks(0), restored.liveBlocks(0));
+            for (int i = 0; i < 10; ++i) {
+                assertEquals(pool.allocate(block).address(), restored.allocate(block).address());
+            }
+            assertEquals(0, restored.get(addresses[0], block).int64());
+            assertEquals(0xdeadbeef, block.int32());
+            restored.close();
+        } finally {
+            Files.delete(path);
+        }
+        assertThrows(IllegalArgumentException.class,
+            () -> new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).allocationPolicy(null).build());
+        pool.close();
+    }
+
+    @Test
+    public void densePolicyCompaction() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(8)
+            .allocationPolicy(BlockPool.AllocationPolicy.DENSE).releasableSegments(true).build();
+        final var table = new HandleTable<>(pool);
+        final var block = new TestFlyweight();
+        final int[] handles = new int[40];
+        for (int i = 0; i < handles.length; ++i) {
+            handles[i] = table.allocate(block);
+            block.int64(i);
+        }
+        for (int i = 0; i < 32; i += 2) {
+            table.free(handles[i]);
+        }
+        final var compaction = table.compact(2);
+        assertEquals(2, compaction.releasedSegments());
+        assertEquals(8, compaction.movedBlocks());
+        for (int i = 1; i < handles.length; i += i < 32 ? 2 : 1) {
+            assertEquals(i, table.get(handles[i], block).int64());
+        }
+        assertEquals(3L * 8 * pool.blockLength(), pool.allocatedBytes());
+        for (int i = 0; i < 16; ++i) {
+            assertTrue(ByteUtils.highBits(table.address(table.allocate(block))) <= 2);
+        }
+        assertEquals(5L * 8 * pool.blockLength(), pool.allocatedBytes());
+        pool.close();
+    }
+
+    @Test
+    public void bitmapPolicy() throws IOException {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), WordFlyweight.class)
+            .blocksPerSegment(200).allocationPolicy(BlockPool.AllocationPolicy.BITMAP).build();
+        assertEquals(Long.BYTES, pool.blockLength());
+        final var block = new WordFlyweight();
+        final long[] addresses = new long[500];
+        for (int i = 0; i < addresses.length; ++i) {
+            addresses[i] = pool.allocate(block).word(i).address();
+            assertEquals(ByteUtils.pack(i / 200 + 1, i % 200), addresses[i]);
+        }
+
+        // a free leaves the block data untouched
+        final MemorySegment data = pool.asSlice(addresses[0], 200);
+        pool.free(addresses[150]);
+        assertEquals(150, data.getAtIndex(ValueLayout.JAVA_LONG, 150));
+        assertThrows(IllegalStateException.class, () -> pool.free(addresses[150]));
+
+        pool.free(addresses[10], 120);
+        assertThrows(IllegalStateException.class, () -> pool.free(addresses[100], 60));
+        assertThrows(IllegalStateException.class, () -> pool.free(addresses[190], 20));
+        assertThrows(IllegalArgumentException.class, () -> pool.free(addresses[0], 0));
+        assertEquals(110, data.getAtIndex(ValueLayout.JAVA_LONG, 110));
+        assertEquals(addresses[10], pool.allocate(block).address());
+        assertEquals(addresses[11], pool.allocate(block).address());
+        pool.free(addresses[300]);
+        for (int i = 0; i < 118; ++i) {
+            pool.allocate(block);
+        }
+        assertEquals(addresses[150], pool.allocate(block).address());
+        assertEquals(addresses[300], pool.allocate(block).address());
+        assertEquals(ByteUtils.pack(3, 100), pool.allocate(block).address());
+
+        final Path path = Files.createTempFile("fsmp4j", ".snapshot");
+        try {
+            pool.free(addresses[420], 30);
+            pool.free(addresses[5]);
+            pool.snapshot(path);
+            final var restored = new BlockPool.Builder<>(Arena.ofShared(), WordFlyweight.class).restore(path).build();
+            assertEquals(BlockPool.AllocationPolicy.BITMAP, restored.allocationPolicy());
+            assertEquals(pool.fragmentation(), restored.fragmentation());
+            assertEquals(499, restored.get(addresses[499], block).word());
+            assertThrows(IllegalStateException.class, () -> restored.free(addresses[5]));
+            for (int i = 0; i < 150; ++i) {
+                assertEquals(pool.allocate(block).address(), restored.allocate(block).address());
+            }
+            restored.close();
+        } finally {
+            Files.delete(path);
+        }
+        pool.close();
+
+        final var listPool = new BlockPool.Builder<>(Arena.ofShared(), WordFlyweight.class).blocksPerSegment(64).build();
+        assertEquals(16, listPool.blockLength());
+        final long first = listPool.allocate(block).address();
+        for (int i = 1; i < 10; ++i) {
+            listPool.allocate(block);
+        }
+        listPool.free(first + 2, 5);
+        assertThrows(IllegalStateException.class, () -> listPool.free(first, 3));
+        listPool.free(first, 2);
+        assertEquals(first + 1, listPool.allocate(block).address());
+        listPool.close();
+    }
+
+    @Test
+    public void densePolicyManySegments() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(2)
+            .allocatedSegments(100).allocationPolicy(BlockPool.AllocationPolicy.DENSE).build();
+        final long[] addresses = new long[400];
+        for (int i = 0; i < addresses.length; ++i) {
+            addresses[i] = pool.allocate().address();
+        }
+        assertEquals(400L * pool.blockLength(), pool.allocatedBytes());
+        for (int segment : new int[] {199, 150, 99, 70}) {
+            pool.free(addresses[2 * segment + 1]);
+        }
+        for (int segment : new int[] {70, 99, 150, 199}) {
+            assertEquals(addresses[2 * segment + 1], pool.allocate().address());
+        }
+        pool.close();
+    }
+
+    @Test
+    public void bitmapPolicyManySegments() throws IOException {
+        final Path path = Files.createTempFile("fsmp4j", ".snapshot");
+        try {
+            final var pool = new BlockPool.Builder<>(Arena.ofShared(), WordFlyweight.class).blocksPerSegment(2)
+                .allocationPolicy(BlockPool.AllocationPolicy.BITMAP).build();
+            final long[] addresses = new long[400];
+            for (int i = 0; i < 200; ++i) {
+                addresses[i] = pool.allocate().address();
+            }
+            pool.free(addresses[181]);
+            pool.free(addresses[141]);
+            pool.snapshot(path);
+
+            // restored with capacity for 100 segments, grows to 200
+            final var restored = new BlockPool.Builder<>(Arena.ofShared(), WordFlyweight.class).restore(path).build();
+            assertEquals(addresses[141], restored.allocate().address());
+            assertEquals(addresses[181], restored.allocate().address());
+            for (int i = 200; i < addresses.length; ++i) {
+                addresses[i] = restored.allocate().address();
+            }
+            assertEquals(400L * restored.blockLength(), restored.allocatedBytes());
+            restored.free(addresses[399]);
+            restored.free(addresses[131]);
+            assertEquals(addresses[131], restored.allocate().address());
+            assertEquals(addresses[399], restored.allocate().address());
+            pool.close();
+            restored.close();
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void bitmapPolicyCompaction() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), WordFlyweight.class).blocksPerSegment(100)
+            .allocationPolicy(BlockPool.AllocationPolicy.BITMAP).releasableSegments(true).build();
+        final var table = new HandleTable<>(pool);
+        final var block = new WordFlyweight();
+        final int[] handles = new int[400];
+        for (int i = 0; i < handles.length; ++i) {
+            handles[i] = table.allocate(block);
+            block.word(i);
+        }
+        for (int i = 0; i < 300; ++i) {
+            if (i % 3 != 0) {
+                table.free(handles[i]);
+            }
+        }
+        final var compaction = table.compact(Integer.MAX_VALUE);
+        assertEquals(2, compaction.releasedSegments());
+        for (int i = 0; i < handles.length; ++i) {
+            if (i >= 300 || i % 3 == 0) {
+                assertEquals(i, table.get(handles[i], block).word());
+            }
+        }
+        assertEquals(2L * 100 * Long.BYTES, pool.allocatedBytes());
+        pool.close();
+    }
+
+    @Test
+    public void scopedReset() throws IOException {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(100).scoped(true).build();
+        final var block = new TestFlyweight();
+        for (int i = 0; i < 250; ++i) {
+            pool.allocate(block).int64(i);
+        }
+        final long bytes = pool.allocatedBytes();
+        assertThrows(IllegalStateException.class, () -> pool.free(block));
+        assertThrows(IllegalStateException.class, () -> pool.free(ByteUtils.pack(1, 0)));
+        assertThrows(IllegalStateException.class, () -> pool.free(ByteUtils.pack(1, 0), 10));
+
+        pool.reset();
+        assertEquals(bytes, pool.allocatedBytes());
+        assertEquals(0.0, pool.fragmentation());
+        assertThrows(IllegalStateException.class, () -> pool.get(ByteUtils.pack(1, 0), block));
+        assertEquals(ByteUtils.pack(1, 0), pool.allocate(block).int64(1000).address());
+        for (int i = 1; i < 150; ++i) {
+            pool.allocate(block).int64(1000 + i);
+        }
+
+        // a nested scope returns its blocks and keeps the outer ones
+        final long checkpoint = pool.checkpoint();
+        assertEquals(ByteUtils.pack(2, 50), checkpoint);
+        for (int i = 0; i < 120; ++i) {
+            pool.allocate(block);
+        }
+        assertThrows(IllegalArgumentException.class, () -> pool.reset(ByteUtils.pack(4, 0)));
+        pool.reset(checkpoint);
+        assertEquals(checkpoint, pool.allocate(block).address());
+        assertEquals(1149, pool.get(ByteUtils.pack(2, 49), block).int64());
+        assertThrows(IllegalStateException.class, () -> pool.get(ByteUtils.pack(2, 51), block));
+        assertEquals(bytes, pool.allocatedBytes());
+        for (int i = 0; i < 100; ++i) {
+            pool.allocate(block);
+        }
+        assertEquals(bytes, pool.allocatedBytes());
+        assertThrows(IllegalArgumentException.class, () -> pool.reset(ByteUtils.pack(3, 60)));
+        pool.close();
+
+        final var plain = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(16).build();
+        assertThrows(IllegalStateException.class, plain::checkpoint);
+        assertThrows(IllegalStateException.class, plain::reset);
+        plain.close();
+        assertThrows(IllegalArgumentException.class, () -> new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .scoped(true).referenceCounted(true).build());
+        assertThrows(IllegalArgumentException.class, () -> new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .scoped(true).releasableSegments(true).restore(Path.of("missing.snapshot")).build());
+        final Path path = Files.createTempFile("fsmp4j", ".trace");
+        try (BlockTrace trace = BlockTrace.create(path)) {
+            assertThrows(IllegalArgumentException.class, () -> new BlockPool.Builder<>(Arena.ofShared(),
+                TestFlyweight.class).scoped(true).trace(trace).build());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void nativeDowncalls() throws Throwable {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), PriceStruct.class)
+            .blocksPerSegment(128).layout(PriceStruct.LAYOUT).build();
+        assertEquals(PriceStruct.LAYOUT, pool.layout());
+        assertEquals(PriceStruct.LAYOUT.byteSize(), pool.blockLength());
+        final var block = new PriceStruct();
+        final var random = new Random(3);
+        final long first = pool.allocate(block).id(0).price(500).address();
+        for (int id = 1; id < 100; ++id) {
+            pool.allocate(block).id(id).price(random.nextInt(1000));
+        }
+        final var other = pool.allocate().id(0).price(500);
+        pool.get(first, block);
+        assertEquals(block.nativeAddress(), pool.nativeAddress(first));
+        assertEquals(block.nativeAddress(), block.asSlice().address());
+        assertEquals(PriceStruct.LAYOUT.byteSize() * 100, other.nativeAddress() - block.nativeAddress());
+
+        final Linker linker = Linker.nativeLinker();
+        final MethodHandle memcmp = linker.downcallHandle(linker.defaultLookup().find("memcmp").orElseThrow(),
+            FunctionDescriptor.of(ValueLayout.JAVA_INT, ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG));
+        assertEquals(0, (int) memcmp.invokeExact(block.asSlice(), other.asSlice(), PriceStruct.LAYOUT.byteSize()));
+        other.price(501);
+        assertNotEquals(0, (int) memcmp.invokeExact(block.asSlice(), other.asSlice(), PriceStruct.LAYOUT.byteSize()));
+
+        // sort the first 100 blocks in place by price
+        final MethodHandle qsort = linker.downcallHandle(linker.defaultLookup().find("qsort").orElseThrow(),
+            FunctionDescriptor.ofVoid(ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.JAVA_LONG,
+                ValueLayout.ADDRESS));
+        final MethodHandle compare = MethodHandles.lookup().findStatic(BlockPoolTest.class, "comparePrices",
+            MethodType.methodType(int.class, MemorySegment.class, MemorySegment.class));
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment comparator = linker.upcallStub(compare, FunctionDescriptor.of(ValueLayout.JAVA_INT,
+                ValueLayout.ADDRESS.withTargetLayout(PriceStruct.LAYOUT),
+                ValueLayout.ADDRESS.withTargetLayout(PriceStruct.LAYOUT)), arena);
+            qsort.invokeExact(pool.asSlice(first, 100), 100L, (long) pool.blockLength(), comparator);
+        }
+        final Set<Integer> ids = new HashSet<>();
+        long price = Long.MIN_VALUE;
+        for (int index = 0; index < 100; ++index) {
+            pool.get(ByteUtils.pack(1, index), block);
+            assertTrue(block.price() >= price);
+            price = block.price();
+            ids.add(block.id());
+        }
+        assertEquals(100, ids.size());
+        assertEquals(501, pool.get(other.address(), block).price());
+
+        final StructLayout ints = MemoryLayout.structLayout(ValueLayout.JAVA_INT, ValueLayout.JAVA_INT,
+            ValueLayout.JAVA_INT);
+        final var intPool = new BlockPool.Builder<>(Arena.ofShared(), WordFlyweight.class)
+            .blocksPerSegment(16).layout(ints).build();
+        assertEquals(12, intPool.blockLength());
+        final long intAddress = intPool.allocate().nativeAddress();
+        assertEquals(intAddress + 12, intPool.allocate().nativeAddress());
+        assertThrows(IllegalArgumentException.class, () -> new BlockPool.Builder<>(Arena.ofShared(),
+            TestFlyweight.class).blocksPerSegment(16).layout(ints).build());
+        assertThrows(IllegalArgumentException.class, () -> new BlockPool.Builder<>(Arena.ofShared(),
+            PriceStruct.class).blocksPerSegment(16).layout(PriceStruct.LAYOUT).referenceCounted(true).build());
+        assertThrows(IllegalArgumentException.class, () -> new BlockPool.Builder<>(Arena.ofShared(),
+            WordFlyweight.class).blocksPerSegment(16).layout(MemoryLayout.sequenceLayout(13, ValueLayout.JAVA_BYTE))
+            .build());
+        intPool.close();
+        pool.close();
+    }
+
+    private static int comparePrices(final MemorySegment left, final MemorySegment right) {
+        return Long.compare(left.get(ValueLayout.JAVA_LONG, PriceStruct.PRICE_OFFSET),
+            right.get(ValueLayout.JAVA_LONG, PriceStruct.PRICE_OFFSET));
+    }
+
+    /**
+     * struct { int32_t id; int64_t price; }
+     */
+    public static class PriceStruct extends BlockFlyweight {
+        public static final StructLayout LAYOUT = MemoryLayout.structLayout(
+            ValueLayout.JAVA_INT.withName("id"), MemoryLayout.paddingLayout(4), ValueLayout.JAVA_LONG.withName("price"));
+        private static final int ID_OFFSET = (int) LAYOUT.byteOffset(MemoryLayout.PathElement.groupElement("id"));
+        private static final int PRICE_OFFSET =
+            (int) LAYOUT.byteOffset(MemoryLayout.PathElement.groupElement("price"));
+
+        @Override
+        protected StringBuilder append(StringBuilder builder) {
+            return builder.append("{id=").append(id()).append(", price=").append(price()).append("}");
+        }
+
+        @Override
+        public int encodedLength() {
+            return (int) LAYOUT.byteSize();
+        }
+
+        public int id() {
+            return nativeInt(ID_OFFSET);
+        }
+
+        public PriceStruct id(final int value) {
+            nativeInt(ID_OFFSET, value);
+            return this;
+        }
+
+        public long price() {
+            return nativeLong(PRICE_OFFSET);
+        }
+
+        public PriceStruct price(final long value) {
+            nativeLong(PRICE_OFFSET, value);
+            return this;
+        }
+    }
+
+    public static class WordFlyweight extends BlockFlyweight {
+        private static final int WORD_OFFSET = 0;
+        private static final int BYTES = WORD_OFFSET + Long.BYTES;
+
+        @Override
+        protected StringBuilder append(StringBuilder builder) {
+            return builder.append("{word=").append(word()).append("}");
+        }
+
+        @Override
+        public int encodedLength() {
+            return BYTES;
+        }
+
+        public long word() {
+            return nativeLong(WORD_OFFSET);
+        }
+
+        public WordFlyweight word(final long value) {
+            nativeLong(WORD_OFFSET, value);
+            return this;
+        }
+    }
 }
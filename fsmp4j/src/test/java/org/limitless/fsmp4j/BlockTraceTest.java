@@ -0,0 +1,182 @@
+package org.limitless.fsmp4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BlockTraceTest {
+
+    @Test
+    public void recordAndRead() throws IOException {
+        final Path path = Files.createTempFile("fsmp4j", ".trace");
+        try {
+            final List<long[]> expected = new ArrayList<>();
+            final var trace = BlockTrace.create(path);
+            final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+                .blocksPerSegment(64).trace(trace).build();
+            final var block = new TestFlyweight();
+            final var random = new Random(9);
+            final List<Long> live = new ArrayList<>();
+            for (int i = 0; i < 20_000; ++i) {
+                final int choice = random.nextInt(3);
+                if (choice == 0 || live.isEmpty()) {
+                    final long address = pool.allocate(block).address();
+                    live.add(address);
+                    expected.add(new long[] {BlockTrace.ALLOCATE, address});
+                } else if (choice == 1) {
+                    final long address = live.remove(random.nextInt(live.size()));
+                    pool.free(address);
+                    expected.add(new long[] {BlockTrace.FREE, address});
+                } else {
+                    final long address = live.get(random.nextInt(live.size()));
+                    pool.get(address, block);
+                    expected.add(new long[] {BlockTrace.GET, address});
+                }
+            }
+            assertEquals(expected.size(), trace.events());
+            trace.close();
+            pool.close();
+            assertTrue(Files.size(path) < 8L * expected.size());
+
+            try (var reader = BlockTrace.open(path)) {
+                long nanos = 0;
+                for (final long[] operation : expected) {
+                    assertTrue(reader.next());
+                    assertEquals(operation[0], reader.operation());
+                    assertEquals(operation[1], reader.address());
+                    assertTrue(reader.nanos() >= nanos);
+                    nanos = reader.nanos();
+                }
+                assertFalse(reader.next());
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void readerGetsNotTraced() throws Exception {
+        final Path path = Files.createTempFile("fsmp4j", ".trace");
+        try (var trace = BlockTrace.create(path)) {
+            final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+                .blocksPerSegment(64).trace(trace).build();
+            final long address = pool.allocate().int64(5).address();
+            final Thread reader = new Thread(() -> {
+                final var block = new TestFlyweight();
+                for (int i = 0; i < 1000; ++i) {
+                    assertEquals(5, pool.get(address, block).int64());
+                }
+            });
+            reader.start();
+            reader.join();
+            assertEquals(1, trace.events());
+            pool.get(address, new TestFlyweight());
+            assertEquals(2, trace.events());
+            pool.close();
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void journaledTraceFailure() throws IOException {
+        final Path tracePath = Files.createTempFile("fsmp4j", ".trace");
+        final Path journalPath = Files.createTempFile("fsmp4j", ".journal");
+        try (var journal = BlockJournal.create(journalPath, 1 << 20)) {
+            final var trace = BlockTrace.create(tracePath);
+            final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+                .blocksPerSegment(64).journal(journal).trace(trace).build();
+            trace.close();
+            // the closed trace fails once its buffer is full, the journal drops the event
+            int allocations = 0;
+            while (true) {
+                try {
+                    pool.allocate();
+                    ++allocations;
+                } catch (RuntimeException error) {
+                    break;
+                }
+            }
+            assertEquals(BlockJournal.HEADER_LENGTH + 16L * allocations, journal.position());
+            assertEquals(allocations, trace.events());
+            pool.close();
+        } finally {
+            Files.delete(tracePath);
+            Files.delete(journalPath);
+        }
+    }
+
+    @Test
+    public void tracedCompaction() throws IOException {
+        final Path path = Files.createTempFile("fsmp4j", ".trace");
+        try {
+            final var trace = BlockTrace.create(path);
+            final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+                .blocksPerSegment(16).releasableSegments(true).trace(trace).build();
+            final var table = new HandleTable<>(pool);
+            final var block = new TestFlyweight();
+            final int[] handles = new int[64];
+            for (int i = 0; i < handles.length; ++i) {
+                handles[i] = table.allocate(block);
+            }
+            for (int i = 0; i < handles.length; ++i) {
+                if (i % 4 != 0) {
+                    table.free(handles[i]);
+                }
+            }
+            assertTrue(table.compact(Integer.MAX_VALUE).movedBlocks() > 0);
+            trace.close();
+
+            // replaying the trace leaves the live blocks of the pool
+            final List<Long> live = new ArrayList<>();
+            try (var reader = BlockTrace.open(path)) {
+                while (reader.next()) {
+                    if (reader.operation() == BlockTrace.ALLOCATE) {
+                        assertFalse(live.contains(reader.address()));
+                        live.add(reader.address());
+                    } else if (reader.operation() == BlockTrace.FREE) {
+                        assertTrue(live.remove(reader.address()));
+                    }
+                }
+            }
+            assertEquals(handles.length / 4, live.size());
+            for (int i = 0; i < handles.length; i += 4) {
+                assertTrue(live.remove(table.get(handles[i], block).address()));
+            }
+            pool.close();
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void invalidTrace() throws IOException {
+        final Path path = Files.createTempFile("fsmp4j", ".trace");
+        try {
+            Files.write(path, new byte[] {1, 2, 3});
+            assertThrows(IOException.class, () -> BlockTrace.open(path));
+            assertThrows(IllegalArgumentException.class, () -> BlockTrace.create(null));
+
+            final var trace = BlockTrace.create(path);
+            trace.freed(Long.MAX_VALUE);
+            trace.close();
+            trace.close();
+            final byte[] bytes = Files.readAllBytes(path);
+            Files.write(path, Arrays.copyOf(bytes, bytes.length - 1));
+            try (var reader = BlockTrace.open(path)) {
+                assertThrows(IllegalStateException.class, reader::next);
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
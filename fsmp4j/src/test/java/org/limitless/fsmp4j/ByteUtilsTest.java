@@ -2,7 +2,12 @@ package org.limitless.fsmp4j;
 
 import org.junit.jupiter.api.Test;
 
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 
 public class ByteUtilsTest {
 
@@ -30,4 +35,19 @@ public class ByteUtilsTest {
         assertEquals(8L, ByteUtils.align(8L, Long.BYTES));
         assertEquals(16L, ByteUtils.align(12L, Long.BYTES));
     }
+
+    @Test
+    public void hash() {
+        final MemorySegment segment = Arena.ofAuto().allocate(64);
+        for (int i = 0; i < 21; ++i) {
+            segment.set(ValueLayout.JAVA_BYTE, i, (byte) i);
+            segment.set(ValueLayout.JAVA_BYTE, 33 + i, (byte) i);
+        }
+        assertEquals(ByteUtils.hash(segment, 0, 21), ByteUtils.hash(segment, 33, 21));
+        assertNotEquals(ByteUtils.hash(segment, 0, 21), ByteUtils.hash(segment, 0, 20));
+        assertNotEquals(ByteUtils.hash(segment, 0, 21), ByteUtils.hash(segment, 0, 22));
+        segment.set(ValueLayout.JAVA_BYTE, 53, (byte) 0x7f);
+        assertNotEquals(ByteUtils.hash(segment, 0, 21), ByteUtils.hash(segment, 33, 21));
+        assertNotEquals(ByteUtils.hash(segment, 0, 0), ByteUtils.hash(segment, 0, 8));
+    }
 }
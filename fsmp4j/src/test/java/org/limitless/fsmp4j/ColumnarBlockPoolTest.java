@@ -0,0 +1,90 @@
+package org.limitless.fsmp4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ColumnarBlockPoolTest {
+
+    @Test
+    public void fieldsAreStoredInColumns() {
+        final var pool = new ColumnarBlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(100).build();
+        final long[] addresses = new long[250];
+        for (int i = 0; i < addresses.length; ++i) {
+            addresses[i] = pool.allocate().int64(i).int32(-i).int16((short) i).int8((byte) 1).address();
+        }
+        assertEquals(3, pool.segmentCount());
+        assertEquals(100, pool.blocks(1));
+        assertEquals(50, pool.blocks(2));
+
+        final var block = new TestFlyweight();
+        for (int i = 0; i < addresses.length; ++i) {
+            pool.get(addresses[i], block);
+            assertEquals(i / 100, block.segment());
+            assertEquals(i % 100, block.block());
+            assertEquals(i, block.int64());
+            assertEquals(-i, block.int32());
+            assertEquals((short) i, block.int16());
+        }
+
+        final MemorySegment int64 = pool.column(1, 0, Long.BYTES);
+        final MemorySegment int32 = pool.column(1, Long.BYTES, Integer.BYTES);
+        assertEquals(100 * Long.BYTES, int64.byteSize());
+        long sum = 0;
+        for (int i = 0; i < 100; ++i) {
+            assertEquals(100 + i, int64.getAtIndex(ValueLayout.JAVA_LONG, i));
+            assertEquals(-(100 + i), int32.getAtIndex(ValueLayout.JAVA_INT, i));
+            sum += int64.getAtIndex(ValueLayout.JAVA_LONG, i);
+        }
+        assertEquals(100 * 100 + 99 * 100 / 2, sum);
+        assertThrows(IllegalArgumentException.class, () -> pool.column(3, 0, Long.BYTES));
+        assertThrows(IllegalArgumentException.class, () -> pool.column(0, 30, Long.BYTES));
+        assertThrows(IllegalStateException.class, block::string);
+        assertThrows(IllegalStateException.class, () -> block.compare(block));
+        pool.close();
+    }
+
+    @Test
+    public void freeAndReuse() {
+        final var pool = new ColumnarBlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(16).maxSegments(2).build();
+        final var block = new TestFlyweight();
+        final long first = pool.allocate(block).int64(1).address();
+        final long second = pool.allocate(block).int64(2).address();
+        assertTrue(pool.isAllocated(first));
+
+        pool.free(first);
+        assertFalse(pool.isAllocated(first));
+        assertThrows(IllegalStateException.class, () -> pool.free(first));
+        assertThrows(IllegalStateException.class, () -> pool.get(first, block));
+        assertEquals(first, pool.allocate(block).address());
+        assertEquals(2, pool.get(second, block).int64());
+        pool.free(block);
+        assertEquals(BlockPool.INVALID_INDEX, block.block());
+
+        for (int i = 0; i < 31; ++i) {
+            pool.allocate(block);
+        }
+        assertThrows(IllegalStateException.class, () -> pool.allocate(block));
+        assertFalse(pool.isAllocated(0));
+        assertThrows(IllegalArgumentException.class, () -> pool.free(0));
+        assertThrows(IllegalStateException.class, () -> pool.free(ByteUtils.pack(3, 0)));
+        pool.close();
+    }
+
+    @Test
+    public void invalidBuilder() {
+        assertThrows(IllegalArgumentException.class, () ->
+            new ColumnarBlockPool.Builder<>(null, TestFlyweight.class).blocksPerSegment(16).build());
+        assertThrows(IllegalArgumentException.class, () ->
+            new ColumnarBlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).build());
+        assertThrows(IllegalArgumentException.class, () ->
+            new ColumnarBlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+                .blocksPerSegment(16).allocatedSegments(3).maxSegments(2).build());
+    }
+}
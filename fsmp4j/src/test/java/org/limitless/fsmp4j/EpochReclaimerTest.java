@@ -0,0 +1,117 @@
+package org.limitless.fsmp4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EpochReclaimerTest {
+
+    @Test
+    public void activeReaderDefersReclamation() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(16).build();
+        final var reclaimer = new EpochReclaimer<>(pool);
+        final var reader = reclaimer.register();
+        final var block = new TestFlyweight();
+        final long address = pool.allocate().int64(42).address();
+
+        reader.enter();
+        reclaimer.free(address);
+        assertEquals(1, reclaimer.limboCount());
+        assertEquals(0, reclaimer.reclaim());
+        assertEquals(42, reader.get(address, block).int64());
+        reader.exit();
+
+        assertEquals(1, reclaimer.reclaim());
+        assertEquals(0, reclaimer.limboCount());
+        assertEquals(address, pool.allocate().address());
+        assertThrows(IllegalStateException.class, () -> reader.get(address, block));
+        reader.close();
+        pool.close();
+    }
+
+    @Test
+    public void readerInLaterEpochDoesNotDefer() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(16).build();
+        final var reclaimer = new EpochReclaimer<>(pool);
+        final var reader = reclaimer.register();
+        final long first = pool.allocate().address();
+        final long second = pool.allocate().address();
+
+        reclaimer.free(first);
+        reader.enter();
+        assertEquals(0, reclaimer.reclaim());
+        reader.exit();
+        reader.enter();
+        reclaimer.free(second);
+        assertEquals(1, reclaimer.reclaim());
+        assertEquals(1, reclaimer.limboCount());
+        reader.close();
+        assertEquals(1, reclaimer.reclaim());
+        pool.close();
+    }
+
+    @Test
+    public void limboGrows() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(1024).build();
+        final var reclaimer = new EpochReclaimer<>(pool);
+        final var reader = reclaimer.register();
+        reader.enter();
+        final int count = EpochReclaimer.LIMBO_CAPACITY * 3;
+        for (int i = 0; i < count; ++i) {
+            reclaimer.free(pool.allocate().address());
+        }
+        assertEquals(count, reclaimer.limboCount());
+        reader.exit();
+        assertEquals(count, reclaimer.reclaim());
+        pool.close();
+    }
+
+    @Test
+    public void concurrentReaders() throws InterruptedException {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(64).build();
+        final var reclaimer = new EpochReclaimer<>(pool);
+        final var published = new AtomicLong(pool.allocate().int64(0).int32(0).address());
+        final var running = new AtomicBoolean(true);
+        final var errors = new AtomicInteger();
+
+        final Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; ++i) {
+            final var reader = reclaimer.register();
+            readers[i] = new Thread(() -> {
+                final var block = new TestFlyweight();
+                while (running.get()) {
+                    reader.enter();
+                    reader.get(published.get(), block);
+                    final long value = block.int64();
+                    Thread.onSpinWait();
+                    if (block.int32() != (int) value || block.int64() != value) {
+                        errors.incrementAndGet();
+                    }
+                    reader.exit();
+                }
+                reader.close();
+            });
+            readers[i].start();
+        }
+
+        for (int i = 1; i <= 200_000; ++i) {
+            final long previous = published.get();
+            published.set(pool.allocate().int64(i).int32(i).address());
+            reclaimer.free(previous);
+            if ((i & 15) == 0) {
+                reclaimer.reclaim();
+            }
+        }
+        running.set(false);
+        for (final Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(0, errors.get());
+        pool.close();
+    }
+}
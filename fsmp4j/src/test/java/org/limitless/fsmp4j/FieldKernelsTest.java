@@ -0,0 +1,191 @@
+package org.limitless.fsmp4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FieldKernelsTest {
+
+    private static final int COUNT = 1000;
+
+    @Test
+    public void poolKernels() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(64).allocationPolicy(BlockPool.AllocationPolicy.BITMAP).build();
+        checkPool(pool, new TestFlyweight(), 0, Long.BYTES);
+        pool.close();
+    }
+
+    @Test
+    public void freeListPoolsRejected() {
+        for (final var policy : new BlockPool.AllocationPolicy[] {BlockPool.AllocationPolicy.LIFO,
+            BlockPool.AllocationPolicy.DENSE}) {
+            final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+                .blocksPerSegment(64).allocationPolicy(policy).build();
+            assertThrows(IllegalArgumentException.class, () -> FieldKernels.sumLong(pool, 0));
+            assertThrows(IllegalArgumentException.class, () -> FieldKernels.findFirstInt(pool, Long.BYTES,
+                FieldKernels.Comparison.EQ, 0));
+            pool.close();
+        }
+    }
+
+    @Test
+    public void liveBlocksHoldingFreeCookie() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(64).allocationPolicy(BlockPool.AllocationPolicy.BITMAP).build();
+        pool.allocate().int64(1).int32(0xdeadbeef);
+        pool.allocate().int64(2).int32(0xdeadbeef);
+        pool.free(pool.allocate().int64(4).int32(0xdeadbeef).address());
+        assertEquals(3, FieldKernels.sumLong(pool, 0));
+        assertEquals(1, FieldKernels.minLong(pool, 0));
+        assertEquals(2, FieldKernels.maxLong(pool, 0));
+        assertEquals(2, FieldKernels.countInt(pool, Long.BYTES, FieldKernels.Comparison.EQ, 0xdeadbeef));
+        pool.close();
+    }
+
+    @Test
+    public void narrowBlockKernels() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), PairFlyweight.class)
+            .blocksPerSegment(100).allocationPolicy(BlockPool.AllocationPolicy.BITMAP).build();
+        assertEquals(16, pool.blockLength());
+        checkPool(pool, new PairFlyweight(), 0, Long.BYTES);
+        pool.close();
+    }
+
+    @Test
+    public void scalarFallback() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(64).referenceCounted(true).allocationPolicy(BlockPool.AllocationPolicy.BITMAP).build();
+        assertEquals(40, pool.blockLength());
+        checkPool(pool, new TestFlyweight(), 0, Long.BYTES);
+        pool.close();
+    }
+
+    @Test
+    public void columnKernels() {
+        final var pool = new ColumnarBlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(COUNT + 3).build();
+        final var random = new Random(7);
+        long sum = 0;
+        long intSum = 0;
+        for (int i = 0; i < COUNT; ++i) {
+            final var block = pool.allocate().int64(random.nextLong()).int32(random.nextInt());
+            sum += block.int64();
+            intSum += block.int32();
+        }
+        final MemorySegment longs = pool.column(0, 0, Long.BYTES);
+        final MemorySegment ints = pool.column(0, Long.BYTES, Integer.BYTES);
+        assertEquals(sum, FieldKernels.sumLong(longs, 0, Long.BYTES, COUNT));
+        assertEquals(intSum, FieldKernels.sumInt(ints, 0, Integer.BYTES, COUNT));
+        assertEquals(COUNT, FieldKernels.countLong(longs, 0, Long.BYTES, COUNT, FieldKernels.Comparison.NE, 0)
+            + FieldKernels.countLong(longs, 0, Long.BYTES, COUNT, FieldKernels.Comparison.EQ, 0));
+        pool.close();
+    }
+
+    @Test
+    public void segmentKernels() {
+        try (Arena arena = Arena.ofConfined()) {
+            final MemorySegment segment = arena.allocate(24 * 100 + 4, Long.BYTES);
+            for (int i = 0; i < 100; ++i) {
+                segment.set(ValueLayout.JAVA_INT, 24L * i + 20, i == 42 ? -5 : i);
+            }
+            assertEquals(99 * 100 / 2 - 42 - 5, FieldKernels.sumInt(segment, 20, 24, 100));
+            assertEquals(-5, FieldKernels.minInt(segment, 20, 24, 100));
+            assertEquals(99, FieldKernels.maxInt(segment, 20, 24, 100));
+            assertEquals(42, FieldKernels.findFirstInt(segment, 20, 24, 100, FieldKernels.Comparison.LT, 0));
+            assertEquals(FieldKernels.NOT_FOUND, FieldKernels.findFirstInt(segment, 20, 24, 100,
+                FieldKernels.Comparison.GT, 99));
+            assertEquals(Integer.MAX_VALUE, FieldKernels.minInt(segment, 20, 24, 0));
+            assertThrows(IllegalArgumentException.class, () -> FieldKernels.sumInt(segment, 20, 24, 101));
+            assertThrows(IllegalArgumentException.class, () -> FieldKernels.sumLong(segment, 0, 4, 10));
+            assertThrows(IllegalArgumentException.class, () -> FieldKernels.sumLong(null, 0, 8, 10));
+            assertThrows(IllegalArgumentException.class, () -> FieldKernels.countLong(segment, 0, 8, 10, null, 0));
+        }
+    }
+
+    private static <T extends BlockFlyweight> void checkPool(final BlockPool<T> pool, final T block,
+                                                             final int longOffset, final int intOffset) {
+        final var random = new Random(11);
+        final long[] addresses = new long[COUNT];
+        for (int i = 0; i < COUNT; ++i) {
+            addresses[i] = pool.allocate(block).address();
+            block.nativeLong(longOffset, random.nextLong(-1000, 1000));
+            block.nativeInt(intOffset, random.nextInt(-1000, 1000));
+        }
+        // freed blocks hold stale values and are skipped
+        for (int i = 3; i < COUNT; i += 7) {
+            pool.free(addresses[i]);
+            addresses[i] = 0;
+        }
+
+        long sum = 0;
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        long intSum = 0;
+        int intMin = Integer.MAX_VALUE;
+        int intMax = Integer.MIN_VALUE;
+        int count = 0;
+        int intCount = 0;
+        long firstLong = 0;
+        long firstInt = 0;
+        for (final long address : addresses) {
+            if (address == 0) {
+                continue;
+            }
+            pool.get(address, block);
+            final long value = block.nativeLong(longOffset);
+            final int intValue = block.nativeInt(intOffset);
+            sum += value;
+            min = Math.min(min, value);
+            max = Math.max(max, value);
+            intSum += intValue;
+            intMin = Math.min(intMin, intValue);
+            intMax = Math.max(intMax, intValue);
+            count += value >= 500 ? 1 : 0;
+            intCount += intValue != 0 ? 1 : 0;
+            if (firstLong == 0 && value > 990) {
+                firstLong = address;
+            }
+            if (firstInt == 0 && intValue <= -995) {
+                firstInt = address;
+            }
+        }
+
+        assertEquals(sum, FieldKernels.sumLong(pool, longOffset));
+        assertEquals(min, FieldKernels.minLong(pool, longOffset));
+        assertEquals(max, FieldKernels.maxLong(pool, longOffset));
+        assertEquals(count, FieldKernels.countLong(pool, longOffset, FieldKernels.Comparison.GE, 500));
+        assertEquals(firstLong, FieldKernels.findFirstLong(pool, longOffset, FieldKernels.Comparison.GT, 990));
+        assertEquals(0, FieldKernels.findFirstLong(pool, longOffset, FieldKernels.Comparison.GT, 1000));
+        assertEquals(intSum, FieldKernels.sumInt(pool, intOffset));
+        assertEquals(intMin, FieldKernels.minInt(pool, intOffset));
+        assertEquals(intMax, FieldKernels.maxInt(pool, intOffset));
+        assertEquals(intCount, FieldKernels.countInt(pool, intOffset, FieldKernels.Comparison.NE, 0));
+        assertEquals(firstInt, FieldKernels.findFirstInt(pool, intOffset, FieldKernels.Comparison.LE, -995));
+        assertThrows(IllegalArgumentException.class, () -> FieldKernels.sumLong(pool, pool.encodedLength() - 4));
+        assertThrows(IllegalArgumentException.class, () -> FieldKernels.sumInt(null, 0));
+    }
+
+    public static class PairFlyweight extends BlockFlyweight {
+        private static final int VALUE_OFFSET = 0;
+        private static final int VALUE_LENGTH = Long.BYTES;
+        private static final int COUNT_OFFSET = VALUE_OFFSET + VALUE_LENGTH;
+        private static final int COUNT_LENGTH = Long.BYTES;
+        private static final int BYTES = COUNT_OFFSET + COUNT_LENGTH;
+
+        @Override
+        protected StringBuilder append(StringBuilder builder) {
+            return builder;
+        }
+
+        @Override
+        public int encodedLength() {
+            return BYTES;
+        }
+    }
+}
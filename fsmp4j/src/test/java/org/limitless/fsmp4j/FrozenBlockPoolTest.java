@@ -0,0 +1,92 @@
+package org.limitless.fsmp4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrozenBlockPoolTest {
+
+    @Test
+    public void readOnlyView() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(64).build();
+        final var block = new TestFlyweight();
+        final long[] addresses = new long[1000];
+        for (int i = 0; i < addresses.length; ++i) {
+            addresses[i] = pool.allocate(block).int64(i).address();
+        }
+        pool.free(addresses[1]);
+
+        final var frozen = pool.freeze();
+        assertTrue(pool.isFrozen());
+        assertFalse(frozen.isContiguous());
+        assertEquals(999, frozen.liveBlocks());
+        assertEquals(16, frozen.segments());
+        assertThrows(IllegalStateException.class, () -> pool.allocate(block));
+        assertThrows(IllegalStateException.class, () -> pool.tryAllocate(block));
+        assertThrows(IllegalStateException.class, () -> pool.free(addresses[0]));
+        assertThrows(IllegalStateException.class, () -> pool.free(addresses[2], 2));
+
+        assertEquals(7, frozen.get(addresses[7], block).int64());
+        assertThrows(UnsupportedOperationException.class, () -> block.int64(8));
+        assertEquals(7, pool.get(addresses[7], new TestFlyweight()).int64());
+        assertThrows(IllegalArgumentException.class, () -> frozen.get(ByteUtils.pack(16, 40), block));
+        assertThrows(IllegalArgumentException.class, () -> frozen.get(ByteUtils.pack(17, 0), block));
+        assertThrows(IllegalArgumentException.class, () -> frozen.get(0, block));
+        assertThrows(IllegalArgumentException.class, () -> frozen.get(addresses[0], null));
+        pool.close();
+    }
+
+    @Test
+    public void frozenReferenceCounts() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(64).referenceCounted(true).concurrent(true).build();
+        final long address = pool.allocate().int64(3).address();
+        assertEquals(2, pool.retain(address));
+        pool.freeze();
+        assertThrows(IllegalStateException.class, () -> pool.retain(address));
+        assertThrows(IllegalStateException.class, () -> pool.release(address));
+        assertEquals(2, pool.referenceCount(address));
+        assertEquals(1, pool.liveBlocks(0));
+        pool.close();
+    }
+
+    @Test
+    public void contiguousReaders() throws InterruptedException {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(100).referenceCounted(true).build();
+        final var block = new TestFlyweight();
+        final long[] addresses = new long[1050];
+        for (int i = 0; i < addresses.length; ++i) {
+            addresses[i] = pool.allocate(block).int64(i).address();
+        }
+        final var frozen = pool.freeze(true);
+        pool.close();
+        assertTrue(frozen.isContiguous());
+        assertEquals(11, frozen.segments());
+
+        final AtomicLong sum = new AtomicLong();
+        final List<Thread> readers = new ArrayList<>();
+        for (int thread = 0; thread < 4; ++thread) {
+            readers.add(Thread.ofPlatform().start(() -> {
+                final var reader = new TestFlyweight();
+                long readerSum = 0;
+                for (final long address : addresses) {
+                    readerSum += frozen.get(address, reader).int64();
+                }
+                sum.addAndGet(readerSum);
+            }));
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(4L * 1049 * 1050 / 2, sum.get());
+        frozen.close();
+        frozen.close();
+        assertThrows(IllegalStateException.class, () -> frozen.get(addresses[0], block).int64());
+    }
+}
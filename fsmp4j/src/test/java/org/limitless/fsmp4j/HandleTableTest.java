@@ -0,0 +1,116 @@
+package org.limitless.fsmp4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HandleTableTest {
+
+    @Test
+    public void allocateGetFree() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(16).build();
+        final var table = new HandleTable<>(pool);
+        final var block = new TestFlyweight();
+        final int first = table.allocate(block);
+        block.int64(1);
+        final int second = table.allocate(block);
+        block.int64(2);
+        assertEquals(2, table.size());
+        assertEquals(1, table.get(first, block).int64());
+        assertEquals(2, table.get(second, block).int64());
+
+        table.free(first);
+        assertThrows(IllegalArgumentException.class, () -> table.get(first, block));
+        assertThrows(IllegalArgumentException.class, () -> table.free(first));
+        assertThrows(IllegalArgumentException.class, () -> table.address(HandleTable.INVALID_HANDLE));
+        assertThrows(IllegalArgumentException.class, () -> table.address(1000));
+        assertEquals(first, table.allocate(block));
+        assertEquals(2, table.size());
+        assertThrows(IllegalStateException.class, () -> table.compact(1));
+        pool.close();
+    }
+
+    @Test
+    public void compaction() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(64).releasableSegments(true).build();
+        final var table = new HandleTable<>(pool);
+        final var block = new TestFlyweight();
+        final var random = new Random(3);
+        final int[] handles = new int[640];
+        for (int i = 0; i < handles.length; ++i) {
+            handles[i] = table.allocate(block);
+            block.int64(i).int32(-i);
+        }
+        final long bytes = pool.allocatedBytes();
+
+        // free three quarters of the blocks at random
+        final boolean[] freed = new boolean[handles.length];
+        for (int count = 0; count < handles.length * 3 / 4; ) {
+            final int i = random.nextInt(handles.length);
+            if (!freed[i]) {
+                table.free(handles[i]);
+                freed[i] = true;
+                ++count;
+            }
+        }
+        assertEquals(0.75, pool.fragmentation(), 1e-9);
+
+        final var compaction = table.compact(Integer.MAX_VALUE);
+        assertTrue(compaction.movedBlocks() > 0);
+        assertTrue(compaction.releasedSegments() > 0);
+        assertEquals(0.75, compaction.fragmentationBefore(), 1e-9);
+        assertTrue(compaction.fragmentationAfter() < compaction.fragmentationBefore());
+        assertEquals(pool.fragmentation(), compaction.fragmentationAfter());
+        assertEquals(bytes - (long) compaction.releasedSegments() * 64 * pool.blockLength(), pool.allocatedBytes());
+        for (int i = 0; i < handles.length; ++i) {
+            if (!freed[i]) {
+                table.get(handles[i], block);
+                assertEquals(i, block.int64());
+                assertEquals(-i, block.int32());
+            }
+        }
+
+        // released segments are reused when the pool grows
+        while (table.size() < handles.length) {
+            table.allocate(block);
+        }
+        assertEquals(bytes, pool.allocatedBytes());
+        for (int i = 0; i < handles.length; ++i) {
+            if (!freed[i]) {
+                assertEquals(i, table.get(handles[i], block).int64());
+            }
+        }
+        pool.close();
+    }
+
+    @Test
+    public void foreignBlocksPreventCompaction() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(4).releasableSegments(true).build();
+        final var table = new HandleTable<>(pool);
+        final var block = new TestFlyweight();
+        final long foreign = pool.allocate(block).int64(7).address();
+        final int[] handles = new int[11];
+        for (int i = 0; i < handles.length; ++i) {
+            handles[i] = table.allocate(block);
+        }
+        // the first segment is sparser but holds a block outside of the table
+        table.free(handles[0]);
+        table.free(handles[1]);
+        table.free(handles[4]);
+        table.free(handles[8]);
+        table.free(handles[9]);
+
+        final var compaction = table.compact(2);
+        assertEquals(1, compaction.releasedSegments());
+        assertEquals(3, compaction.movedBlocks());
+        assertThrows(IllegalStateException.class, () -> pool.get(ByteUtils.pack(2, 0), block));
+        assertEquals(7, pool.get(foreign, block).int64());
+        assertEquals(1, ByteUtils.highBits(table.address(handles[2])));
+        pool.close();
+    }
+}
@@ -0,0 +1,112 @@
+package org.limitless.fsmp4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemoryBudgetTest {
+
+    private static final int BLOCKS = 16;
+    private static final long SEGMENT_BYTES = BLOCKS * 32;
+
+    @Test
+    public void reserveAndRelease() {
+        final var budget = new MemoryBudget(1000);
+        final var orders = budget.register("orders", 400);
+        final var fills = budget.register("fills", 0);
+        assertEquals(600, budget.availableBytes());
+
+        assertTrue(orders.reserve(300));
+        assertEquals(600, budget.availableBytes());
+        assertTrue(fills.reserve(600));
+        assertFalse(fills.reserve(1));
+        assertTrue(orders.reserve(100));
+        assertFalse(orders.reserve(1));
+        assertEquals(1000, budget.usedBytes());
+
+        fills.release(200);
+        assertTrue(orders.reserve(200));
+        assertEquals(600, orders.usedBytes());
+        assertEquals(400, fills.usedBytes());
+
+        assertThrows(IllegalArgumentException.class, () -> fills.release(401));
+        assertThrows(IllegalArgumentException.class, () -> budget.register("quotes", 1));
+        assertThrows(IllegalArgumentException.class, () -> new MemoryBudget(0));
+    }
+
+    @Test
+    public void closeAccount() {
+        final var budget = new MemoryBudget(1000);
+        final var orders = budget.register("orders", 400);
+        assertTrue(orders.reserve(500));
+        orders.close();
+        assertEquals(1000, budget.availableBytes());
+        assertTrue(budget.accounts().isEmpty());
+        assertThrows(IllegalStateException.class, () -> orders.reserve(1));
+        orders.release(500);
+        assertEquals(0, orders.usedBytes());
+        assertEquals(1000, budget.availableBytes());
+    }
+
+    @Test
+    public void closeAccountBeforePool() {
+        final var budget = new MemoryBudget(4 * SEGMENT_BYTES);
+        final var account = budget.register("orders", 0);
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(BLOCKS)
+            .allocatedSegments(2).budget(account).build();
+        account.close();
+        pool.close();
+        assertEquals(0, budget.usedBytes());
+        assertEquals(4 * SEGMENT_BYTES, budget.availableBytes());
+    }
+
+    @Test
+    public void runawayPoolCannotStarveOthers() {
+        final var budget = new MemoryBudget(4 * SEGMENT_BYTES);
+        final var orders = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(BLOCKS)
+            .budget(budget.register("orders", 2 * SEGMENT_BYTES)).build();
+        final var quotes = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(BLOCKS)
+            .budget(budget.register("quotes", SEGMENT_BYTES)).build();
+        final var fills = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(BLOCKS)
+            .budget(budget.register("fills", 0)).build();
+
+        // the runaway pool only gets the memory nobody is guaranteed
+        final var block = new TestFlyweight();
+        int allocated = 0;
+        while (fills.tryAllocate(block) != null) {
+            ++allocated;
+        }
+        assertEquals(BLOCKS, allocated);
+        assertThrows(IllegalStateException.class, fills::allocate);
+
+        for (int i = 0; i < 2 * BLOCKS; ++i) {
+            assertNotNull(orders.tryAllocate(block));
+        }
+        for (int i = 0; i < BLOCKS; ++i) {
+            assertNotNull(quotes.tryAllocate(block));
+        }
+        assertNull(orders.tryAllocate(block));
+        assertEquals(4 * SEGMENT_BYTES, budget.usedBytes());
+        assertEquals(2 * SEGMENT_BYTES, orders.allocatedBytes());
+        assertEquals("MemoryBudget{ limit = 2,048, used = 2,048, available = 0, accounts = [" +
+            "orders{ used = 1,024, minimum = 1,024 }, quotes{ used = 512, minimum = 512 }, " +
+            "fills{ used = 512, minimum = 0 }] }", budget.toString());
+
+        fills.close();
+        assertEquals(SEGMENT_BYTES, budget.availableBytes());
+        assertNotNull(orders.tryAllocate(block));
+        orders.close();
+        quotes.close();
+    }
+
+    @Test
+    public void preAllocatedSegmentsExceedBudget() {
+        final var budget = new MemoryBudget(SEGMENT_BYTES);
+        final var account = budget.register("orders", 0);
+        assertThrows(IllegalStateException.class, () -> new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(BLOCKS).allocatedSegments(2).budget(account).build());
+        assertEquals(0, account.usedBytes());
+    }
+}
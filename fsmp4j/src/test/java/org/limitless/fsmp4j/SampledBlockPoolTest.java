@@ -0,0 +1,46 @@
+package org.limitless.fsmp4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SampledBlockPoolTest {
+
+    @Test
+    public void sampledGets() {
+        final var pool = new SampledBlockPool<>(new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(8).build(), 1);
+        final var block = new TestFlyweight();
+        final long[] addresses = new long[24];
+        for (int i = 0; i < addresses.length; ++i) {
+            addresses[i] = pool.allocate(block).int64(i).address();
+        }
+        for (int i = 0; i < 16; ++i) {
+            assertEquals(i & 7, pool.get(addresses[i & 7], block).int64());
+        }
+        pool.get(addresses[20], block);
+        pool.pool().get(addresses[9], block);
+        assertEquals(16, pool.accessSamples(0));
+        assertEquals(0, pool.accessSamples(1));
+        assertEquals(1, pool.accessSamples(2));
+
+        final SegmentReport report = pool.report();
+        assertTrue(report.isSampled());
+        assertEquals(16, report.accessSamples(0));
+        assertEquals(1, report.accessSamples(2));
+        assertEquals(24, report.liveBlocks());
+        assertFalse(pool.pool().report().isSampled());
+
+        pool.decay();
+        assertEquals(8, pool.accessSamples(0));
+        assertEquals(0, pool.accessSamples(2));
+        pool.free(addresses[0]);
+        assertEquals(23, pool.report().liveBlocks());
+        assertThrows(IllegalArgumentException.class, () -> pool.accessSamples(3));
+        assertThrows(IllegalArgumentException.class, () -> new SampledBlockPool<>(null));
+        assertThrows(IllegalArgumentException.class, () -> new SampledBlockPool<>(pool.pool(), 0));
+        pool.pool().close();
+    }
+}
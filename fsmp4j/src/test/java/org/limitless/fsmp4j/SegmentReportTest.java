@@ -0,0 +1,93 @@
+package org.limitless.fsmp4j;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SegmentReportTest {
+
+    @Test
+    public void occupancyAndFreeBlocks() {
+        final var pool = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class)
+            .blocksPerSegment(10).allocatedSegments(4).build();
+        final long[] addresses = new long[25];
+        for (int i = 0; i < addresses.length; ++i) {
+            addresses[i] = pool.allocate().address();
+        }
+        for (int i = 0; i < 10; i += 2) {
+            pool.free(addresses[i]);
+        }
+        pool.free(addresses[24]);
+
+        final SegmentReport report = pool.report();
+        assertEquals(4, report.segments());
+        assertEquals(10, report.blocksPerSegment());
+        assertEquals(5, report.liveBlocks(0));
+        assertEquals(5, report.freeBlocks(0));
+        assertEquals(10, report.liveBlocks(1));
+        assertEquals(0, report.freeBlocks(1));
+        assertEquals(4, report.liveBlocks(2));
+        assertEquals(1, report.freeBlocks(2));
+        assertEquals(5, report.uninitiatedBlocks(2));
+        assertEquals(0.4, report.occupancy(2), 1e-9);
+        assertEquals(SegmentReport.State.MEMORY, report.state(2));
+        assertEquals(SegmentReport.State.UNUSED, report.state(3));
+        assertEquals(10, report.uninitiatedBlocks(3));
+        assertEquals(19, report.liveBlocks());
+        assertEquals(6, report.freeBlocks());
+        assertEquals(pool.fragmentation(), report.fragmentation(), 1e-9);
+        assertFalse(report.isSampled());
+        assertThrows(IllegalStateException.class, () -> report.accessSamples(0));
+        assertThrows(IllegalArgumentException.class, () -> report.liveBlocks(4));
+
+        assertEquals("{\"segments\":4,\"blocksPerSegment\":10,\"blockLength\":" + pool.blockLength() +
+            ",\"liveBlocks\":19,\"freeBlocks\":6,\"fragmentation\":0.240000,\"live\":[5,10,4,0]," +
+            "\"free\":[5,0,1,0],\"uninitiated\":[0,0,5,10],\"states\":\"MMMU\"}", report.toJson());
+        final String[] lines = report.toString().split("\\R");
+        assertEquals(4, lines.length);
+        assertEquals("     0 live  +@= ", lines[1]);
+        assertEquals("       free  + . ", lines[2]);
+        assertEquals("       state MMMU", lines[3]);
+        pool.close();
+    }
+
+    @Test
+    public void heatMap() throws IOException {
+        final Path path = Files.createTempFile("fsmp4j", ".spill");
+        final var pool = new TieredBlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class, path)
+            .blocksPerSegment(8).samplePeriod(1).build();
+        final var block = new TestFlyweight();
+        final long[] addresses = new long[40];
+        for (int i = 0; i < addresses.length; ++i) {
+            addresses[i] = pool.allocate(block).address();
+        }
+        for (int i = 0; i < 16; ++i) {
+            pool.get(addresses[i & 7], block);
+        }
+        pool.get(addresses[8], block);
+        pool.tier(0, 100);
+        for (int i = 0; i < 8; ++i) {
+            pool.get(addresses[i], block);
+        }
+
+        final SegmentReport report = pool.report();
+        assertTrue(report.isSampled());
+        assertEquals(16, report.accessSamples(0));
+        assertEquals(0, report.accessSamples(1));
+        assertEquals(SegmentReport.State.MEMORY, report.state(0));
+        assertEquals(SegmentReport.State.MEMORY, report.state(1));
+        assertEquals(SegmentReport.State.SPILLED, report.state(2));
+        assertEquals(SegmentReport.State.MEMORY, report.state(4));
+        assertTrue(report.toJson().endsWith(",\"samples\":[16,0,0,0,0],\"states\":\"MMSSM\"}"));
+        final String[] lines = report.toString().split("\\R");
+        assertEquals(5, lines.length);
+        assertEquals("       heat  @    ", lines[3]);
+        assertEquals("       state MMSSM", lines[4]);
+        pool.close();
+    }
+}
@@ -0,0 +1,91 @@
+package org.limitless.fsmp4j;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ShardedBlockPoolTest {
+
+    @Test
+    public void routesByKey() {
+        final var pool = new ShardedBlockPool.Builder<>(TestFlyweight.class).shards(4).blocksPerSegment(64).build();
+        assertEquals(4, pool.shards());
+        final var block = new TestFlyweight();
+        final long[] addresses = new long[1000];
+        for (int key = 0; key < addresses.length; ++key) {
+            addresses[key] = pool.allocate(key, block);
+            block.int64(key);
+            assertEquals(key % 4, ShardedBlockPool.shardOfAddress(addresses[key]));
+            assertEquals(block.address(), ShardedBlockPool.poolAddress(addresses[key]));
+        }
+        assertEquals(3, pool.shardOf(-1));
+        for (int key = 0; key < addresses.length; ++key) {
+            assertEquals(key, pool.get(addresses[key], block).int64());
+        }
+        assertEquals(1000, pool.liveBlocks());
+        assertEquals(4L * 4 * 64 * pool.shard(0).blockLength(), pool.allocatedBytes());
+
+        for (int key = 0; key < addresses.length; key += 2) {
+            pool.free(addresses[key]);
+        }
+        assertEquals(500, pool.liveBlocks());
+        assertEquals(0.5, pool.fragmentation(), 1e-9);
+        assertThrows(IllegalStateException.class, () -> pool.free(addresses[0]));
+        assertThrows(IllegalArgumentException.class, () -> pool.get(5L << 56 | 1L << 32, block));
+        assertThrows(IllegalArgumentException.class, () -> pool.free(0));
+        assertThrows(IllegalArgumentException.class, () -> pool.shard(4));
+        pool.close();
+    }
+
+    @Test
+    public void parallelForEach() {
+        final var pool = new ShardedBlockPool.Builder<>(TestFlyweight.class).shards(8).blocksPerSegment(1024).build();
+        final Set<Integer> shards = ConcurrentHashMap.newKeySet();
+        final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        final AtomicLong sum = new AtomicLong();
+        pool.forEach((shard, index) -> {
+            threads.add(Thread.currentThread());
+            final var block = new TestFlyweight();
+            long shardSum = 0;
+            for (int i = 0; i < 10_000; ++i) {
+                shardSum += shard.allocate(block).int64(index).int64();
+            }
+            sum.addAndGet(shardSum);
+            shards.add(index);
+        });
+        assertEquals(8, shards.size());
+        assertEquals(8, threads.size());
+        assertFalse(threads.contains(Thread.currentThread()));
+        assertEquals(10_000L * (7 * 8 / 2), sum.get());
+        assertEquals(80_000, pool.liveBlocks());
+        assertThrows(IllegalArgumentException.class, () -> pool.forEach(null));
+
+        // the other shards finish before the failure is rethrown
+        final AtomicLong finished = new AtomicLong();
+        final var error = assertThrows(IllegalStateException.class, () -> pool.forEach((shard, index) -> {
+            if (index == 3) {
+                throw new IllegalStateException("shard 3");
+            }
+            finished.incrementAndGet();
+        }));
+        assertEquals("shard 3", error.getMessage());
+        assertEquals(7, finished.get());
+        pool.close();
+    }
+
+    @Test
+    public void invalidBuilder() {
+        assertThrows(IllegalArgumentException.class,
+            () -> new ShardedBlockPool.Builder<>(TestFlyweight.class).shards(0).blocksPerSegment(16).build());
+        assertThrows(IllegalArgumentException.class, () -> new ShardedBlockPool.Builder<>(TestFlyweight.class)
+            .shards(ShardedBlockPool.MAX_SHARDS + 1).blocksPerSegment(16).build());
+        assertThrows(IllegalArgumentException.class,
+            () -> new ShardedBlockPool.Builder<>(TestFlyweight.class).shards(2).blocksPerSegment(0).build());
+        assertThrows(IllegalArgumentException.class, () -> new ShardedBlockPool.Builder<>(TestFlyweight.class)
+            .shards(2).blocksPerSegment(16).maxSegments(1 << 24).build());
+    }
+}
@@ -89,11 +89,27 @@ public class TestFlyweight extends BlockFlyweight {
         return nativeString(STRING_OFFSET);
     }
 
-    public TestFlyweight string(String value) {
+    public TestFlyweight string(CharSequence value) {
         nativeString(value, STRING_OFFSET, STRING_LENGTH);
         return this;
     }
 
+    public boolean stringEquals(CharSequence value) {
+        return nativeStringEquals(STRING_OFFSET, STRING_LENGTH, value);
+    }
+
+    public boolean stringEquals(TestFlyweight other) {
+        return compare(other, STRING_OFFSET, STRING_LENGTH);
+    }
+
+    public int stringHash() {
+        return nativeStringHash(STRING_OFFSET, STRING_LENGTH);
+    }
+
+    public StringBuilder appendString(StringBuilder builder) {
+        return appendString(STRING_OFFSET, STRING_LENGTH, builder);
+    }
+
     @Override
     public boolean equals(Object object) {
         if (this == object) {
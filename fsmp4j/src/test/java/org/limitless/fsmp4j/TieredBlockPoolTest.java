@@ -0,0 +1,164 @@
+package org.limitless.fsmp4j;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TieredBlockPoolTest {
+
+    @Test
+    public void tieredSegments() throws IOException {
+        final Path path = Files.createTempFile("fsmp4j", ".spill");
+        final var budget = new MemoryBudget(1 << 20);
+        final var pool = new TieredBlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class, path)
+            .blocksPerSegment(64).samplePeriod(1).budget(budget.register("tiered", 0)).build();
+        final long segmentSize = 64L * pool.pool().blockLength();
+        final long[] addresses = new long[640];
+        final var block = new TestFlyweight();
+        for (int i = 0; i < addresses.length; ++i) {
+            addresses[i] = pool.allocate(block).int64(i).address();
+        }
+        for (int i = 0; i < 3 * 64; ++i) {
+            pool.get(addresses[i], block);
+        }
+        pool.pool().get(addresses[3 * 64], block);
+        assertEquals(64, pool.accessSamples(0));
+        assertEquals(0, pool.accessSamples(3));
+
+        // segments 3..8 are cold, segment 9 is current
+        assertEquals(new TieredBlockPool.Tiering(6, 0), pool.tier(0, 16));
+        assertEquals(6, pool.spilledSegments());
+        assertEquals(32, pool.accessSamples(0));
+        assertEquals(4 * segmentSize, budget.usedBytes());
+        assertEquals(10 * segmentSize, pool.pool().allocatedBytes());
+        assertEquals(SegmentReport.State.SPILLED, pool.report().state(3));
+        for (int i = 0; i < addresses.length; ++i) {
+            assertEquals(i, pool.get(addresses[i], block).int64());
+        }
+        pool.get(addresses[300], block).int64(-300);
+        pool.free(addresses[301]);
+        assertEquals(addresses[301], pool.allocate(block).int64(-301).address());
+
+        for (int i = 4 * 64; i < 5 * 64; ++i) {
+            pool.get(addresses[i], block);
+        }
+        assertEquals(new TieredBlockPool.Tiering(0, 1), pool.tier(0, 100));
+        assertEquals(5, pool.spilledSegments());
+        assertEquals(5 * segmentSize, budget.usedBytes());
+        assertEquals(-300, pool.get(addresses[300], block).int64());
+        assertEquals(-301, pool.get(addresses[301], block).int64());
+        assertEquals(299, pool.get(addresses[299], block).int64());
+
+        assertThrows(IllegalArgumentException.class, () -> pool.tier(4, 4));
+        assertThrows(IllegalArgumentException.class, () -> pool.accessSamples(10));
+        assertThrows(IllegalArgumentException.class,
+            () -> new TieredBlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class, path).samplePeriod(0).build());
+        assertThrows(IllegalArgumentException.class,
+            () -> new TieredBlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class, null).build());
+        pool.close();
+        assertEquals(0, budget.usedBytes());
+        assertFalse(Files.exists(path));
+    }
+
+    @Test
+    public void loadWithinBudget() throws IOException {
+        final Path path = Files.createTempFile("fsmp4j", ".spill");
+        final var budget = new MemoryBudget(1 << 20);
+        final var pool = new TieredBlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class, path)
+            .blocksPerSegment(16).samplePeriod(1).budget(budget.register("tiered", 0)).build();
+        final long segmentSize = 16L * pool.pool().blockLength();
+        final long[] addresses = new long[3 * 16];
+        final var block = new TestFlyweight();
+        for (int i = 0; i < addresses.length; ++i) {
+            addresses[i] = pool.allocate(block).int64(i).address();
+        }
+        assertEquals(new TieredBlockPool.Tiering(2, 0), pool.tier(0, 1));
+        assertEquals(segmentSize, budget.usedBytes());
+        assertTrue(budget.register("other", 0).reserve(budget.availableBytes() - segmentSize));
+        for (int i = 0; i < 32; ++i) {
+            pool.get(addresses[i], block);
+        }
+
+        // only one spilled segment fits back in memory
+        assertEquals(new TieredBlockPool.Tiering(0, 1), pool.tier(0, 1));
+        assertEquals(1, pool.spilledSegments());
+        assertEquals(0, budget.availableBytes());
+        for (int i = 0; i < addresses.length; ++i) {
+            assertEquals(i, pool.get(addresses[i], block).int64());
+        }
+        pool.close();
+        assertEquals(budget.limitBytes() - 2 * segmentSize, budget.usedBytes());
+    }
+
+    @Test
+    public void readersDeferArenaClose() throws IOException {
+        final Path path = Files.createTempFile("fsmp4j", ".spill");
+        final var pool = new TieredBlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class, path)
+            .blocksPerSegment(16).samplePeriod(1).build();
+        final var reclaimer = new EpochReclaimer<>(pool.pool());
+        final var reader = reclaimer.register();
+        final var block = new TestFlyweight();
+        final var readBlock = new TestFlyweight();
+        final long[] addresses = new long[2 * 16];
+        for (int i = 0; i < addresses.length; ++i) {
+            addresses[i] = pool.allocate(block).int64(i).address();
+        }
+
+        reader.enter();
+        reader.get(addresses[3], readBlock);
+        assertEquals(new TieredBlockPool.Tiering(1, 0), pool.tier(0, 1, reclaimer));
+        assertEquals(1, reclaimer.limboArenas());
+        assertEquals(0, reclaimer.reclaim());
+        assertEquals(3, readBlock.int64());
+        assertEquals(3, pool.get(addresses[3], block).int64());
+        reader.exit();
+        reclaimer.reclaim();
+        assertEquals(0, reclaimer.limboArenas());
+        assertThrows(IllegalStateException.class, readBlock::int64);
+
+        final var other = new BlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class).blocksPerSegment(16).build();
+        assertThrows(IllegalArgumentException.class, () -> pool.tier(0, 1, new EpochReclaimer<>(other)));
+        other.close();
+        reader.close();
+        pool.close();
+    }
+
+    @Test
+    public void concurrentSampling() throws Exception {
+        final Path path = Files.createTempFile("fsmp4j", ".spill");
+        final var pool = new TieredBlockPool.Builder<>(Arena.ofShared(), TestFlyweight.class, path)
+            .blocksPerSegment(16).samplePeriod(1).build();
+        final long[] addresses = new long[4 * 16];
+        final var block = new TestFlyweight();
+        for (int i = 0; i < addresses.length; ++i) {
+            addresses[i] = pool.allocate(block).address();
+        }
+        for (int i = 0; i < addresses.length; i += 16) {
+            pool.get(addresses[i], block);
+        }
+
+        final int gets = 100_000;
+        final Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; ++t) {
+            readers[t] = new Thread(() -> {
+                final var readBlock = new TestFlyweight();
+                for (int i = 0; i < gets; ++i) {
+                    pool.get(addresses[i & 15], readBlock);
+                }
+            });
+            readers[t].start();
+        }
+        for (final Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(1 + readers.length * gets, pool.accessSamples(0));
+        assertEquals(1, pool.accessSamples(1));
+        assertEquals(1 + readers.length * gets, pool.report().accessSamples(0));
+        pool.close();
+    }
+}
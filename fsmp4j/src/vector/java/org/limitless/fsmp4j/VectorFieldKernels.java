@@ -0,0 +1,223 @@
+package org.limitless.fsmp4j;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+
+/**
+ * Vector API implementation of the field kernels, only loaded when the jdk.incubator.vector
+ * module is present. It is built from its own source set into an optional artifact, so that the
+ * core library does not compile against the incubator module.
+ *
+ * The fields are strided, so the kernels load whole vectors from the segment and mask the lanes
+ * holding the field. A stride dividing the vector size puts the same number of fields in every
+ * vector at the same lanes. The caller handles the fields after the last whole vector.
+ */
+final class VectorFieldKernels implements VectorKernels {
+
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> WIDE_INTS = LongVector.SPECIES_PREFERRED.withShape(INTS.vectorShape());
+    private static final ByteOrder ORDER = ByteOrder.nativeOrder();
+
+    VectorFieldKernels() {
+    }
+
+    @Override
+    public boolean supportsLong(final long offset, final long stride) {
+        return offset % Long.BYTES == 0 && stride % Long.BYTES == 0 && LONGS.vectorByteSize() % stride == 0;
+    }
+
+    @Override
+    public boolean supportsInt(final long offset, final long stride) {
+        return offset % Integer.BYTES == 0 && stride % Integer.BYTES == 0 && INTS.vectorByteSize() % stride == 0;
+    }
+
+    /**
+     * The number of fields covered by whole vectors inside the segment
+     */
+    @Override
+    public int longFields(final MemorySegment segment, final long offset, final long stride, final int count) {
+        return fields(segment, offset, stride, count, LONGS.vectorByteSize());
+    }
+
+    @Override
+    public int intFields(final MemorySegment segment, final long offset, final long stride, final int count) {
+        return fields(segment, offset, stride, count, INTS.vectorByteSize());
+    }
+
+    @Override
+    public long sumLong(final MemorySegment segment, final long offset, final long stride, final int fields) {
+        final VectorMask<Long> mask = longMask(offset, stride);
+        final long end = end(offset, stride, fields);
+        LongVector sum = LongVector.zero(LONGS);
+        for (long position = offset - offset % stride; position < end; position += LONGS.vectorByteSize()) {
+            sum = sum.add(LongVector.fromMemorySegment(LONGS, segment, position, ORDER), mask);
+        }
+        return sum.reduceLanes(VectorOperators.ADD);
+    }
+
+    @Override
+    public long minLong(final MemorySegment segment, final long offset, final long stride, final int fields) {
+        final VectorMask<Long> mask = longMask(offset, stride);
+        final long end = end(offset, stride, fields);
+        LongVector min = LongVector.broadcast(LONGS, Long.MAX_VALUE);
+        for (long position = offset - offset % stride; position < end; position += LONGS.vectorByteSize()) {
+            min = min.lanewise(VectorOperators.MIN, LongVector.fromMemorySegment(LONGS, segment, position, ORDER), mask);
+        }
+        return min.reduceLanes(VectorOperators.MIN);
+    }
+
+    @Override
+    public long maxLong(final MemorySegment segment, final long offset, final long stride, final int fields) {
+        final VectorMask<Long> mask = longMask(offset, stride);
+        final long end = end(offset, stride, fields);
+        LongVector max = LongVector.broadcast(LONGS, Long.MIN_VALUE);
+        for (long position = offset - offset % stride; position < end; position += LONGS.vectorByteSize()) {
+            max = max.lanewise(VectorOperators.MAX, LongVector.fromMemorySegment(LONGS, segment, position, ORDER), mask);
+        }
+        return max.reduceLanes(VectorOperators.MAX);
+    }
+
+    @Override
+    public int countLong(final MemorySegment segment, final long offset, final long stride, final int fields,
+                          final FieldKernels.Comparison comparison, final long operand) {
+        final VectorMask<Long> mask = longMask(offset, stride);
+        final VectorOperators.Comparison operator = operator(comparison);
+        final long end = end(offset, stride, fields);
+        int matches = 0;
+        for (long position = offset - offset % stride; position < end; position += LONGS.vectorByteSize()) {
+            matches += LongVector.fromMemorySegment(LONGS, segment, position, ORDER)
+                .compare(operator, operand, mask).trueCount();
+        }
+        return matches;
+    }
+
+    @Override
+    public int findFirstLong(final MemorySegment segment, final long offset, final long stride, final int fields,
+                              final FieldKernels.Comparison comparison, final long operand) {
+        final VectorMask<Long> mask = longMask(offset, stride);
+        final VectorOperators.Comparison operator = operator(comparison);
+        final long end = end(offset, stride, fields);
+        for (long position = offset - offset % stride; position < end; position += LONGS.vectorByteSize()) {
+            final VectorMask<Long> matches = LongVector.fromMemorySegment(LONGS, segment, position, ORDER)
+                .compare(operator, operand, mask);
+            if (matches.anyTrue()) {
+                return (int) ((position + (long) matches.firstTrue() * Long.BYTES - offset) / stride);
+            }
+        }
+        return FieldKernels.NOT_FOUND;
+    }
+
+    @Override
+    public long sumInt(final MemorySegment segment, final long offset, final long stride, final int fields) {
+        final VectorMask<Integer> mask = intMask(offset, stride);
+        final IntVector zero = IntVector.zero(INTS);
+        final long end = end(offset, stride, fields);
+        LongVector sum = LongVector.zero(WIDE_INTS);
+        for (long position = offset - offset % stride; position < end; position += INTS.vectorByteSize()) {
+            final IntVector values = zero.blend(IntVector.fromMemorySegment(INTS, segment, position, ORDER), mask);
+            sum = sum.add(values.convert(VectorOperators.I2L, 0)).add(values.convert(VectorOperators.I2L, 1));
+        }
+        return sum.reduceLanes(VectorOperators.ADD);
+    }
+
+    @Override
+    public int minInt(final MemorySegment segment, final long offset, final long stride, final int fields) {
+        final VectorMask<Integer> mask = intMask(offset, stride);
+        final long end = end(offset, stride, fields);
+        IntVector min = IntVector.broadcast(INTS, Integer.MAX_VALUE);
+        for (long position = offset - offset % stride; position < end; position += INTS.vectorByteSize()) {
+            min = min.lanewise(VectorOperators.MIN, IntVector.fromMemorySegment(INTS, segment, position, ORDER), mask);
+        }
+        return min.reduceLanes(VectorOperators.MIN);
+    }
+
+    @Override
+    public int maxInt(final MemorySegment segment, final long offset, final long stride, final int fields) {
+        final VectorMask<Integer> mask = intMask(offset, stride);
+        final long end = end(offset, stride, fields);
+        IntVector max = IntVector.broadcast(INTS, Integer.MIN_VALUE);
+        for (long position = offset - offset % stride; position < end; position += INTS.vectorByteSize()) {
+            max = max.lanewise(VectorOperators.MAX, IntVector.fromMemorySegment(INTS, segment, position, ORDER), mask);
+        }
+        return max.reduceLanes(VectorOperators.MAX);
+    }
+
+    @Override
+    public int countInt(final MemorySegment segment, final long offset, final long stride, final int fields,
+                         final FieldKernels.Comparison comparison, final int operand) {
+        final VectorMask<Integer> mask = intMask(offset, stride);
+        final VectorOperators.Comparison operator = operator(comparison);
+        final long end = end(offset, stride, fields);
+        int matches = 0;
+        for (long position = offset - offset % stride; position < end; position += INTS.vectorByteSize()) {
+            matches += IntVector.fromMemorySegment(INTS, segment, position, ORDER)
+                .compare(operator, operand, mask).trueCount();
+        }
+        return matches;
+    }
+
+    @Override
+    public int findFirstInt(final MemorySegment segment, final long offset, final long stride, final int fields,
+                             final FieldKernels.Comparison comparison, final int operand) {
+        final VectorMask<Integer> mask = intMask(offset, stride);
+        final VectorOperators.Comparison operator = operator(comparison);
+        final long end = end(offset, stride, fields);
+        for (long position = offset - offset % stride; position < end; position += INTS.vectorByteSize()) {
+            final VectorMask<Integer> matches = IntVector.fromMemorySegment(INTS, segment, position, ORDER)
+                .compare(operator, operand, mask);
+            if (matches.anyTrue()) {
+                return (int) ((position + (long) matches.firstTrue() * Integer.BYTES - offset) / stride);
+            }
+        }
+        return FieldKernels.NOT_FOUND;
+    }
+
+    private static int fields(final MemorySegment segment, final long offset, final long stride, final int count,
+                              final int vectorLength) {
+        final long base = offset - offset % stride;
+        final int fieldsPerVector = (int) (vectorLength / stride);
+        final long vectors = Math.min(count / fieldsPerVector, (segment.byteSize() - base) / vectorLength);
+        return (int) vectors * fieldsPerVector;
+    }
+
+    private static long end(final long offset, final long stride, final int fields) {
+        return offset - offset % stride + (long) fields * stride;
+    }
+
+    private static VectorMask<Long> longMask(final long offset, final long stride) {
+        return VectorMask.fromLong(LONGS, laneBits(offset, stride, LONGS.vectorByteSize(), Long.BYTES));
+    }
+
+    private static VectorMask<Integer> intMask(final long offset, final long stride) {
+        return VectorMask.fromLong(INTS, laneBits(offset, stride, INTS.vectorByteSize(), Integer.BYTES));
+    }
+
+    /**
+     * The lanes of the fields in a vector starting at a stride boundary
+     */
+    private static long laneBits(final long offset, final long stride, final int vectorLength, final int laneLength) {
+        long bits = 0;
+        for (long position = offset % stride; position < vectorLength; position += stride) {
+            bits |= 1L << (position / laneLength);
+        }
+        return bits;
+    }
+
+    private static VectorOperators.Comparison operator(final FieldKernels.Comparison comparison) {
+        return switch (comparison) {
+            case EQ -> VectorOperators.EQ;
+            case NE -> VectorOperators.NE;
+            case LT -> VectorOperators.LT;
+            case LE -> VectorOperators.LE;
+            case GT -> VectorOperators.GT;
+            case GE -> VectorOperators.GE;
+        };
+    }
+}